@@ -0,0 +1,206 @@
+/*
+ * Copyright 2016-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.github.pnoker.center.benchmark;
+
+import cn.hutool.core.util.ClassUtil;
+import io.github.pnoker.center.data.buffer.PointIdRegistry;
+import io.github.pnoker.center.data.buffer.PointValueCompressor;
+import io.github.pnoker.center.data.buffer.RealtimeValueCache;
+import io.github.pnoker.center.data.service.impl.RepositoryHandleServiceImpl;
+import io.github.pnoker.center.data.service.impl.repository.LastValueServiceImpl;
+import io.github.pnoker.center.data.service.impl.repository.RollupServiceImpl;
+import io.github.pnoker.center.data.strategy.RepositoryStrategyFactory;
+import io.github.pnoker.common.constant.common.ExceptionConstant;
+import io.github.pnoker.common.constant.driver.StrategyConstant;
+import io.github.pnoker.common.entity.point.PointValue;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.springframework.core.env.StandardEnvironment;
+
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+
+/**
+ * 基准测试公共工具类
+ * <p>
+ * 不启动 Spring 容器, 按 application.yml 的默认配置通过 setter 为各组件设置配置和依赖,
+ * 外部存储全部替换为 {@link InMemoryRepositoryService}。
+ *
+ * @author pnoker
+ * @since 2022.1.0
+ */
+public class BenchmarkFixture {
+
+    /**
+     * 可选存储服务, 按 sinks 参数依次启用
+     */
+    private static final String[] OPTIONAL_SINKS = {
+            StrategyConstant.Storage.INFLUXDB,
+            StrategyConstant.Storage.STRATEGY_OPENTSDB,
+            StrategyConstant.Storage.STRATEGY_ELASTICSEARCH,
+            LastValueServiceImpl.LAST,
+            RollupServiceImpl.ROLLUP
+    };
+
+    /**
+     * 可选存储服务的启用开关, 与 {@link #OPTIONAL_SINKS} 顺序一致
+     */
+    private static final List<BiConsumer<RepositoryHandleServiceImpl, Boolean>> OPTIONAL_SINK_SWITCHES = Arrays.asList(
+            RepositoryHandleServiceImpl::setEnableInfluxdb,
+            RepositoryHandleServiceImpl::setEnableOpentsdb,
+            RepositoryHandleServiceImpl::setEnableElasticsearch,
+            RepositoryHandleServiceImpl::setEnableLastValue,
+            RepositoryHandleServiceImpl::setEnableRollup
+    );
+
+    private BenchmarkFixture() {
+        throw new IllegalStateException(ExceptionConstant.UTILITY_CLASS);
+    }
+
+    /**
+     * 生成 PointValue, 按设备和位号轮询, 模拟多个驱动同时上报
+     *
+     * @param size    数量
+     * @param devices 设备数量
+     * @param points  每个设备的位号数量
+     * @return PointValue Array
+     */
+    public static List<PointValue> pointValues(int size, int devices, int points) {
+        List<PointValue> pointValues = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            pointValues.add(pointValue(i % devices, (i / devices) % points));
+        }
+        return pointValues;
+    }
+
+    /**
+     * 生成 PointValue
+     *
+     * @param device 设备序号
+     * @param point  位号序号
+     * @return PointValue
+     */
+    public static PointValue pointValue(int device, int point) {
+        String rawValue = String.valueOf(ThreadLocalRandom.current().nextInt(10000) / 100d);
+        PointValue pointValue = new PointValue("device-" + device, "point-" + point, rawValue, rawValue);
+        pointValue.setOriginTime(new Date());
+        return pointValue;
+    }
+
+    /**
+     * 复制 PointValue, 存储链路会修改 createTime, 每次调用都使用新的对象
+     *
+     * @param pointValue PointValue
+     * @return PointValue
+     */
+    public static PointValue copy(PointValue pointValue) {
+        PointValue copy = new PointValue(pointValue.getDeviceId(), pointValue.getPointId(), pointValue.getRawValue(), pointValue.getValue());
+        copy.setOriginTime(pointValue.getOriginTime());
+        return copy;
+    }
+
+    /**
+     * 创建存储处理服务, Redis、Mongo 和启用的可选存储均为内存实现
+     *
+     * @param sinks      除 Redis、Mongo 以外启用的存储数量, 0-5
+     * @param writeCost  内存存储每个值模拟的写入开销, 见 {@link InMemoryRepositoryService}
+     * @param repository 创建的内存存储, 用于统计写入数量
+     * @return RepositoryHandleServiceImpl
+     * @throws IOException IOException
+     */
+    public static RepositoryHandleServiceImpl repositoryHandleService(int sinks, long writeCost, List<InMemoryRepositoryService> repository) throws IOException {
+        PointIdRegistry pointIdRegistry = new PointIdRegistry();
+
+        PointValueCompressor pointValueCompressor = new PointValueCompressor();
+        pointValueCompressor.setCompressMode("none");
+        pointValueCompressor.setDeviation(0d);
+        pointValueCompressor.setPercent(0d);
+        pointValueCompressor.setMaxInterval(600000L);
+        pointValueCompressor.setPointIdRegistry(pointIdRegistry);
+        pointValueCompressor.afterPropertiesSet();
+
+        RealtimeValueCache realtimeValueCache = new RealtimeValueCache();
+        realtimeValueCache.setEnable(true);
+        realtimeValueCache.setCapacity(1000000);
+        realtimeValueCache.setMaxAge(5000L);
+        realtimeValueCache.setPointIdRegistry(pointIdRegistry);
+
+        InMemoryRepositoryService redis = new InMemoryRepositoryService(StrategyConstant.Storage.REDIS, writeCost);
+        InMemoryRepositoryService mongo = new InMemoryRepositoryService(StrategyConstant.Storage.MONGO, writeCost);
+        repository.add(redis);
+        repository.add(mongo);
+
+        RepositoryHandleServiceImpl repositoryHandleService = new RepositoryHandleServiceImpl();
+        for (int i = 0; i < OPTIONAL_SINKS.length; i++) {
+            boolean enable = i < sinks;
+            OPTIONAL_SINK_SWITCHES.get(i).accept(repositoryHandleService, enable);
+            if (enable) {
+                InMemoryRepositoryService sink = new InMemoryRepositoryService(OPTIONAL_SINKS[i], writeCost);
+                RepositoryStrategyFactory.put(OPTIONAL_SINKS[i], sink);
+                repository.add(sink);
+            }
+        }
+        repositoryHandleService.setCapacity(100000);
+        repositoryHandleService.setWorkerSize(1);
+        repositoryHandleService.setBatchSize(1000);
+        repositoryHandleService.setOverflow("block");
+        repositoryHandleService.setSpillPath("dc3/data/spill");
+        repositoryHandleService.setEnableWal(false);
+        repositoryHandleService.setWalPath("dc3/data/wal");
+        repositoryHandleService.setSegmentSize(67108864);
+        repositoryHandleService.setCommitInterval(10L);
+        repositoryHandleService.setWalBatchSize(1000);
+        repositoryHandleService.setWalBackoff(1000L);
+        repositoryHandleService.setRedisRepositoryService(redis);
+        repositoryHandleService.setMongoRepositoryService(mongo);
+        repositoryHandleService.setPointValueCompressor(pointValueCompressor);
+        repositoryHandleService.setRealtimeValueCache(realtimeValueCache);
+        repositoryHandleService.setEnvironment(new StandardEnvironment());
+        repositoryHandleService.setMeterRegistry(new SimpleMeterRegistry());
+        repositoryHandleService.afterPropertiesSet();
+        return repositoryHandleService;
+    }
+
+    /**
+     * 创建接口代理, 用于 Channel 等不关心调用结果的依赖, 未处理的方法返回基本类型的默认值
+     *
+     * @param type    接口
+     * @param handler 方法名称和参数 -> 返回值
+     * @param <T>     接口类型
+     * @return 代理对象
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> T proxy(Class<T> type, BiFunction<String, Object[], Object> handler) {
+        return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, (proxy, method, args) -> {
+            if (method.getDeclaringClass() == Object.class) {
+                return method.invoke(handler, args);
+            }
+            Object result = handler.apply(method.getName(), args);
+            if (null == result && method.getReturnType().isPrimitive() && method.getReturnType() != void.class) {
+                return ClassUtil.getDefaultValue(method.getReturnType());
+            }
+            return result;
+        });
+    }
+}
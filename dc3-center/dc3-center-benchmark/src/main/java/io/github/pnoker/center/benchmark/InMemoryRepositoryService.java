@@ -0,0 +1,88 @@
+/*
+ * Copyright 2016-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.github.pnoker.center.benchmark;
+
+import io.github.pnoker.center.data.service.RepositoryService;
+import io.github.pnoker.common.entity.point.PointValue;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 内存存储服务
+ * <p>
+ * 代替 Redis、Mongo 和各时序数据库, 只统计写入数量,
+ * writeCost 大于 0 时每个值消耗对应的 CPU 时间片 ({@link Blackhole#consumeCPU(long)}), 模拟存储客户端的序列化开销。
+ *
+ * @author pnoker
+ * @since 2022.1.0
+ */
+public class InMemoryRepositoryService implements RepositoryService {
+
+    private final String name;
+    private final long writeCost;
+    private final LongAdder written = new LongAdder();
+    private final LongAdder writes = new LongAdder();
+
+    public InMemoryRepositoryService(String name, long writeCost) {
+        this.name = name;
+        this.writeCost = writeCost;
+    }
+
+    @Override
+    public String getRepositoryName() {
+        return name;
+    }
+
+    @Override
+    public void savePointValue(PointValue pointValue) {
+        write(1);
+    }
+
+    @Override
+    public void savePointValues(String deviceId, List<PointValue> pointValues) {
+        write(pointValues.size());
+    }
+
+    /**
+     * 获取已写入的 PointValue 数量
+     *
+     * @return Written
+     */
+    public long getWritten() {
+        return written.sum();
+    }
+
+    /**
+     * 获取写入请求次数
+     *
+     * @return Writes
+     */
+    public long getWrites() {
+        return writes.sum();
+    }
+
+    private void write(int size) {
+        if (writeCost > 0) {
+            Blackhole.consumeCPU(writeCost * size);
+        }
+        written.add(size);
+        writes.increment();
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2016-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.github.pnoker.center.benchmark;
+
+import io.github.pnoker.center.data.utils.PointValueCodecUtil;
+import io.github.pnoker.common.entity.point.PointValue;
+import io.github.pnoker.common.utils.JsonUtil;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * PointValue 消息编解码基准测试
+ * <p>
+ * 对比 JSON 和 {@link PointValueCodecUtil} 二进制格式每个值的编解码耗时和消息大小,
+ * 每次操作为一个值, 配合 -prof gc 时 gc.alloc.rate.norm 即为每个值的分配字节数,
+ * bytes 计数除以操作数即为每个值的消息字节数。
+ *
+ * @author pnoker
+ * @since 2022.1.0
+ */
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class PointValueCodecBenchmark {
+
+    private PointValue pointValue;
+    private byte[] json;
+    private byte[] binary;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        pointValue = BenchmarkFixture.pointValue(0, 0);
+        json = JsonUtil.toJsonString(pointValue).getBytes(StandardCharsets.UTF_8);
+        binary = PointValueCodecUtil.encode(pointValue, true);
+    }
+
+    /**
+     * 消息大小计数
+     */
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Size {
+        public long bytes;
+    }
+
+    @Benchmark
+    public byte[] encodeJson(Size size) {
+        byte[] body = JsonUtil.toJsonString(pointValue).getBytes(StandardCharsets.UTF_8);
+        size.bytes += body.length;
+        return body;
+    }
+
+    @Benchmark
+    public byte[] encodeBinary(Size size) {
+        byte[] body = PointValueCodecUtil.encode(pointValue, true);
+        size.bytes += body.length;
+        return body;
+    }
+
+    @Benchmark
+    public PointValue decodeJson() {
+        return JsonUtil.parseObject(new String(json, StandardCharsets.UTF_8), PointValue.class);
+    }
+
+    @Benchmark
+    public PointValue decodeBinary() {
+        return PointValueCodecUtil.decode(binary);
+    }
+}
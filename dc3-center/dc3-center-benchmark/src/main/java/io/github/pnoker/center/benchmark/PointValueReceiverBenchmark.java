@@ -0,0 +1,265 @@
+/*
+ * Copyright 2016-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.github.pnoker.center.benchmark;
+
+import com.rabbitmq.client.Channel;
+import io.github.pnoker.center.data.buffer.AdaptiveBatchController;
+import io.github.pnoker.center.data.buffer.PointValueBuffer;
+import io.github.pnoker.center.data.service.PointValueService;
+import io.github.pnoker.center.data.service.impl.PointValuePushServiceImpl;
+import io.github.pnoker.center.data.service.impl.RepositoryHandleServiceImpl;
+import io.github.pnoker.center.data.service.rabbit.PointValueMessageConverter;
+import io.github.pnoker.center.data.service.rabbit.PointValueReceiver;
+import io.github.pnoker.center.data.utils.PointValueCodecUtil;
+import io.github.pnoker.common.entity.point.PointValue;
+import io.github.pnoker.common.utils.JsonUtil;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.support.converter.ContentTypeDelegatingMessageConverter;
+import org.springframework.amqp.support.converter.DefaultClassMapper;
+import org.springframework.amqp.support.converter.Jackson2JsonMessageConverter;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 接收链路基准测试
+ * <p>
+ * 从 RabbitMQ 消息开始, 经消息转换、{@link PointValueReceiver}、SSE 推送、批量缓冲,
+ * 到 {@link RepositoryHandleServiceImpl} 和内存存储, 测量单个值的接收开销。
+ * mode 为 batch 时自适应控制器固定使用批量模式, direct 时固定逐条保存;
+ * format 对比 JSON 和二进制消息格式。
+ * <p>
+ * Throughput 模式下 values 为每秒接收的值数量, SampleTime 模式给出单条消息处理耗时的 p99/p99.9,
+ * 并发消费者数量使用 -t 指定, -prof gc 的 gc.alloc.rate.norm 即为每个值的分配字节数,
+ * -rf json -rff baseline.json 保存结果作为之后对比的基线。
+ * 接收方只把值交给缓冲或线程池, 存储写入在后台线程完成, 每轮结束后等待后台写入排空。
+ *
+ * @author pnoker
+ * @since 2022.1.0
+ */
+@Fork(1)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+public class PointValueReceiverBenchmark {
+
+    private static final String MODE_BATCH = "batch";
+    private static final String FORMAT_BINARY = "binary";
+
+    @Param({"batch", "direct"})
+    public String mode;
+    @Param({"json", "binary"})
+    public String format;
+    @Param({"10", "1000"})
+    public int devices;
+    @Param({"0", "3"})
+    public int sinks;
+
+    private final List<InMemoryRepositoryService> repository = new ArrayList<>();
+    private RepositoryHandleServiceImpl repositoryHandleService;
+    private PointValuePushServiceImpl pointValuePushService;
+    private AdaptiveBatchController adaptiveBatchController;
+    private PointValueBuffer pointValueBuffer;
+    private ThreadPoolExecutor threadPoolExecutor;
+    private PointValueReceiver pointValueReceiver;
+    private ContentTypeDelegatingMessageConverter messageConverter;
+    private Channel channel;
+
+    /**
+     * 每个线程轮流发送的消息, 消息在测试过程中重复使用, 每次转换得到新的 PointValue
+     */
+    @State(Scope.Thread)
+    public static class Messages {
+        private Message[] messages;
+        private int next;
+
+        @Setup(Level.Trial)
+        public void setup(PointValueReceiverBenchmark benchmark) {
+            List<PointValue> pointValues = BenchmarkFixture.pointValues(benchmark.devices * 20, benchmark.devices, 20);
+            messages = new Message[pointValues.size()];
+            for (int i = 0; i < messages.length; i++) {
+                messages[i] = benchmark.toMessage(pointValues.get(i));
+            }
+        }
+
+        private Message next() {
+            Message message = messages[next];
+            next = (next + 1) % messages.length;
+            return message;
+        }
+    }
+
+    /**
+     * 接收值数量计数
+     */
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Values {
+        public long values;
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        repositoryHandleService = BenchmarkFixture.repositoryHandleService(sinks, 0, repository);
+        PointValueService pointValueService = BenchmarkFixture.proxy(PointValueService.class, this::savePointValue);
+
+        pointValuePushService = new PointValuePushServiceImpl();
+        pointValuePushService.setDefaultInterval(50L);
+        pointValuePushService.setTimeout(0L);
+        pointValuePushService.setSlowTimeout(5000L);
+        pointValuePushService.setHeartbeat(15000L);
+        pointValuePushService.setMaxSubscribers(1000);
+        pointValuePushService.setWorkerSize(4);
+        pointValuePushService.afterPropertiesSet();
+
+        adaptiveBatchController = new AdaptiveBatchController();
+        // Pin the mode: any rate reaches speed 0, no rate reaches Integer.MAX_VALUE
+        adaptiveBatchController.setBatchSpeed(MODE_BATCH.equals(mode) ? 0 : Integer.MAX_VALUE);
+        adaptiveBatchController.setShardSize(16);
+        adaptiveBatchController.setMaxBatchSize(1000);
+        adaptiveBatchController.setMaxFlushAge(1000L);
+        adaptiveBatchController.setTargetLatency(500L);
+        adaptiveBatchController.setMinBatchSize(50);
+        adaptiveBatchController.setMinFlushAge(20L);
+        adaptiveBatchController.setHalfLife(5000L);
+        adaptiveBatchController.setTick(200L);
+        adaptiveBatchController.afterPropertiesSet();
+
+        pointValueBuffer = new PointValueBuffer();
+        pointValueBuffer.setShardSize(16);
+        pointValueBuffer.setCapacity(20000);
+        pointValueBuffer.setBatchSize(1000);
+        pointValueBuffer.setPointValueService(pointValueService);
+        pointValueBuffer.setAdaptiveBatchController(adaptiveBatchController);
+        pointValueBuffer.afterPropertiesSet();
+
+        int processors = Runtime.getRuntime().availableProcessors();
+        threadPoolExecutor = new ThreadPoolExecutor(processors, processors * 2, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(10000), new ThreadPoolExecutor.CallerRunsPolicy());
+
+        pointValueReceiver = new PointValueReceiver();
+        pointValueReceiver.setBufferTimeout(500L);
+        pointValueReceiver.setPointValueService(pointValueService);
+        pointValueReceiver.setPointValuePushService(pointValuePushService);
+        pointValueReceiver.setPointValueBuffer(pointValueBuffer);
+        pointValueReceiver.setAdaptiveBatchController(adaptiveBatchController);
+        pointValueReceiver.setThreadPoolExecutor(threadPoolExecutor);
+
+        // Same converters as MessageConverterConfig, the listener infers PointValue from the method signature
+        DefaultClassMapper classMapper = new DefaultClassMapper();
+        classMapper.setDefaultType(PointValue.class);
+        Jackson2JsonMessageConverter jsonMessageConverter = new Jackson2JsonMessageConverter();
+        jsonMessageConverter.setClassMapper(classMapper);
+        messageConverter = new ContentTypeDelegatingMessageConverter(jsonMessageConverter);
+        messageConverter.addDelegate(PointValueMessageConverter.CONTENT_TYPE, new PointValueMessageConverter());
+
+        channel = BenchmarkFixture.proxy(Channel.class, (method, args) -> null);
+    }
+
+    /**
+     * 每轮结束后等待缓冲、线程池和写入管道排空, 避免上一轮的积压计入下一轮
+     */
+    @TearDown(Level.Iteration)
+    public void drain() {
+        while (pointValueBuffer.size() > 0 || threadPoolExecutor.getActiveCount() > 0 || !threadPoolExecutor.getQueue().isEmpty()) {
+            Thread.yield();
+        }
+        repositoryHandleService.getPipelines().forEach(pipeline -> {
+            while (pipeline.getQueueSize() > 0) {
+                Thread.yield();
+            }
+        });
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws InterruptedException {
+        pointValueBuffer.destroy();
+        threadPoolExecutor.shutdown();
+        threadPoolExecutor.awaitTermination(10, TimeUnit.SECONDS);
+        adaptiveBatchController.destroy();
+        pointValuePushService.destroy();
+        repositoryHandleService.destroy();
+        repository.clear();
+    }
+
+    @Benchmark
+    public void receive(Messages messages, Values values) {
+        Message message = messages.next();
+        pointValueReceiver.pointValueReceive(channel, message, (PointValue) messageConverter.fromMessage(message));
+        values.values++;
+    }
+
+    private Message toMessage(PointValue pointValue) {
+        MessageProperties messageProperties = new MessageProperties();
+        messageProperties.setReceivedRoutingKey("dc3.r.value.point");
+        if (FORMAT_BINARY.equals(format)) {
+            messageProperties.setContentType(PointValueMessageConverter.CONTENT_TYPE);
+            return new Message(PointValueCodecUtil.encode(pointValue, true), messageProperties);
+        }
+        messageProperties.setContentType(MessageProperties.CONTENT_TYPE_JSON);
+        return new Message(JsonUtil.toJsonString(pointValue).getBytes(StandardCharsets.UTF_8), messageProperties);
+    }
+
+    /**
+     * PointValueService 代理, 与 PointValueServiceImpl 一样设置 createTime 后交给存储处理服务,
+     * 接收方和批量缓冲只调用这两个方法
+     *
+     * @param method 方法名称
+     * @param args   参数
+     * @return null
+     */
+    @SuppressWarnings("unchecked")
+    private Object savePointValue(String method, Object[] args) {
+        switch (method) {
+            case "savePointValue":
+                PointValue pointValue = (PointValue) args[0];
+                pointValue.setCreateTime(new Date());
+                repositoryHandleService.save(pointValue);
+                return null;
+            case "savePointValues":
+                List<PointValue> pointValues = (List<PointValue>) args[0];
+                pointValues.forEach(value -> value.setCreateTime(new Date()));
+                repositoryHandleService.save(pointValues);
+                return null;
+            default:
+                throw new UnsupportedOperationException(method);
+        }
+    }
+}
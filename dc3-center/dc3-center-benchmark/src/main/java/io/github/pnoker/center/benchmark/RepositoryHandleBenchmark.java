@@ -0,0 +1,137 @@
+/*
+ * Copyright 2016-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.github.pnoker.center.benchmark;
+
+import io.github.pnoker.center.data.buffer.RepositoryPipeline;
+import io.github.pnoker.center.data.service.impl.RepositoryHandleServiceImpl;
+import io.github.pnoker.common.entity.point.PointValue;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 存储处理服务基准测试
+ * <p>
+ * 测量 {@link RepositoryHandleServiceImpl} 在不同批量大小、设备数量和启用存储数量下的表现,
+ * 存储为 {@link InMemoryRepositoryService}, 结果只反映本服务的分组、压缩、实时缓存和写入管道开销。
+ * <ul>
+ *     <li>save: 全部存储经写入管道异步写入, 管道队列满时阻塞, 吞吐受最慢的写入管道限制</li>
+ *     <li>persist: 同步写入 Mongo, 其余存储经写入管道异步写入</li>
+ * </ul>
+ * Throughput 模式下 values 为每秒写入的值数量, SampleTime 模式给出每批次耗时的 p50/p99/p99.9;
+ * 线程数使用 -t 指定, -prof gc 的 gc.alloc.rate.norm 除以 batchSize 即为每个值的分配字节数,
+ * -rf json -rff baseline.json 保存结果作为之后对比的基线。
+ *
+ * @author pnoker
+ * @since 2022.1.0
+ */
+@Fork(1)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+public class RepositoryHandleBenchmark {
+
+    @Param({"1", "100", "1000"})
+    public int batchSize;
+    @Param({"10", "1000"})
+    public int devices;
+    @Param({"0", "3"})
+    public int sinks;
+    @Param({"0"})
+    public long writeCost;
+
+    private RepositoryHandleServiceImpl repositoryHandleService;
+    private final List<InMemoryRepositoryService> repository = new ArrayList<>();
+
+    /**
+     * 每个线程使用自己的批次, 批次在测试过程中重复使用, 避免把构造数据的分配计入结果
+     */
+    @State(Scope.Thread)
+    public static class Batch {
+        private List<PointValue> pointValues;
+
+        @Setup(Level.Trial)
+        public void setup(RepositoryHandleBenchmark benchmark) {
+            pointValues = BenchmarkFixture.pointValues(benchmark.batchSize, benchmark.devices, 20);
+            pointValues.forEach(pointValue -> pointValue.setCreateTime(new Date()));
+        }
+    }
+
+    /**
+     * 写入值数量计数
+     */
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Values {
+        public long values;
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        repositoryHandleService = BenchmarkFixture.repositoryHandleService(sinks, writeCost, repository);
+    }
+
+    /**
+     * 每轮结束后等待写入管道排空, 避免上一轮的积压计入下一轮
+     */
+    @TearDown(Level.Iteration)
+    public void drain() {
+        for (RepositoryPipeline pipeline : repositoryHandleService.getPipelines()) {
+            while (pipeline.getQueueSize() > 0) {
+                Thread.yield();
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        repositoryHandleService.destroy();
+        repository.clear();
+    }
+
+    @Benchmark
+    public void save(Batch batch, Values values) {
+        repositoryHandleService.save(batch.pointValues);
+        values.values += batch.pointValues.size();
+    }
+
+    @Benchmark
+    public void persist(Batch batch, Values values) throws IOException {
+        repositoryHandleService.persist(batch.pointValues);
+        values.values += batch.pointValues.size();
+    }
+}
@@ -0,0 +1,237 @@
+/*
+ * Copyright 2016-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.pnoker.center.data.buffer;
+
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 自适应批量控制器
+ * <p>
+ * 每个 tick 以指数加权移动平均 (EWMA) 更新接收速率, 以最近的批量保存耗时计算 p99,
+ * 并据此连续调整:
+ * <ul>
+ *     <li>模式: 速率高于 data.point.batch.speed 进入批量模式, 低于其 80% 才回到逐条模式, 避免来回切换;</li>
+ *     <li>刷新时限: 目标延迟减去保存耗时 p99, 数据在缓冲区中等待与保存的总时长接近目标;</li>
+ *     <li>批量大小: 一个刷新时限内每个分片预计收到的数量, 保存耗时超过目标时按比例收缩。</li>
+ * </ul>
+ *
+ * @author pnoker
+ * @since 2022.1.0
+ */
+@Slf4j
+@Component
+public class AdaptiveBatchController implements InitializingBean, DisposableBean {
+
+    private static final int SAMPLE_SIZE = 512;
+
+    @Value("${data.point.batch.speed}")
+    @Setter
+    private Integer batchSpeed;
+    @Value("${data.point.batch.buffer.shard}")
+    @Setter
+    private Integer shardSize;
+    @Value("${data.point.batch.buffer.size}")
+    @Setter
+    private Integer maxBatchSize;
+    @Value("${data.point.batch.buffer.age}")
+    @Setter
+    private Long maxFlushAge;
+    @Value("${data.point.batch.adaptive.target-latency}")
+    @Setter
+    private Long targetLatency;
+    @Value("${data.point.batch.adaptive.min-batch}")
+    @Setter
+    private Integer minBatchSize;
+    @Value("${data.point.batch.adaptive.min-age}")
+    @Setter
+    private Long minFlushAge;
+    @Value("${data.point.batch.adaptive.half-life}")
+    @Setter
+    private Long halfLife;
+    @Value("${data.point.batch.adaptive.tick}")
+    @Setter
+    private Long tick;
+
+    private final LongAdder arrivals = new LongAdder();
+    private final LongAdder received = new LongAdder();
+    private final long[] samples = new long[SAMPLE_SIZE];
+    private int sampleCount;
+    private int sampleIndex;
+
+    private volatile boolean batch;
+    private volatile double rate;
+    private volatile long latency;
+    private volatile int batchSize;
+    private volatile long flushAge;
+    private volatile long switches;
+
+    private double alpha;
+    private ScheduledExecutorService scheduler;
+
+    @Override
+    public void afterPropertiesSet() {
+        batchSize = maxBatchSize;
+        flushAge = maxFlushAge;
+        // Weight of one tick, so that a sample loses half its weight after half-life
+        alpha = 1 - Math.pow(0.5, (double) tick / halfLife);
+
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "adaptive-batch");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleAtFixedRate(this::update, tick, tick, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void destroy() {
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * 记录接收到的 PointValue 数量
+     *
+     * @param count 数量
+     */
+    public void onArrival(int count) {
+        arrivals.add(count);
+        received.add(count);
+    }
+
+    /**
+     * 记录一次批量保存的耗时
+     *
+     * @param nanos 耗时纳秒
+     */
+    public synchronized void onSave(long nanos) {
+        samples[sampleIndex] = nanos;
+        sampleIndex = (sampleIndex + 1) % SAMPLE_SIZE;
+        sampleCount = Math.min(sampleCount + 1, SAMPLE_SIZE);
+    }
+
+    /**
+     * 是否使用批量模式
+     *
+     * @return boolean
+     */
+    public boolean isBatch() {
+        return batch;
+    }
+
+    /**
+     * 获取当前批量大小
+     *
+     * @return Batch Size
+     */
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * 获取当前刷新时限
+     *
+     * @return Milliseconds
+     */
+    public long getFlushAge() {
+        return flushAge;
+    }
+
+    /**
+     * 获取 EWMA 接收速率
+     *
+     * @return Values Per Second
+     */
+    public double getRate() {
+        return rate;
+    }
+
+    /**
+     * 获取最近批量保存耗时 p99
+     *
+     * @return Milliseconds
+     */
+    public long getLatency() {
+        return latency;
+    }
+
+    /**
+     * 获取累计接收数量
+     *
+     * @return Received Count
+     */
+    public long getReceived() {
+        return received.sum();
+    }
+
+    /**
+     * 获取模式切换次数
+     *
+     * @return Switch Count
+     */
+    public long getSwitches() {
+        return switches;
+    }
+
+    private void update() {
+        try {
+            double instant = arrivals.sumThenReset() * 1000.0 / tick;
+            double current = rate + alpha * (instant - rate);
+            rate = current;
+
+            boolean next = batch ? current >= batchSpeed * 0.8 : current >= batchSpeed;
+            if (next != batch) {
+                batch = next;
+                switches++;
+                log.debug("Point value ingestion switch to {} mode, rate: {} /s", next ? "batch" : "direct", (long) current);
+            }
+
+            long p99 = percentile();
+            latency = p99;
+            long age = Math.max(minFlushAge, Math.min(maxFlushAge, targetLatency - p99));
+            flushAge = age;
+
+            int desired = (int) Math.max(minBatchSize, Math.min(maxBatchSize, current * age / 1000 / shardSize));
+            if (p99 > targetLatency) {
+                desired = Math.max(minBatchSize, Math.min(desired, batchSize * 3 / 4));
+            }
+            // Move half way each tick, a single burst does not swing the batch size
+            batchSize = Math.max(minBatchSize, (batchSize + desired) / 2);
+        } catch (Exception e) {
+            log.error("Update adaptive batch controller error: {}", e.getMessage(), e);
+        }
+    }
+
+    private synchronized long percentile() {
+        if (sampleCount == 0) {
+            return 0;
+        }
+        long[] sorted = Arrays.copyOf(samples, sampleCount);
+        Arrays.sort(sorted);
+        return TimeUnit.NANOSECONDS.toMillis(sorted[(int) Math.ceil(sampleCount * 0.99) - 1]);
+    }
+}
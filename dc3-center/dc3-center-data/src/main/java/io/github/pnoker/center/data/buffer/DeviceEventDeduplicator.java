@@ -0,0 +1,304 @@
+/*
+ * Copyright 2016-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.github.pnoker.center.data.buffer;
+
+import cn.hutool.core.util.ObjectUtil;
+import io.github.pnoker.common.constant.common.SymbolConstant;
+import io.github.pnoker.common.entity.DeviceEvent;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+/**
+ * 设备故障事件去重
+ * <p>
+ * 按 (设备ID, 位号ID, 事件内容) 在时间窗口内合并重复事件, 窗口从第一条事件到达开始计时。
+ * 窗口的第一条事件预先分配 _id 后通过 {@link EventBulkInserter} 批量写入, 窗口内的重复事件只在内存中计数,
+ * 窗口结束时按 _id 更新该事件的重复次数 repeat 和末次时间 lastTime; 首次、末次时间取自事件的 createTime。
+ * 第一条事件重试用尽仍写入失败时移除其窗口, 下一条重复事件作为新窗口的第一条事件写入。
+ * 进程退出时最多丢失未结束窗口的重复计数。
+ * 窗口表按开始时间有序且有容量上限, 超出容量时最早的窗口提前结束。
+ * 窗口为 0 时不去重, 每条事件直接批量写入。
+ *
+ * @author pnoker
+ * @since 2022.1.0
+ */
+@Slf4j
+@Component
+public class DeviceEventDeduplicator implements InitializingBean, DisposableBean {
+
+    public static final String REPEAT_FIELD = "repeat";
+    public static final String FIRST_TIME_FIELD = "firstTime";
+    public static final String LAST_TIME_FIELD = "lastTime";
+
+    private static final String ID_FIELD = "_id";
+    private static final String CREATE_TIME_FIELD = "createTime";
+
+    @Value("${data.event.device.dedup.window}")
+    private Long window;
+    @Value("${data.event.device.dedup.capacity}")
+    private Integer capacity;
+    @Value("${data.event.batch.size}")
+    private Integer batchSize;
+    @Value("${data.event.batch.interval}")
+    private Long interval;
+    @Value("${data.event.batch.capacity}")
+    private Integer batchCapacity;
+    @Value("${data.event.batch.max-retries}")
+    private Integer maxRetries;
+
+    @Resource
+    private MongoTemplate mongoTemplate;
+
+    private final LongAdder received = new LongAdder();
+    private final LongAdder suppressed = new LongAdder();
+
+    private String collection;
+    private Map<String, Entry> windowMap;
+    private List<Entry> closed = new ArrayList<>();
+    private EventBulkInserter eventBulkInserter;
+    private ScheduledExecutorService scheduler;
+
+    @Override
+    public void afterPropertiesSet() {
+        collection = mongoTemplate.getCollectionName(DeviceEvent.class);
+        // Insertion order is window start order, the eldest entry is the first window to close
+        windowMap = new LinkedHashMap<String, Entry>(Math.min(capacity, 1024) * 2) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                if (size() > capacity) {
+                    close(eldest.getValue());
+                    return true;
+                }
+                return false;
+            }
+        };
+        eventBulkInserter = new EventBulkInserter(mongoTemplate, collection, batchSize, interval, batchCapacity, maxRetries);
+        eventBulkInserter.setLostListener(this::reopen);
+
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "device-event-dedup");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long tick = Math.max(100, Math.min(window > 0 ? window : interval, interval));
+        scheduler.scheduleWithFixedDelay(this::expire, tick, tick, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void destroy() {
+        scheduler.shutdownNow();
+        synchronized (this) {
+            windowMap.values().forEach(this::close);
+            windowMap.clear();
+        }
+        update(drainClosed());
+        eventBulkInserter.close();
+    }
+
+    /**
+     * 添加设备故障事件, 窗口内的第一条事件进入批量写入
+     *
+     * @param deviceEvent DeviceEvent
+     */
+    public void offer(DeviceEvent deviceEvent) {
+        received.increment();
+        long now = System.currentTimeMillis();
+        Document document = new Document();
+        mongoTemplate.getConverter().write(deviceEvent, document);
+        if (ObjectUtil.isNull(document.get(CREATE_TIME_FIELD))) {
+            document.put(CREATE_TIME_FIELD, now);
+        }
+        long eventTime = eventTime(document.get(CREATE_TIME_FIELD), now);
+        document.put(REPEAT_FIELD, 1L);
+        document.put(FIRST_TIME_FIELD, eventTime);
+        document.put(LAST_TIME_FIELD, eventTime);
+
+        if (window <= 0) {
+            eventBulkInserter.add(document);
+            return;
+        }
+
+        String key = key(document);
+        ObjectId id = new ObjectId();
+        synchronized (this) {
+            Entry entry = windowMap.get(key);
+            if (ObjectUtil.isNotNull(entry) && now - entry.openTime < window) {
+                entry.repeat++;
+                entry.lastTime = Math.max(entry.lastTime, eventTime);
+                suppressed.increment();
+                return;
+            }
+            if (ObjectUtil.isNotNull(entry)) {
+                // Window of the key is closed but not yet expired by the scheduler
+                windowMap.remove(key);
+                close(entry);
+            }
+            document.put(ID_FIELD, id);
+            windowMap.put(key, new Entry(id, now, eventTime));
+        }
+
+        // The preassigned _id lets the repeat update match the document once the bulk insert has written it
+        eventBulkInserter.add(document);
+    }
+
+    public long getReceived() {
+        return received.sum();
+    }
+
+    /**
+     * 获取窗口内被合并的重复事件数量
+     *
+     * @return Suppressed Count
+     */
+    public long getSuppressed() {
+        return suppressed.sum();
+    }
+
+    /**
+     * 获取尚未结束的窗口数量
+     *
+     * @return Window Size
+     */
+    public synchronized int getWindowSize() {
+        return windowMap.size();
+    }
+
+    /**
+     * 移除第一条事件写入失败的窗口, 下一条重复事件作为新窗口的第一条事件写入
+     *
+     * @param documents 写入失败的事件文档
+     */
+    private synchronized void reopen(List<Document> documents) {
+        Set<Object> ids = documents.stream().map(document -> document.get(ID_FIELD)).collect(Collectors.toSet());
+        windowMap.values().removeIf(entry -> ids.contains(entry.id));
+        closed.removeIf(entry -> ids.contains(entry.id));
+    }
+
+    /**
+     * 结束已到期的窗口并更新重复次数, 窗口按开始时间有序, 遇到第一个未到期的窗口即停止
+     */
+    private void expire() {
+        try {
+            long now = System.currentTimeMillis();
+            synchronized (this) {
+                Iterator<Entry> iterator = windowMap.values().iterator();
+                while (iterator.hasNext()) {
+                    Entry entry = iterator.next();
+                    if (now - entry.openTime < window) {
+                        break;
+                    }
+                    close(entry);
+                    iterator.remove();
+                }
+            }
+            update(drainClosed());
+        } catch (Exception e) {
+            log.error("Expire device event window error: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 结束窗口, 只有出现过重复的窗口需要更新
+     *
+     * @param entry Entry
+     */
+    private void close(Entry entry) {
+        if (entry.repeat > 1) {
+            closed.add(entry);
+        }
+    }
+
+    private synchronized List<Entry> drainClosed() {
+        List<Entry> entries = closed;
+        closed = new ArrayList<>();
+        return entries;
+    }
+
+    /**
+     * 按 _id 批量更新已结束窗口的重复次数和末次时间
+     *
+     * @param entries 已结束的窗口
+     */
+    private void update(List<Entry> entries) {
+        if (entries.isEmpty()) {
+            return;
+        }
+
+        try {
+            BulkOperations bulkOperations = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, collection);
+            entries.forEach(entry -> bulkOperations.updateOne(Query.query(Criteria.where(ID_FIELD).is(entry.id)),
+                    Update.update(REPEAT_FIELD, entry.repeat).max(LAST_TIME_FIELD, entry.lastTime)));
+            bulkOperations.execute();
+        } catch (Exception e) {
+            log.error("Update repeat of {} device events error: {}", entries.size(), e.getMessage());
+        }
+    }
+
+    private static long eventTime(Object createTime, long now) {
+        if (createTime instanceof Number) {
+            return ((Number) createTime).longValue();
+        }
+        if (createTime instanceof Date) {
+            return ((Date) createTime).getTime();
+        }
+        return now;
+    }
+
+    private static String key(Document document) {
+        return document.get("deviceId") + SymbolConstant.COLON + document.get("pointId") + SymbolConstant.COLON + document.get("content");
+    }
+
+    private static class Entry {
+        private final ObjectId id;
+        private final long openTime;
+        private long lastTime;
+        private long repeat = 1;
+
+        private Entry(ObjectId id, long openTime, long eventTime) {
+            this.id = id;
+            this.openTime = openTime;
+            this.lastTime = eventTime;
+        }
+    }
+}
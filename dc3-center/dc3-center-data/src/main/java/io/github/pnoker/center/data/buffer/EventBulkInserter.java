@@ -0,0 +1,263 @@
+/*
+ * Copyright 2016-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.github.pnoker.center.data.buffer;
+
+import com.mongodb.bulk.BulkWriteError;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * 事件批量写入
+ * <p>
+ * 事件先进入内存缓冲, 达到批量大小或到达刷新间隔时通过一次无序批量 insert 写入 Mongo,
+ * 大量驱动或设备同时上报事件时不再逐条写入。
+ * 写入失败的事件在之后的刷新中重试, 已写入的事件按主键重复跳过; 超过最大重试次数的事件丢弃,
+ * 并通知 lost 回调。缓冲和待重试的事件总数达到容量时, {@link #add(Document)} 阻塞调用方,
+ * Mongo 不可用时由消息队列积压事件, 不会无限占用内存。
+ *
+ * @author pnoker
+ * @since 2022.1.0
+ */
+@Slf4j
+public class EventBulkInserter {
+
+    private static final int DUPLICATE_KEY = 11000;
+
+    private final MongoTemplate mongoTemplate;
+    private final String collection;
+    private final int batchSize;
+    private final int capacity;
+    private final int maxRetries;
+    private final ScheduledExecutorService scheduler;
+
+    private final LongAdder written = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder lost = new LongAdder();
+
+    private List<Document> pending;
+    private final Deque<Batch> retries = new ArrayDeque<>();
+    private int size;
+    private volatile boolean running = true;
+    private volatile Consumer<List<Document>> lostListener = documents -> {
+    };
+
+    public EventBulkInserter(MongoTemplate mongoTemplate, String collection, int batchSize, long interval, int capacity, int maxRetries) {
+        this.mongoTemplate = mongoTemplate;
+        this.collection = collection;
+        this.batchSize = batchSize;
+        this.capacity = Math.max(capacity, batchSize);
+        this.maxRetries = maxRetries;
+        this.pending = new ArrayList<>(batchSize);
+
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "event-insert-" + collection);
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::flush, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 设置事件重试用尽后的回调, 在刷新线程中执行
+     *
+     * @param lostListener 丢弃的事件文档
+     */
+    public void setLostListener(Consumer<List<Document>> lostListener) {
+        this.lostListener = lostListener;
+    }
+
+    /**
+     * 添加待写入的事件, 缓冲达到批量大小时由刷新线程立即写入, 缓冲已满时等待刷新
+     *
+     * @param document 事件文档
+     */
+    public void add(Document document) {
+        boolean full;
+        synchronized (this) {
+            while (running && size >= capacity) {
+                try {
+                    wait(100);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+            pending.add(document);
+            size++;
+            full = pending.size() == batchSize;
+        }
+        if (full && running) {
+            scheduler.execute(this::flush);
+        }
+    }
+
+    /**
+     * 获取缓冲中和待重试的尚未写入的事件数量
+     *
+     * @return Pending Size
+     */
+    public synchronized int getPending() {
+        return size;
+    }
+
+    public long getWritten() {
+        return written.sum();
+    }
+
+    /**
+     * 获取写入失败的次数, 按事件计数, 同一事件重试失败多次时计数多次
+     *
+     * @return Failed Count
+     */
+    public long getFailed() {
+        return failed.sum();
+    }
+
+    /**
+     * 获取重试用尽后丢弃的事件数量
+     *
+     * @return Lost Count
+     */
+    public long getLost() {
+        return lost.sum();
+    }
+
+    /**
+     * 停止刷新线程, 写入缓冲中剩余的事件
+     */
+    public void close() {
+        running = false;
+        scheduler.shutdownNow();
+        flush();
+    }
+
+    /**
+     * 先重试之前失败的事件, 再写入缓冲中的全部事件
+     */
+    public void flush() {
+        List<Batch> batches;
+        synchronized (this) {
+            batches = new ArrayList<>(retries);
+            retries.clear();
+            for (int from = 0; from < pending.size(); from += batchSize) {
+                batches.add(new Batch(new ArrayList<>(pending.subList(from, Math.min(from + batchSize, pending.size()))), 0));
+            }
+            pending = new ArrayList<>(batchSize);
+        }
+
+        int done = 0;
+        List<Batch> again = new ArrayList<>();
+        List<Document> dropped = new ArrayList<>();
+        for (Batch batch : batches) {
+            List<Document> failedDocuments = insert(batch.documents);
+            done += batch.documents.size() - failedDocuments.size();
+            if (failedDocuments.isEmpty()) {
+                continue;
+            }
+
+            failed.add(failedDocuments.size());
+            if (batch.attempt >= maxRetries || !running) {
+                done += failedDocuments.size();
+                dropped.addAll(failedDocuments);
+                log.error("Insert {} events into {} failed after {} retries, dropped", failedDocuments.size(), collection, batch.attempt);
+            } else {
+                again.add(new Batch(failedDocuments, batch.attempt + 1));
+            }
+        }
+
+        synchronized (this) {
+            // Failed batches are retried before newer events on the next flush
+            for (int i = again.size() - 1; i >= 0; i--) {
+                retries.addFirst(again.get(i));
+            }
+            size -= done;
+            notifyAll();
+        }
+        if (!dropped.isEmpty()) {
+            lost.add(dropped.size());
+            notifyLost(dropped);
+        }
+    }
+
+    /**
+     * 无序批量写入, 返回需要重试的事件; 主键重复说明之前的写入已成功
+     *
+     * @param documents 事件文档
+     * @return 写入失败的事件文档
+     */
+    private List<Document> insert(List<Document> documents) {
+        try {
+            mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, collection).insert(documents).execute();
+            written.add(documents.size());
+            return new ArrayList<>(0);
+        } catch (BulkOperationException e) {
+            return failedDocuments(documents, e.getErrors());
+        } catch (Exception e) {
+            log.error("Insert {} events into {} error: {}", documents.size(), collection, e.getMessage());
+            return documents;
+        }
+    }
+
+    private List<Document> failedDocuments(List<Document> documents, List<BulkWriteError> errors) {
+        List<Document> failedDocuments = new ArrayList<>(errors.size());
+        for (BulkWriteError error : errors) {
+            if (error.getCode() != DUPLICATE_KEY) {
+                failedDocuments.add(documents.get(error.getIndex()));
+            }
+        }
+        written.add(documents.size() - failedDocuments.size());
+        if (!failedDocuments.isEmpty()) {
+            log.error("Insert {} of {} events into {} error: {}", failedDocuments.size(), documents.size(), collection, errors.get(0).getMessage());
+        }
+        return failedDocuments;
+    }
+
+    private void notifyLost(List<Document> documents) {
+        try {
+            lostListener.accept(documents);
+        } catch (Exception e) {
+            log.error("Handle lost events of {} error: {}", collection, e.getMessage());
+        }
+    }
+
+    /**
+     * 写入批次, attempt 为已重试次数
+     */
+    private static class Batch {
+        private final List<Document> documents;
+        private final int attempt;
+
+        private Batch(List<Document> documents, int attempt) {
+            this.documents = documents;
+            this.attempt = attempt;
+        }
+    }
+}
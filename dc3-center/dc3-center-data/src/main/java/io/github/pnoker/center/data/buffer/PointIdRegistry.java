@@ -0,0 +1,82 @@
+/*
+ * Copyright 2016-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.pnoker.center.data.buffer;
+
+import io.github.pnoker.common.constant.common.SymbolConstant;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 位号ID登记表
+ * <p>
+ * 为每个 (设备ID, 位号ID) 分配一个从 0 开始连续递增的整数下标, 进程内不回收,
+ * 按位号保存的状态可以直接放在以下标访问的基本类型数组中。
+ * 同一模板的位号会被多个设备引用, 因此下标按设备区分。
+ *
+ * @author pnoker
+ * @since 2022.1.0
+ */
+@Component
+public class PointIdRegistry {
+
+    private final Map<String, Integer> indexMap = new ConcurrentHashMap<>(1024);
+    private final AtomicInteger sequence = new AtomicInteger(0);
+
+    /**
+     * 获取设备位号对应的下标, 不存在时分配
+     *
+     * @param deviceId 设备ID
+     * @param pointId  位号ID
+     * @return Index
+     */
+    public int index(String deviceId, String pointId) {
+        String key = key(deviceId, pointId);
+        Integer index = indexMap.get(key);
+        if (null != index) {
+            return index;
+        }
+        return indexMap.computeIfAbsent(key, k -> sequence.getAndIncrement());
+    }
+
+    /**
+     * 查找设备位号对应的下标, 不分配
+     *
+     * @param deviceId 设备ID
+     * @param pointId  位号ID
+     * @return Index, 不存在时返回 -1
+     */
+    public int find(String deviceId, String pointId) {
+        Integer index = indexMap.get(key(deviceId, pointId));
+        return null != index ? index : -1;
+    }
+
+    /**
+     * 获取已分配的下标数量
+     *
+     * @return Size
+     */
+    public int size() {
+        return sequence.get();
+    }
+
+    private static String key(String deviceId, String pointId) {
+        return deviceId + SymbolConstant.DOT + pointId;
+    }
+}
@@ -0,0 +1,259 @@
+/*
+ * Copyright 2016-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.pnoker.center.data.buffer;
+
+import cn.hutool.core.util.ObjectUtil;
+import io.github.pnoker.center.data.service.PointValueService;
+import io.github.pnoker.common.entity.point.PointValue;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * PointValue 分片缓冲区
+ * <p>
+ * 按 deviceId 分片的有界多生产者/单消费者缓冲区, 接收线程之间互不加锁。
+ * 当某个分片达到批量大小, 或者分片中最早的数据驻留超过刷新时限时,
+ * 由唯一的消费线程取出并批量保存。批量大小和刷新时限由 {@link AdaptiveBatchController} 按负载调整,
+ * 配置值为其上限。
+ *
+ * @author pnoker
+ * @since 2022.1.0
+ */
+@Slf4j
+@Component
+public class PointValueBuffer implements InitializingBean, DisposableBean {
+
+    @Value("${data.point.batch.buffer.shard}")
+    @Setter
+    private Integer shardSize;
+    @Value("${data.point.batch.buffer.capacity}")
+    @Setter
+    private Integer capacity;
+    @Value("${data.point.batch.buffer.size}")
+    @Setter
+    private Integer batchSize;
+
+    @Resource
+    @Setter
+    private PointValueService pointValueService;
+    @Resource
+    @Setter
+    private AdaptiveBatchController adaptiveBatchController;
+
+    private Shard[] shards;
+    private int mask;
+
+    private volatile boolean running;
+    private Thread consumer;
+
+    /**
+     * 添加 PointValue, 分片已满时立即返回
+     *
+     * @param pointValue PointValue
+     * @return 是否添加成功
+     */
+    public boolean offer(PointValue pointValue) {
+        Shard shard = shards[index(pointValue.getDeviceId())];
+        int depth = shard.size.getAndIncrement();
+        if (depth >= capacity) {
+            shard.size.getAndDecrement();
+            return false;
+        }
+
+        shard.queue.offer(pointValue);
+        if (shard.firstTime.get() == 0) {
+            shard.firstTime.compareAndSet(0, System.currentTimeMillis());
+        }
+        if (depth + 1 >= adaptiveBatchController.getBatchSize()) {
+            LockSupport.unpark(consumer);
+        }
+        return true;
+    }
+
+    /**
+     * 添加 PointValue, 分片已满时唤醒消费线程并等待, 直到添加成功或者超时
+     *
+     * @param pointValue PointValue
+     * @param timeout    超时时间
+     * @param unit       时间单位
+     * @return 是否添加成功
+     */
+    public boolean offer(PointValue pointValue, long timeout, TimeUnit unit) {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (!offer(pointValue)) {
+            if (!running || System.nanoTime() - deadline >= 0) {
+                return false;
+            }
+            LockSupport.unpark(consumer);
+            LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(1));
+        }
+        return true;
+    }
+
+    /**
+     * 获取缓冲区中 PointValue 总数
+     *
+     * @return Point Value Size
+     */
+    public int size() {
+        int size = 0;
+        for (Shard shard : shards) {
+            size += shard.size.get();
+        }
+        return size;
+    }
+
+    /**
+     * 获取每个分片中 PointValue 数量
+     *
+     * @return Shard Depth Array
+     */
+    public int[] depth() {
+        int[] depth = new int[shards.length];
+        for (int i = 0; i < shards.length; i++) {
+            depth[i] = shards[i].size.get();
+        }
+        return depth;
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        // Round shard size up to a power of two, so that the shard index is a mask
+        int size = 1;
+        while (size < shardSize) {
+            size <<= 1;
+        }
+        shards = new Shard[size];
+        for (int i = 0; i < size; i++) {
+            shards[i] = new Shard();
+        }
+        mask = size - 1;
+
+        running = true;
+        consumer = new Thread(this::consume, "point-value-buffer");
+        consumer.setDaemon(true);
+        consumer.start();
+    }
+
+    @Override
+    public void destroy() throws InterruptedException {
+        running = false;
+        LockSupport.unpark(consumer);
+        consumer.join(TimeUnit.SECONDS.toMillis(10));
+        if (consumer.isAlive()) {
+            // Still inside a save, interrupt it and wait again
+            consumer.interrupt();
+            consumer.join(TimeUnit.SECONDS.toMillis(10));
+        }
+        if (consumer.isAlive()) {
+            log.warn("Point value buffer consumer did not exit, {} point values left unsaved", size());
+            return;
+        }
+
+        // Save what is left in the buffer before shutdown, only after the consumer has exited
+        List<PointValue> pointValues = new ArrayList<>(size());
+        for (Shard shard : shards) {
+            drain(shard, Integer.MAX_VALUE, pointValues);
+        }
+        save(pointValues);
+    }
+
+    private int index(String deviceId) {
+        int hash = ObjectUtil.isNull(deviceId) ? 0 : deviceId.hashCode();
+        return (hash ^ (hash >>> 16)) & mask;
+    }
+
+    /**
+     * 消费线程, 依次检查每个分片是否满足批量大小或者驻留时长
+     */
+    private void consume() {
+        List<PointValue> pointValues = new ArrayList<>(batchSize);
+        while (running) {
+            long now = System.currentTimeMillis();
+            int currentBatchSize = adaptiveBatchController.getBatchSize();
+            long currentAge = adaptiveBatchController.getFlushAge();
+            for (Shard shard : shards) {
+                int depth = shard.size.get();
+                long firstTime = shard.firstTime.get();
+                if (depth >= currentBatchSize || (depth > 0 && firstTime > 0 && now - firstTime >= currentAge)) {
+                    drain(shard, currentBatchSize, pointValues);
+                }
+            }
+
+            if (pointValues.isEmpty()) {
+                LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(Math.max(1, Math.min(100, currentAge / 4))));
+                continue;
+            }
+
+            save(pointValues);
+            pointValues = new ArrayList<>(batchSize);
+        }
+    }
+
+    private void drain(Shard shard, int limit, List<PointValue> pointValues) {
+        shard.firstTime.set(0);
+
+        int count = 0;
+        PointValue pointValue;
+        while (count < limit && (pointValue = shard.queue.poll()) != null) {
+            pointValues.add(pointValue);
+            count++;
+        }
+        shard.size.addAndGet(-count);
+
+        // Values left behind keep aging from now on
+        if (shard.size.get() > 0) {
+            shard.firstTime.compareAndSet(0, System.currentTimeMillis());
+        }
+    }
+
+    private void save(List<PointValue> pointValues) {
+        if (pointValues.isEmpty()) {
+            return;
+        }
+
+        long start = System.nanoTime();
+        try {
+            pointValueService.savePointValues(pointValues);
+            adaptiveBatchController.onSave(System.nanoTime() - start);
+        } catch (Exception e) {
+            log.error("Save buffered point values error: {}", e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 缓冲区分片
+     */
+    private static class Shard {
+        private final ConcurrentLinkedQueue<PointValue> queue = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger size = new AtomicInteger(0);
+        private final AtomicLong firstTime = new AtomicLong(0);
+    }
+}
@@ -0,0 +1,410 @@
+/*
+ * Copyright 2016-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.pnoker.center.data.buffer;
+
+import cn.hutool.core.text.CharSequenceUtil;
+import cn.hutool.core.util.ObjectUtil;
+import io.github.pnoker.common.entity.point.PointValue;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * PointValue 历史数据压缩
+ * <p>
+ * 按位号保存上一个归档值, 只有满足压缩条件的值才写入历史存储, 实时存储仍然写入全部值:
+ * <ul>
+ *     <li>none: 不压缩</li>
+ *     <li>deadband: 与上一个归档值的差超过绝对死区或百分比死区时归档</li>
+ *     <li>swinging-door: 旋转门趋势压缩, 当前值使压缩门打开时归档上一个值</li>
+ * </ul>
+ * 距离上一个归档值超过最大间隔时总是归档, 无法解析为数值的值不压缩。
+ * 位号状态保存在按位号下标分块的基本类型数组中, 每块一把锁;
+ * 压缩在状态副本上进行, 批次不会再被重新投递时才提交。状态带有版本号, 提交时发现
+ * 同一位号已被并发的批次提交过, 则在块锁内基于最新状态重新压缩该位号的值, 并返回需要补充归档的值。
+ *
+ * @author pnoker
+ * @since 2022.1.0
+ */
+@Slf4j
+@Component
+public class PointValueCompressor implements InitializingBean {
+
+    /**
+     * 压缩方式
+     */
+    public enum Mode {
+        NONE, DEADBAND, SWINGING_DOOR
+    }
+
+    private static final int CHUNK_SHIFT = 10;
+    private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    @Value("${data.point.compress.mode}")
+    @Setter
+    private String compressMode;
+    @Value("${data.point.compress.deviation}")
+    @Setter
+    private Double deviation;
+    @Value("${data.point.compress.percent}")
+    @Setter
+    private Double percent;
+    @Value("${data.point.compress.max-interval}")
+    @Setter
+    private Long maxInterval;
+
+    @Resource
+    @Setter
+    private PointIdRegistry pointIdRegistry;
+
+    private Mode mode;
+    private volatile Chunk[] chunks = new Chunk[0];
+
+    private final LongAdder received = new LongAdder();
+    private final LongAdder archived = new LongAdder();
+    private final LongAdder conflicts = new LongAdder();
+
+    @Override
+    public void afterPropertiesSet() {
+        mode = Mode.valueOf(compressMode.toUpperCase().replace('-', '_'));
+        log.info("Point value compress mode: {}, deviation: {}, percent: {}, max interval: {}", mode, deviation, percent, maxInterval);
+    }
+
+    /**
+     * 是否启用压缩
+     *
+     * @return boolean
+     */
+    public boolean isEnable() {
+        return mode != Mode.NONE;
+    }
+
+    /**
+     * 压缩 PointValue 集合, 返回需要写入历史存储的 PointValue
+     * <p>
+     * 压缩基于位号状态的副本进行, 只有调用 {@link #commit(Batch)} 后才更新位号状态,
+     * 写入失败的批次重新投递时仍然按原来的状态压缩, 不会被当作已归档的值丢弃。
+     * 旋转门压缩会延迟一个值归档, 返回结果中可能包含之前批次中收到的值。
+     *
+     * @param pointValues PointValue Array
+     * @return Batch
+     */
+    public Batch compress(List<PointValue> pointValues) {
+        if (!isEnable()) {
+            return new Batch(pointValues, pointValues, Collections.emptyMap(), Collections.emptyMap());
+        }
+
+        List<PointValue> history = new ArrayList<>(pointValues.size());
+        Map<Integer, State> staged = new HashMap<>(pointValues.size());
+        Map<Integer, List<PointValue>> valueMap = new HashMap<>(pointValues.size());
+        pointValues.forEach(pointValue -> compress(pointValue, staged, valueMap, history));
+        return new Batch(pointValues, history, staged, valueMap);
+    }
+
+    /**
+     * 批次不会再被重新投递时提交位号状态, 写入失败且会重新投递的批次直接丢弃即可
+     * <p>
+     * 位号状态在压缩后被并发的批次提交过时, 基于最新状态重新压缩本批次中该位号的值,
+     * 重新压缩归档的值中不在本批次历史数据里的部分 (例如另一批次旋转门保留的值) 需要调用方补充写入历史存储。
+     *
+     * @param batch Batch
+     * @return 需要补充写入历史存储的 PointValue
+     */
+    public List<PointValue> commit(Batch batch) {
+        List<PointValue> extra = new ArrayList<>(0);
+        if (batch.staged.isEmpty()) {
+            received.add(batch.pointValues.size());
+            archived.add(batch.history.size());
+            return extra;
+        }
+
+        Set<PointValue> written = Collections.newSetFromMap(new IdentityHashMap<>(batch.history.size()));
+        written.addAll(batch.history);
+        batch.staged.forEach((index, state) -> {
+            Chunk chunk = getChunk(index);
+            int i = index & CHUNK_MASK;
+            synchronized (chunk) {
+                if (chunk.version[i] == state.version) {
+                    chunk.store(i, state);
+                    return;
+                }
+
+                // Another batch committed this point after our compress, replay our values on top of it
+                conflicts.increment();
+                State current = chunk.load(i);
+                List<PointValue> replayed = new ArrayList<>();
+                batch.valueMap.get(index).forEach(pointValue -> compress(pointValue, current, parse(pointValue), replayed));
+                chunk.store(i, current);
+                replayed.stream().filter(pointValue -> !written.contains(pointValue)).forEach(extra::add);
+            }
+        });
+        received.add(batch.pointValues.size());
+        archived.add(batch.history.size() + extra.size());
+        return extra;
+    }
+
+    public long getReceived() {
+        return received.sum();
+    }
+
+    public long getArchived() {
+        return archived.sum();
+    }
+
+    /**
+     * 获取提交时位号状态已被并发批次修改、需要重新压缩的次数
+     *
+     * @return Conflict Count
+     */
+    public long getConflicts() {
+        return conflicts.sum();
+    }
+
+    private void compress(PointValue pointValue, Map<Integer, State> staged, Map<Integer, List<PointValue>> valueMap, List<PointValue> history) {
+        Double value = CharSequenceUtil.isEmpty(pointValue.getPointId()) ? null : parse(pointValue);
+        if (ObjectUtil.isNull(value)) {
+            // Values that are not numbers are not compressed
+            history.add(pointValue);
+            return;
+        }
+
+        int index = pointIdRegistry.index(pointValue.getDeviceId(), pointValue.getPointId());
+        valueMap.computeIfAbsent(index, key -> new ArrayList<>()).add(pointValue);
+        compress(pointValue, staged.computeIfAbsent(index, this::load), value, history);
+    }
+
+    private static Double parse(PointValue pointValue) {
+        if (CharSequenceUtil.isEmpty(pointValue.getValue())) {
+            return null;
+        }
+        try {
+            double value = Double.parseDouble(pointValue.getValue());
+            return Double.isNaN(value) || Double.isInfinite(value) ? null : value;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private void compress(PointValue pointValue, State state, double value, List<PointValue> history) {
+        long time = getTime(pointValue);
+        if (!state.archived || time < state.archivedTime || time - state.archivedTime >= maxInterval) {
+            // First value, out of order value or keepalive
+            if (ObjectUtil.isNotNull(state.held)) {
+                history.add(state.held);
+            }
+            state.archive(value, time);
+            history.add(pointValue);
+            return;
+        }
+
+        if (mode == Mode.DEADBAND) {
+            if (exceedDeadband(state.archivedValue, value)) {
+                state.archive(value, time);
+                history.add(pointValue);
+            }
+            return;
+        }
+
+        swingingDoor(state, pointValue, value, time, history);
+    }
+
+    private boolean exceedDeadband(double archivedValue, double value) {
+        double delta = Math.abs(value - archivedValue);
+        if (deviation <= 0 && percent <= 0) {
+            return delta > 0;
+        }
+        return (deviation > 0 && delta > deviation) || (percent > 0 && delta > Math.abs(archivedValue) * percent / 100);
+    }
+
+    private void swingingDoor(State state, PointValue pointValue, double value, long time, List<PointValue> history) {
+        long dt = time - state.archivedTime;
+        if (dt <= 0) {
+            // Same timestamp as the archived value, nothing to trend
+            return;
+        }
+
+        double e = getDeviation(state.archivedValue);
+        double upper = Math.max(state.upperSlope, (value - state.archivedValue - e) / dt);
+        double lower = Math.min(state.lowerSlope, (value - state.archivedValue + e) / dt);
+        if (upper > lower && ObjectUtil.isNotNull(state.held)) {
+            // The doors opened, archive the previous value and restart the corridor from it
+            history.add(state.held);
+            state.archive(state.heldValue, state.heldTime);
+
+            dt = time - state.archivedTime;
+            e = getDeviation(state.archivedValue);
+            upper = dt > 0 ? (value - state.archivedValue - e) / dt : Double.NEGATIVE_INFINITY;
+            lower = dt > 0 ? (value - state.archivedValue + e) / dt : Double.POSITIVE_INFINITY;
+        }
+
+        state.upperSlope = upper;
+        state.lowerSlope = lower;
+        state.held = pointValue;
+        state.heldValue = value;
+        state.heldTime = time;
+    }
+
+    /**
+     * 复制位号当前已提交的状态
+     *
+     * @param index 位号下标
+     * @return State
+     */
+    private State load(int index) {
+        Chunk chunk = getChunk(index);
+        synchronized (chunk) {
+            return chunk.load(index & CHUNK_MASK);
+        }
+    }
+
+    private double getDeviation(double archivedValue) {
+        return deviation > 0 ? deviation : Math.abs(archivedValue) * percent / 100;
+    }
+
+    private long getTime(PointValue pointValue) {
+        if (ObjectUtil.isNotNull(pointValue.getOriginTime())) {
+            return pointValue.getOriginTime().getTime();
+        }
+        return ObjectUtil.isNotNull(pointValue.getCreateTime()) ? pointValue.getCreateTime().getTime() : System.currentTimeMillis();
+    }
+
+    private Chunk getChunk(int index) {
+        int chunkIndex = index >>> CHUNK_SHIFT;
+        Chunk[] current = chunks;
+        if (chunkIndex < current.length) {
+            return current[chunkIndex];
+        }
+
+        synchronized (this) {
+            current = chunks;
+            if (chunkIndex >= current.length) {
+                Chunk[] grown = Arrays.copyOf(current, chunkIndex + 1);
+                for (int i = current.length; i < grown.length; i++) {
+                    grown[i] = new Chunk();
+                }
+                chunks = grown;
+                current = grown;
+            }
+        }
+        return current[chunkIndex];
+    }
+
+    /**
+     * 一次压缩的结果, 包含需要写入历史存储的 PointValue 和尚未提交的位号状态
+     */
+    public static class Batch {
+        private final List<PointValue> pointValues;
+        private final List<PointValue> history;
+        private final Map<Integer, State> staged;
+        private final Map<Integer, List<PointValue>> valueMap;
+
+        private Batch(List<PointValue> pointValues, List<PointValue> history, Map<Integer, State> staged, Map<Integer, List<PointValue>> valueMap) {
+            this.pointValues = pointValues;
+            this.history = history;
+            this.staged = staged;
+            this.valueMap = valueMap;
+        }
+
+        /**
+         * 获取需要写入历史存储的 PointValue
+         *
+         * @return PointValue Array
+         */
+        public List<PointValue> getHistory() {
+            return history;
+        }
+    }
+
+    /**
+     * 一个位号的压缩状态
+     */
+    private static class State {
+        private long version;
+        private boolean archived;
+        private double archivedValue;
+        private long archivedTime;
+        private double upperSlope;
+        private double lowerSlope;
+        private PointValue held;
+        private double heldValue;
+        private long heldTime;
+
+        private void archive(double value, long time) {
+            archived = true;
+            archivedValue = value;
+            archivedTime = time;
+            upperSlope = Double.NEGATIVE_INFINITY;
+            lowerSlope = Double.POSITIVE_INFINITY;
+            held = null;
+        }
+    }
+
+    /**
+     * 一块位号的压缩状态
+     */
+    private static class Chunk {
+        private final long[] version = new long[CHUNK_SIZE];
+        private final boolean[] archived = new boolean[CHUNK_SIZE];
+        private final double[] archivedValue = new double[CHUNK_SIZE];
+        private final long[] archivedTime = new long[CHUNK_SIZE];
+        private final double[] upperSlope = new double[CHUNK_SIZE];
+        private final double[] lowerSlope = new double[CHUNK_SIZE];
+        private final PointValue[] held = new PointValue[CHUNK_SIZE];
+        private final double[] heldValue = new double[CHUNK_SIZE];
+        private final long[] heldTime = new long[CHUNK_SIZE];
+
+        private State load(int i) {
+            State state = new State();
+            state.version = version[i];
+            state.archived = archived[i];
+            state.archivedValue = archivedValue[i];
+            state.archivedTime = archivedTime[i];
+            state.upperSlope = upperSlope[i];
+            state.lowerSlope = lowerSlope[i];
+            state.held = held[i];
+            state.heldValue = heldValue[i];
+            state.heldTime = heldTime[i];
+            return state;
+        }
+
+        private void store(int i, State state) {
+            version[i]++;
+            archived[i] = state.archived;
+            archivedValue[i] = state.archivedValue;
+            archivedTime[i] = state.archivedTime;
+            upperSlope[i] = state.upperSlope;
+            lowerSlope[i] = state.lowerSlope;
+            held[i] = state.held;
+            heldValue[i] = state.heldValue;
+            heldTime[i] = state.heldTime;
+        }
+    }
+}
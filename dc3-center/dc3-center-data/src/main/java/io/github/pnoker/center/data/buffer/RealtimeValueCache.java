@@ -0,0 +1,298 @@
+/*
+ * Copyright 2016-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.pnoker.center.data.buffer;
+
+import cn.hutool.core.util.ObjectUtil;
+import io.github.pnoker.common.entity.point.PointValue;
+import lombok.Setter;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * 进程内实时值缓存
+ * <p>
+ * 以 {@link PointIdRegistry} 分配的 (设备, 位号) 下标定位, 每个位号一个 40 字节的定长槽位,
+ * 槽位保存在按块分配的堆外内存中:
+ * [createTime 8][originTime 8][value 8][rawValue 8][valueType 1][rawType 1][保留 6]。
+ * 能无损还原的整数和浮点数按数值保存, 其余字符串保存在块内的引用数组中,
+ * 数值型位号不产生任何堆对象。槽位只接受不早于当前值的数据。
+ * <p>
+ * 多个数据中心实例共享队列时每个实例只收到部分数据, 因此默认关闭;
+ * 接收时间超过最大缓存时长的槽位不返回, 由调用方回落到 Redis 读取。
+ *
+ * @author pnoker
+ * @since 2022.1.0
+ */
+@Component
+public class RealtimeValueCache {
+
+    private static final int SLOT_SIZE = 40;
+    private static final int CHUNK_SHIFT = 12;
+    private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    private static final int CREATE_TIME = 0;
+    private static final int ORIGIN_TIME = 8;
+    private static final int VALUE = 16;
+    private static final int RAW_VALUE = 24;
+    private static final int VALUE_TYPE = 32;
+    private static final int RAW_TYPE = 33;
+
+    private static final byte TYPE_NULL = 0;
+    private static final byte TYPE_LONG = 1;
+    private static final byte TYPE_DOUBLE = 2;
+    private static final byte TYPE_STRING = 3;
+
+    private static final long NULL_TIME = Long.MIN_VALUE;
+
+    @Value("${data.point.cache.enable}")
+    @Setter
+    private Boolean enable;
+    @Value("${data.point.cache.capacity}")
+    @Setter
+    private Integer capacity;
+    @Value("${data.point.cache.max-age}")
+    @Setter
+    private Long maxAge;
+
+    @Resource
+    @Setter
+    private PointIdRegistry pointIdRegistry;
+
+    private volatile Chunk[] chunks = new Chunk[0];
+
+    public boolean isEnable() {
+        return Boolean.TRUE.equals(enable);
+    }
+
+    /**
+     * 更新实时值
+     *
+     * @param pointValues PointValue Array
+     */
+    public void put(List<PointValue> pointValues) {
+        if (!isEnable()) {
+            return;
+        }
+        pointValues.forEach(this::put);
+    }
+
+    /**
+     * 更新实时值, 超过容量的位号不缓存, 也不为其分配下标
+     *
+     * @param pointValue PointValue
+     */
+    public void put(PointValue pointValue) {
+        if (ObjectUtil.isNull(pointValue.getDeviceId()) || ObjectUtil.isNull(pointValue.getPointId())) {
+            return;
+        }
+        // Only allocate an index for a new point while the registry is below capacity
+        int index = pointIdRegistry.find(pointValue.getDeviceId(), pointValue.getPointId());
+        if (index < 0 && pointIdRegistry.size() < capacity) {
+            index = pointIdRegistry.index(pointValue.getDeviceId(), pointValue.getPointId());
+        }
+        if (index < 0 || index >= capacity) {
+            return;
+        }
+
+        long createTime = time(pointValue.getCreateTime());
+        Chunk chunk = getChunk(index);
+        int offset = (index & CHUNK_MASK) * SLOT_SIZE;
+        synchronized (chunk) {
+            long current = chunk.buffer.getLong(offset + CREATE_TIME);
+            if (chunk.present[index & CHUNK_MASK] && createTime < current) {
+                return;
+            }
+
+            chunk.buffer.putLong(offset + CREATE_TIME, createTime);
+            chunk.buffer.putLong(offset + ORIGIN_TIME, time(pointValue.getOriginTime()));
+            chunk.write(index & CHUNK_MASK, offset + VALUE, offset + VALUE_TYPE, 0, pointValue.getValue());
+            chunk.write(index & CHUNK_MASK, offset + RAW_VALUE, offset + RAW_TYPE, 1, pointValue.getRawValue());
+            chunk.present[index & CHUNK_MASK] = true;
+        }
+    }
+
+    /**
+     * 获取设备位号实时值, 未缓存或超过最大缓存时长的位号不返回
+     *
+     * @param deviceId 设备ID
+     * @param pointIds 位号ID集合
+     * @return PointValue Array
+     */
+    public List<PointValue> get(String deviceId, List<String> pointIds) {
+        if (!isEnable()) {
+            return Collections.emptyList();
+        }
+
+        List<PointValue> pointValues = new ArrayList<>(pointIds.size());
+        long expireTime = maxAge > 0 ? System.currentTimeMillis() - maxAge : NULL_TIME;
+        Chunk[] current = chunks;
+        for (String pointId : pointIds) {
+            int index = pointIdRegistry.find(deviceId, pointId);
+            if (index < 0 || (index >> CHUNK_SHIFT) >= current.length) {
+                continue;
+            }
+
+            Chunk chunk = current[index >> CHUNK_SHIFT];
+            int offset = (index & CHUNK_MASK) * SLOT_SIZE;
+            synchronized (chunk) {
+                if (!chunk.present[index & CHUNK_MASK] || chunk.buffer.getLong(offset + CREATE_TIME) < expireTime) {
+                    continue;
+                }
+                PointValue pointValue = new PointValue();
+                pointValue.setDeviceId(deviceId);
+                pointValue.setPointId(pointId);
+                pointValue.setValue(chunk.read(index & CHUNK_MASK, offset + VALUE, offset + VALUE_TYPE, 0));
+                pointValue.setRawValue(chunk.read(index & CHUNK_MASK, offset + RAW_VALUE, offset + RAW_TYPE, 1));
+                pointValue.setOriginTime(date(chunk.buffer.getLong(offset + ORIGIN_TIME)));
+                pointValue.setCreateTime(date(chunk.buffer.getLong(offset + CREATE_TIME)));
+                pointValues.add(pointValue);
+            }
+        }
+        return pointValues;
+    }
+
+    /**
+     * 获取已分配的堆外内存字节数
+     *
+     * @return Bytes
+     */
+    public long getAllocated() {
+        return (long) chunks.length * CHUNK_SIZE * SLOT_SIZE;
+    }
+
+    private Chunk getChunk(int index) {
+        int chunkIndex = index >> CHUNK_SHIFT;
+        Chunk[] current = chunks;
+        if (chunkIndex < current.length) {
+            return current[chunkIndex];
+        }
+
+        synchronized (this) {
+            current = chunks;
+            if (chunkIndex >= current.length) {
+                Chunk[] grown = Arrays.copyOf(current, chunkIndex + 1);
+                for (int i = current.length; i < grown.length; i++) {
+                    grown[i] = new Chunk();
+                }
+                chunks = grown;
+                current = grown;
+            }
+            return current[chunkIndex];
+        }
+    }
+
+    private static long time(Date date) {
+        return ObjectUtil.isNull(date) ? NULL_TIME : date.getTime();
+    }
+
+    private static Date date(long time) {
+        return time == NULL_TIME ? null : new Date(time);
+    }
+
+    /**
+     * 判断字符串能否无损保存为数值
+     *
+     * @param value 字符串
+     * @return Type
+     */
+    private static byte type(String value) {
+        if (ObjectUtil.isNull(value)) {
+            return TYPE_NULL;
+        }
+        int length = value.length();
+        if (length == 0 || length > 24) {
+            return TYPE_STRING;
+        }
+
+        boolean integer = true;
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c >= '0' && c <= '9' || (i == 0 && c == '-')) {
+                continue;
+            }
+            if (c == '.' || c == 'e' || c == 'E' || c == '-') {
+                integer = false;
+                continue;
+            }
+            return TYPE_STRING;
+        }
+
+        try {
+            if (integer) {
+                return length <= 18 && Long.toString(Long.parseLong(value)).equals(value) ? TYPE_LONG : TYPE_STRING;
+            }
+            return Double.toString(Double.parseDouble(value)).equals(value) ? TYPE_DOUBLE : TYPE_STRING;
+        } catch (NumberFormatException e) {
+            return TYPE_STRING;
+        }
+    }
+
+    /**
+     * 4096 个槽位, 数值保存在堆外, 无法按数值保存的字符串按需分配引用数组
+     */
+    private static class Chunk {
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(CHUNK_SIZE * SLOT_SIZE);
+        private final boolean[] present = new boolean[CHUNK_SIZE];
+        private String[] strings;
+
+        void write(int slot, int offset, int typeOffset, int field, String value) {
+            byte type = type(value);
+            buffer.put(typeOffset, type);
+            switch (type) {
+                case TYPE_LONG:
+                    buffer.putLong(offset, Long.parseLong(value));
+                    break;
+                case TYPE_DOUBLE:
+                    buffer.putDouble(offset, Double.parseDouble(value));
+                    break;
+                case TYPE_STRING:
+                    if (ObjectUtil.isNull(strings)) {
+                        strings = new String[CHUNK_SIZE * 2];
+                    }
+                    strings[slot * 2 + field] = value;
+                    return;
+                default:
+                    break;
+            }
+            if (ObjectUtil.isNotNull(strings)) {
+                strings[slot * 2 + field] = null;
+            }
+        }
+
+        String read(int slot, int offset, int typeOffset, int field) {
+            switch (buffer.get(typeOffset)) {
+                case TYPE_LONG:
+                    return Long.toString(buffer.getLong(offset));
+                case TYPE_DOUBLE:
+                    return Double.toString(buffer.getDouble(offset));
+                case TYPE_STRING:
+                    return strings[slot * 2 + field];
+                default:
+                    return null;
+            }
+        }
+    }
+}
@@ -0,0 +1,315 @@
+/*
+ * Copyright 2016-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.pnoker.center.data.buffer;
+
+import cn.hutool.core.util.ObjectUtil;
+import io.github.pnoker.center.data.service.RepositoryService;
+import io.github.pnoker.common.entity.point.PointValue;
+import io.github.pnoker.common.utils.JsonUtil;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+/**
+ * 存储服务写入管道
+ * <p>
+ * 每个 {@link RepositoryService} 独占一个有界队列和一组写入线程,
+ * 写入线程把队列中的数据合并成批次后按设备写入, 慢存储只会积压自己的队列。
+ *
+ * @author pnoker
+ * @since 2022.1.0
+ */
+@Slf4j
+public class RepositoryPipeline {
+
+    /**
+     * 队列已满时的处理策略
+     */
+    public enum Overflow {
+        /**
+         * 阻塞写入方, 直到队列有空位
+         */
+        BLOCK,
+        /**
+         * 丢弃队列中最早的数据
+         */
+        DROP_OLDEST,
+        /**
+         * 写入本地溢出文件, 队列空闲时回放
+         */
+        SPILL
+    }
+
+    private final RepositoryService repositoryService;
+    private final BlockingQueue<PointValue> queue;
+    private final int batchSize;
+    private final Overflow overflow;
+    private final SpillFile spillFile;
+    private final SinkMetrics sinkMetrics;
+    private final Thread[] workers;
+
+    private final LongAdder written = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder spilled = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+
+    private long lastWritten;
+    private long lastTime = System.currentTimeMillis();
+
+    private volatile boolean running = true;
+
+    public RepositoryPipeline(RepositoryService repositoryService, int capacity, int workerSize, int batchSize, Overflow overflow, SpillFile spillFile, SinkMetrics sinkMetrics) {
+        this.repositoryService = repositoryService;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.batchSize = batchSize;
+        this.overflow = overflow;
+        this.spillFile = spillFile;
+        this.sinkMetrics = sinkMetrics;
+
+        this.workers = new Thread[workerSize];
+        for (int i = 0; i < workerSize; i++) {
+            workers[i] = new Thread(this::work, "repository-" + repositoryService.getRepositoryName() + "-" + i);
+            workers[i].setDaemon(true);
+            workers[i].start();
+        }
+    }
+
+    /**
+     * 获取存储策略服务名称
+     *
+     * @return Repository Name
+     */
+    public String getName() {
+        return repositoryService.getRepositoryName();
+    }
+
+    /**
+     * 添加 PointValue
+     *
+     * @param pointValue PointValue
+     */
+    public void offer(PointValue pointValue) {
+        if (queue.offer(pointValue)) {
+            return;
+        }
+
+        switch (overflow) {
+            case DROP_OLDEST:
+                while (!queue.offer(pointValue)) {
+                    if (ObjectUtil.isNotNull(queue.poll())) {
+                        dropped.increment();
+                    }
+                }
+                break;
+            case SPILL:
+                spill(Collections.singletonList(pointValue));
+                break;
+            case BLOCK:
+            default:
+                try {
+                    queue.put(pointValue);
+                } catch (InterruptedException e) {
+                    dropped.increment();
+                    Thread.currentThread().interrupt();
+                }
+                break;
+        }
+    }
+
+    /**
+     * 添加 PointValue 集合
+     *
+     * @param pointValues PointValue Array
+     */
+    public void offer(List<PointValue> pointValues) {
+        if (overflow != Overflow.SPILL) {
+            pointValues.forEach(this::offer);
+            return;
+        }
+
+        // Spill everything the queue rejects with one append
+        List<PointValue> rejected = new ArrayList<>();
+        for (PointValue pointValue : pointValues) {
+            if (!queue.offer(pointValue)) {
+                rejected.add(pointValue);
+            }
+        }
+        if (!rejected.isEmpty()) {
+            spill(rejected);
+        }
+    }
+
+    /**
+     * 获取队列中 PointValue 数量
+     *
+     * @return Queue Size
+     */
+    public int getQueueSize() {
+        return queue.size();
+    }
+
+    /**
+     * 获取写入延迟, 即队首数据等待的毫秒数
+     *
+     * @return Lag Milliseconds
+     */
+    public long getLag() {
+        PointValue head = queue.peek();
+        if (ObjectUtil.isNull(head) || ObjectUtil.isNull(head.getCreateTime())) {
+            return 0;
+        }
+        return Math.max(0, System.currentTimeMillis() - head.getCreateTime().getTime());
+    }
+
+    public long getWritten() {
+        return written.sum();
+    }
+
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    public long getSpilled() {
+        return spilled.sum();
+    }
+
+    public long getFailed() {
+        return failed.sum();
+    }
+
+    /**
+     * 获取溢出文件中尚未回放的字节数
+     *
+     * @return Pending Bytes
+     */
+    public long getSpillPending() {
+        return ObjectUtil.isNull(spillFile) ? 0 : spillFile.pending();
+    }
+
+    /**
+     * 获取自上次调用以来的写入速率
+     *
+     * @return Values Per Second
+     */
+    public synchronized long rate() {
+        long now = System.currentTimeMillis();
+        long total = written.sum();
+        long rate = (total - lastWritten) * 1000 / Math.max(1, now - lastTime);
+        lastWritten = total;
+        lastTime = now;
+        return rate;
+    }
+
+    /**
+     * 停止写入线程, 队列中剩余的数据写完后返回
+     *
+     * @param timeout 最大等待毫秒数
+     */
+    public void close(long timeout) {
+        running = false;
+        long deadline = System.currentTimeMillis() + timeout;
+        for (Thread worker : workers) {
+            try {
+                worker.join(Math.max(1, deadline - System.currentTimeMillis()));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private void work() {
+        List<PointValue> batch = new ArrayList<>(batchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                PointValue first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (ObjectUtil.isNull(first)) {
+                    replay();
+                    continue;
+                }
+
+                batch.add(first);
+                queue.drainTo(batch, batchSize - 1);
+                write(batch);
+                batch.clear();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private void write(List<PointValue> batch) {
+        Map<String, List<PointValue>> group = batch.stream().collect(Collectors.groupingBy(PointValue::getDeviceId));
+        long start = System.nanoTime();
+        try {
+            repositoryService.savePointValues(group);
+            written.add(batch.size());
+            sinkMetrics.success(batch, System.nanoTime() - start);
+        } catch (Exception e) {
+            failed.add(batch.size());
+            sinkMetrics.error(batch.size());
+            log.error("Save point values to {} error {}", getName(), e.getMessage());
+            if (overflow == Overflow.SPILL) {
+                spill(batch);
+            }
+        }
+    }
+
+    private void spill(List<PointValue> pointValues) {
+        if (ObjectUtil.isNull(spillFile)) {
+            dropped.add(pointValues.size());
+            return;
+        }
+
+        try {
+            spillFile.append(pointValues.stream().map(JsonUtil::toJsonString).collect(Collectors.toList()));
+            spilled.add(pointValues.size());
+        } catch (Exception e) {
+            dropped.add(pointValues.size());
+            log.error("Spill point values of {} error {}", getName(), e.getMessage());
+        }
+    }
+
+    /**
+     * 队列空闲时回放溢出文件
+     */
+    private void replay() {
+        if (ObjectUtil.isNull(spillFile) || spillFile.pending() == 0) {
+            return;
+        }
+
+        try {
+            List<String> lines = spillFile.poll(batchSize);
+            List<PointValue> pointValues = lines.stream()
+                    .map(line -> JsonUtil.parseObject(line, PointValue.class))
+                    .filter(ObjectUtil::isNotNull)
+                    .collect(Collectors.toList());
+            write(pointValues);
+        } catch (Exception e) {
+            log.error("Replay spilled point values of {} error {}", getName(), e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2016-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.pnoker.center.data.buffer;
+
+import cn.hutool.core.util.ObjectUtil;
+import io.github.pnoker.common.entity.point.PointValue;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 存储服务写入指标
+ * <p>
+ * 每个存储服务一份, 记录批量大小、写入耗时、失败数量, 以及从驱动采集时间 (originTime)
+ * 到写入完成的端到端延迟, 指标以 sink 标签区分存储服务。
+ *
+ * @author pnoker
+ * @since 2022.1.0
+ */
+public class SinkMetrics {
+
+    private final DistributionSummary batchSize;
+    private final Timer writeLatency;
+    private final Timer endToEndLatency;
+    private final Counter written;
+    private final Counter errors;
+
+    public SinkMetrics(MeterRegistry meterRegistry, String sink) {
+        this.batchSize = DistributionSummary.builder("dc3.point.sink.batch")
+                .description("Point values per sink write")
+                .tag("sink", sink)
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+        this.writeLatency = Timer.builder("dc3.point.sink.write")
+                .description("Duration of a sink write")
+                .tag("sink", sink)
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+        this.endToEndLatency = Timer.builder("dc3.point.latency")
+                .description("Duration from driver origin time until the value is written to the sink")
+                .tag("sink", sink)
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+        this.written = Counter.builder("dc3.point.sink.written")
+                .description("Point values written to the sink")
+                .tag("sink", sink)
+                .register(meterRegistry);
+        this.errors = Counter.builder("dc3.point.sink.errors")
+                .description("Point values failed to write to the sink")
+                .tag("sink", sink)
+                .register(meterRegistry);
+    }
+
+    /**
+     * 记录一次成功写入
+     *
+     * @param pointValues 写入的 PointValue
+     * @param nanos       写入耗时纳秒
+     */
+    public void success(Collection<PointValue> pointValues, long nanos) {
+        batchSize.record(pointValues.size());
+        writeLatency.record(nanos, TimeUnit.NANOSECONDS);
+        written.increment(pointValues.size());
+
+        long now = System.currentTimeMillis();
+        for (PointValue pointValue : pointValues) {
+            if (ObjectUtil.isNotNull(pointValue.getOriginTime())) {
+                endToEndLatency.record(Math.max(0, now - pointValue.getOriginTime().getTime()), TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    /**
+     * 记录一次失败写入
+     *
+     * @param count 失败的 PointValue 数量
+     */
+    public void error(int count) {
+        errors.increment(count);
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright 2016-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.pnoker.center.data.buffer;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 本地溢出文件
+ * <p>
+ * 按行追加写入, 按行顺序读出。读取位置保存在同名的 .offset 文件中,
+ * 重启后从上次的位置继续读取; 全部读完后文件被截断。
+ *
+ * @author pnoker
+ * @since 2022.1.0
+ */
+@Slf4j
+public class SpillFile {
+
+    private final Path path;
+    private final Path offsetPath;
+    private long offset;
+
+    public SpillFile(Path path) throws IOException {
+        this.path = path;
+        this.offsetPath = path.resolveSibling(path.getFileName() + ".offset");
+        Files.createDirectories(path.getParent());
+        if (!Files.exists(path)) {
+            Files.createFile(path);
+        }
+        this.offset = readOffset();
+    }
+
+    /**
+     * 追加写入多行
+     *
+     * @param lines Line Array, 不能包含换行符
+     * @throws IOException IOException
+     */
+    public synchronized void append(List<String> lines) throws IOException {
+        if (lines.isEmpty()) {
+            return;
+        }
+
+        StringBuilder builder = new StringBuilder();
+        for (String line : lines) {
+            builder.append(line).append('\n');
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            ByteBuffer buffer = ByteBuffer.wrap(builder.toString().getBytes(StandardCharsets.UTF_8));
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+    }
+
+    /**
+     * 读取并移除最多 max 行, 调用方处理失败时需要重新 {@link #append(List)}
+     *
+     * @param max 最大行数
+     * @return Line Array
+     * @throws IOException IOException
+     */
+    public synchronized List<String> poll(int max) throws IOException {
+        long size = Files.size(path);
+        if (offset >= size) {
+            return Collections.emptyList();
+        }
+
+        List<String> lines = new ArrayList<>(Math.min(max, 1024));
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            channel.position(offset);
+            BufferedReader reader = new BufferedReader(new InputStreamReader(Channels.newInputStream(channel), StandardCharsets.UTF_8));
+            String line;
+            while (lines.size() < max && (line = reader.readLine()) != null) {
+                offset += line.getBytes(StandardCharsets.UTF_8).length + 1;
+                lines.add(line);
+            }
+        }
+
+        if (offset >= size) {
+            // Everything has been read, start over with an empty file
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+                channel.truncate(0);
+            }
+            offset = 0;
+        }
+        writeOffset();
+        return lines;
+    }
+
+    /**
+     * 获取尚未读取的字节数
+     *
+     * @return Pending Bytes
+     */
+    public synchronized long pending() {
+        try {
+            return Math.max(0, Files.size(path) - offset);
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private long readOffset() {
+        try {
+            if (Files.exists(offsetPath)) {
+                return Long.parseLong(new String(Files.readAllBytes(offsetPath), StandardCharsets.UTF_8).trim());
+            }
+        } catch (IOException | NumberFormatException e) {
+            log.error("Read spill file offset {} error: {}", offsetPath, e.getMessage());
+        }
+        return 0;
+    }
+
+    private void writeOffset() throws IOException {
+        Files.write(offsetPath, String.valueOf(offset).getBytes(StandardCharsets.UTF_8));
+    }
+}
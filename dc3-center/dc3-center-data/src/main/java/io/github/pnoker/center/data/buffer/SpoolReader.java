@@ -0,0 +1,187 @@
+/*
+ * Copyright 2016-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.pnoker.center.data.buffer;
+
+import cn.hutool.core.util.ObjectUtil;
+import io.github.pnoker.center.data.service.RepositoryService;
+import io.github.pnoker.common.entity.point.PointValue;
+import io.github.pnoker.common.utils.JsonUtil;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+/**
+ * 写前日志读取方
+ * <p>
+ * 每个 {@link RepositoryService} 独占一个读取线程, 通过自己的 Cursor 按批次读取写前日志并写入存储,
+ * 写入成功后才提交读取位置; 写入失败时等待一段时间后从上次提交的位置重新读取,
+ * 因此同一批次中已写入成功的设备数据可能被重复写入。
+ * 实时存储只读取标记为实时的记录, 其余存储只读取标记为历史的记录。
+ *
+ * @author pnoker
+ * @since 2022.1.0
+ */
+@Slf4j
+public class SpoolReader {
+
+    /**
+     * 记录标记: 写入实时存储
+     */
+    public static final byte REALTIME = 1;
+
+    /**
+     * 记录标记: 写入历史存储
+     */
+    public static final byte HISTORY = 1 << 1;
+
+    private final RepositoryService repositoryService;
+    private final WriteAheadSpool.Cursor cursor;
+    private final byte target;
+    private final int batchSize;
+    private final long backoff;
+    private final SinkMetrics sinkMetrics;
+    private final Thread worker;
+
+    private final LongAdder written = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+
+    private volatile boolean running = true;
+
+    public SpoolReader(RepositoryService repositoryService, WriteAheadSpool.Cursor cursor, boolean realtime, int batchSize, long backoff, SinkMetrics sinkMetrics) {
+        this.repositoryService = repositoryService;
+        this.cursor = cursor;
+        this.target = realtime ? REALTIME : HISTORY;
+        this.batchSize = batchSize;
+        this.backoff = backoff;
+        this.sinkMetrics = sinkMetrics;
+
+        this.worker = new Thread(this::work, "spool-" + repositoryService.getRepositoryName());
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+
+    /**
+     * 编码写前日志记录
+     *
+     * @param pointValue PointValue
+     * @param target     记录标记, {@link #REALTIME} 和 {@link #HISTORY} 的组合
+     * @return Record
+     */
+    public static byte[] encode(PointValue pointValue, byte target) {
+        byte[] json = JsonUtil.toJsonString(pointValue).getBytes(StandardCharsets.UTF_8);
+        byte[] record = new byte[json.length + 1];
+        record[0] = target;
+        System.arraycopy(json, 0, record, 1, json.length);
+        return record;
+    }
+
+    /**
+     * 获取存储策略服务名称
+     *
+     * @return Repository Name
+     */
+    public String getName() {
+        return repositoryService.getRepositoryName();
+    }
+
+    /**
+     * 获取尚未写入存储的字节数
+     *
+     * @return Pending Bytes
+     */
+    public long getPending() {
+        return cursor.getPending();
+    }
+
+    public long getWritten() {
+        return written.sum();
+    }
+
+    public long getFailed() {
+        return failed.sum();
+    }
+
+    /**
+     * 停止读取线程, 当前批次写完后返回
+     *
+     * @param timeout 最大等待毫秒数
+     */
+    public void close(long timeout) {
+        running = false;
+        try {
+            worker.join(timeout);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void work() {
+        while (running) {
+            try {
+                List<byte[]> records = cursor.read(batchSize);
+                if (records.isEmpty()) {
+                    TimeUnit.MILLISECONDS.sleep(100);
+                    continue;
+                }
+
+                write(records);
+                cursor.commit();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                log.error("Replay spooled point values to {} error, retry in {} ms: {}", getName(), backoff, e.getMessage());
+                cursor.rewind();
+                try {
+                    TimeUnit.MILLISECONDS.sleep(backoff);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    private void write(List<byte[]> records) throws IOException {
+        List<PointValue> pointValues = records.stream()
+                .filter(record -> (record[0] & target) != 0)
+                .map(record -> JsonUtil.parseObject(new String(record, 1, record.length - 1, StandardCharsets.UTF_8), PointValue.class))
+                .filter(pointValue -> ObjectUtil.isNotNull(pointValue) && ObjectUtil.isNotNull(pointValue.getDeviceId()))
+                .collect(Collectors.toList());
+        if (pointValues.isEmpty()) {
+            return;
+        }
+
+        Map<String, List<PointValue>> group = pointValues.stream().collect(Collectors.groupingBy(PointValue::getDeviceId));
+        long start = System.nanoTime();
+        try {
+            repositoryService.savePointValues(group);
+            written.add(pointValues.size());
+            sinkMetrics.success(pointValues, System.nanoTime() - start);
+        } catch (IOException | RuntimeException e) {
+            failed.add(pointValues.size());
+            sinkMetrics.error(pointValues.size());
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright 2016-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.github.pnoker.center.data.buffer;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 设备和驱动状态表
+ * <p>
+ * 由设备事件和驱动心跳更新, 每条状态按心跳携带的超时时间过期, 与 Redis 中状态 Key 的 TTL 一致,
+ * 读取时跳过已过期的状态, 过期状态由后台线程定期清理。
+ * 状态表只包含本实例接收到的心跳, 多个数据中心实例共同消费状态队列时应使用 redis 或 hybrid 读取方式。
+ *
+ * @author pnoker
+ * @since 2022.1.0
+ */
+@Component
+public class StatusTable implements InitializingBean, DisposableBean {
+
+    /**
+     * 状态类型
+     */
+    public enum Type {
+        DEVICE, DRIVER
+    }
+
+    /**
+     * 状态读取方式
+     */
+    public enum Source {
+        /**
+         * 只读取 Redis
+         */
+        REDIS,
+        /**
+         * 只读取本地状态表
+         */
+        LOCAL,
+        /**
+         * 优先读取本地状态表, 缺失的再从 Redis 读取
+         */
+        HYBRID
+    }
+
+    @Value("${data.status.source}")
+    private String source;
+    @Value("${data.status.sweep}")
+    private Long sweep;
+
+    private final Map<Type, Map<String, Entry>> tableMap = new EnumMap<>(Type.class);
+    private ScheduledExecutorService scheduler;
+
+    public StatusTable() {
+        for (Type type : Type.values()) {
+            tableMap.put(type, new ConcurrentHashMap<>(1024));
+        }
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "status-sweep");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::sweep, sweep, sweep, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void destroy() {
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * 获取状态读取方式
+     *
+     * @return Source
+     */
+    public Source getSource() {
+        return Source.valueOf(source.toUpperCase());
+    }
+
+    /**
+     * 更新状态
+     *
+     * @param type     状态类型
+     * @param id       设备ID或驱动ID
+     * @param status   状态
+     * @param timeout  超时时间
+     * @param timeUnit 超时时间单位
+     */
+    public void put(Type type, String id, String status, long timeout, TimeUnit timeUnit) {
+        tableMap.get(type).put(id, new Entry(status, System.currentTimeMillis() + timeUnit.toMillis(timeout)));
+    }
+
+    /**
+     * 批量读取状态
+     *
+     * @param type 状态类型
+     * @param ids  设备ID或驱动ID集合
+     * @return ID -> 状态, 不包含没有状态或状态已过期的 ID
+     */
+    public Map<String, String> get(Type type, Collection<String> ids) {
+        Map<String, Entry> table = tableMap.get(type);
+        Map<String, String> statusMap = new HashMap<>(ids.size() * 2);
+        long now = System.currentTimeMillis();
+        for (String id : ids) {
+            Entry entry = table.get(id);
+            if (null != entry && entry.expireTime > now) {
+                statusMap.put(id, entry.status);
+            }
+        }
+        return statusMap;
+    }
+
+    /**
+     * 获取状态数量, 包含尚未清理的过期状态
+     *
+     * @param type 状态类型
+     * @return Size
+     */
+    public int size(Type type) {
+        return tableMap.get(type).size();
+    }
+
+    private void sweep() {
+        long now = System.currentTimeMillis();
+        tableMap.forEach((type, table) -> table.values().removeIf(entry -> entry.expireTime <= now));
+    }
+
+    private static class Entry {
+        private final String status;
+        private final long expireTime;
+
+        private Entry(String status, long expireTime) {
+            this.status = status;
+            this.expireTime = expireTime;
+        }
+    }
+}
@@ -0,0 +1,435 @@
+/*
+ * Copyright 2016-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.pnoker.center.data.buffer;
+
+import cn.hutool.core.util.ObjectUtil;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * 写前日志
+ * <p>
+ * 记录按顺序追加写入固定大小的内存映射分段文件, 每条记录为 [长度][CRC32][内容]。
+ * 写入方通过 {@link #sync(long)} 等待落盘, 后台线程定时或在有等待者时统一 force,
+ * 同一时间窗口内的写入共享一次落盘。
+ * <p>
+ * 每个读取方通过各自的 {@link Cursor} 读取, 读取位置保存在同目录的 .cursor 文件中,
+ * 重启后从上次提交的位置继续读取; 所有读取方都已读过的分段文件会被删除。
+ *
+ * @author pnoker
+ * @since 2022.1.0
+ */
+@Slf4j
+public class WriteAheadSpool implements Closeable {
+
+    private static final String SEGMENT_SUFFIX = ".wal";
+    private static final String CURSOR_SUFFIX = ".cursor";
+
+    /**
+     * 记录头: 长度 + CRC32
+     */
+    private static final int HEADER = 8;
+
+    /**
+     * 分段剩余空间不足时写入的结束标记, 读取方遇到后跳到下一个分段
+     */
+    private static final int ROLL = -1;
+
+    private final Path directory;
+    private final int segmentSize;
+    private final long commitInterval;
+    private final Map<String, Cursor> cursors = new ConcurrentHashMap<>(8);
+    private final Object commitLock = new Object();
+    private final Thread committer;
+
+    private volatile long firstSegmentId;
+    private long segmentId;
+    private MappedByteBuffer segment;
+    private long written;
+
+    private volatile long durable;
+    private volatile boolean running = true;
+
+    public WriteAheadSpool(Path directory, int segmentSize, long commitInterval) throws IOException {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.commitInterval = commitInterval;
+        Files.createDirectories(directory);
+
+        List<Long> segmentIds = listSegmentIds();
+        if (segmentIds.isEmpty()) {
+            firstSegmentId = 0;
+            segmentId = 0;
+            segment = mapSegment(0);
+            written = 0;
+        } else {
+            firstSegmentId = segmentIds.get(0);
+            segmentId = segmentIds.get(segmentIds.size() - 1);
+            segment = mapSegment(segmentId);
+            written = segmentId * segmentSize + recover(segment);
+        }
+        durable = written;
+        log.info("Open write ahead spool {}, segments: {}, position: {}", directory, segmentIds.size(), written);
+
+        committer = new Thread(this::commit, "spool-committer");
+        committer.setDaemon(true);
+        committer.start();
+    }
+
+    /**
+     * 追加写入多条记录, 返回写入后的位置, 需要确保落盘时调用 {@link #sync(long)}
+     *
+     * @param records Record Array
+     * @return Position
+     * @throws IOException 记录超过分段大小
+     */
+    public synchronized long append(List<byte[]> records) throws IOException {
+        for (byte[] record : records) {
+            int required = HEADER + record.length;
+            if (required > segmentSize) {
+                throw new IOException("Record of " + record.length + " bytes exceeds spool segment size " + segmentSize);
+            }
+
+            int offset = (int) (written - segmentId * segmentSize);
+            if (offset + required > segmentSize) {
+                if (offset + HEADER <= segmentSize) {
+                    segment.putInt(offset, ROLL);
+                }
+                roll();
+                offset = 0;
+            }
+
+            CRC32 crc = new CRC32();
+            crc.update(record);
+            segment.position(offset + HEADER);
+            segment.put(record);
+            segment.putInt(offset + 4, (int) crc.getValue());
+            segment.putInt(offset, record.length);
+            written = segmentId * segmentSize + offset + required;
+        }
+        return written;
+    }
+
+    /**
+     * 等待指定位置之前的记录落盘
+     *
+     * @param position Position
+     * @throws IOException 等待被中断
+     */
+    public void sync(long position) throws IOException {
+        synchronized (commitLock) {
+            commitLock.notifyAll();
+            while (durable < position) {
+                if (!running) {
+                    throw new IOException("Write ahead spool closed");
+                }
+                try {
+                    commitLock.wait(commitInterval);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while waiting for write ahead spool sync", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * 获取读取方的 Cursor, 不存在时从上次提交的位置创建
+     *
+     * @param name 读取方名称
+     * @return Cursor
+     */
+    public Cursor cursor(String name) {
+        return cursors.computeIfAbsent(name, Cursor::new);
+    }
+
+    /**
+     * 获取已落盘的位置
+     *
+     * @return Position
+     */
+    public long getDurable() {
+        return durable;
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        committer.interrupt();
+        try {
+            committer.join(commitInterval * 10);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            segment.force();
+        }
+    }
+
+    private void commit() {
+        while (running) {
+            try {
+                synchronized (commitLock) {
+                    commitLock.wait(commitInterval);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+
+            long target;
+            MappedByteBuffer current;
+            synchronized (this) {
+                target = written;
+                current = segment;
+            }
+            if (target <= durable) {
+                continue;
+            }
+
+            current.force();
+            synchronized (commitLock) {
+                durable = target;
+                commitLock.notifyAll();
+            }
+        }
+
+        synchronized (commitLock) {
+            commitLock.notifyAll();
+        }
+    }
+
+    /**
+     * 当前分段写满, 落盘后切换到下一个分段
+     */
+    private void roll() throws IOException {
+        segment.force();
+        segmentId++;
+        segment = mapSegment(segmentId);
+        written = segmentId * segmentSize;
+    }
+
+    /**
+     * 扫描分段文件, 返回最后一条完整记录之后的位置, 之后不完整的记录会被覆盖
+     *
+     * @param buffer MappedByteBuffer
+     * @return Offset
+     */
+    private int recover(MappedByteBuffer buffer) {
+        int offset = 0;
+        while (offset + HEADER <= segmentSize) {
+            int length = buffer.getInt(offset);
+            if (length <= 0 || offset + HEADER + length > segmentSize) {
+                break;
+            }
+
+            byte[] record = new byte[length];
+            ByteBuffer duplicate = buffer.duplicate();
+            duplicate.position(offset + HEADER);
+            duplicate.get(record);
+            CRC32 crc = new CRC32();
+            crc.update(record);
+            if ((int) crc.getValue() != buffer.getInt(offset + 4)) {
+                log.warn("Write ahead spool segment {} has a torn record at {}, truncated", segmentId, offset);
+                break;
+            }
+            offset += HEADER + length;
+        }
+        return offset;
+    }
+
+    /**
+     * 删除所有读取方都已读过的分段文件
+     */
+    private synchronized void cleanup() {
+        long min = cursors.values().stream().mapToLong(Cursor::getPosition).min().orElse(0);
+        long minSegmentId = Math.min(min / segmentSize, segmentId);
+
+        while (firstSegmentId < minSegmentId) {
+            try {
+                Files.deleteIfExists(segmentPath(firstSegmentId));
+            } catch (IOException e) {
+                log.error("Delete write ahead spool segment {} error: {}", firstSegmentId, e.getMessage());
+                return;
+            }
+            firstSegmentId++;
+        }
+    }
+
+    private List<Long> listSegmentIds() throws IOException {
+        try (Stream<Path> paths = Files.list(directory)) {
+            return paths.map(path -> path.getFileName().toString())
+                    .filter(name -> name.endsWith(SEGMENT_SUFFIX))
+                    .map(name -> Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length())))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private Path segmentPath(long id) {
+        return directory.resolve(String.format("%020d%s", id, SEGMENT_SUFFIX));
+    }
+
+    private MappedByteBuffer mapSegment(long id) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(segmentPath(id).toFile(), "rw")) {
+            if (file.length() < segmentSize) {
+                file.setLength(segmentSize);
+            }
+            return file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        }
+    }
+
+    /**
+     * 读取方的读取位置
+     * <p>
+     * {@link #read(int)} 只移动读取位置, 处理成功后调用 {@link #commit()} 保存,
+     * 处理失败时调用 {@link #rewind()} 回到上次提交的位置重新读取。
+     */
+    public class Cursor {
+
+        private final String name;
+        private final Path path;
+
+        private volatile long position;
+        private long readPosition;
+        private long mappedSegmentId = -1;
+        private MappedByteBuffer mappedSegment;
+
+        private Cursor(String name) {
+            this.name = name;
+            this.path = directory.resolve(name + CURSOR_SUFFIX);
+            this.position = Math.max(loadPosition(), firstSegmentId * segmentSize);
+            this.readPosition = position;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getPosition() {
+            return position;
+        }
+
+        /**
+         * 获取已落盘但尚未提交的字节数
+         *
+         * @return Pending Bytes
+         */
+        public long getPending() {
+            return Math.max(0, durable - position);
+        }
+
+        /**
+         * 读取最多 max 条已落盘的记录
+         *
+         * @param max 最大条数
+         * @return Record Array
+         * @throws IOException IOException
+         */
+        public synchronized List<byte[]> read(int max) throws IOException {
+            List<byte[]> records = new ArrayList<>(Math.min(max, 1024));
+            long limit = durable;
+            while (records.size() < max && readPosition < limit) {
+                long id = readPosition / segmentSize;
+                int offset = (int) (readPosition % segmentSize);
+                if (offset + HEADER > segmentSize) {
+                    readPosition = (id + 1) * segmentSize;
+                    continue;
+                }
+
+                MappedByteBuffer buffer = map(id);
+                int length = buffer.getInt(offset);
+                if (length <= 0) {
+                    if (id < limit / segmentSize) {
+                        readPosition = (id + 1) * segmentSize;
+                        continue;
+                    }
+                    break;
+                }
+
+                byte[] record = new byte[length];
+                ByteBuffer duplicate = buffer.duplicate();
+                duplicate.position(offset + HEADER);
+                duplicate.get(record);
+                records.add(record);
+                readPosition += HEADER + length;
+            }
+            return records;
+        }
+
+        /**
+         * 提交当前读取位置
+         *
+         * @throws IOException IOException
+         */
+        public synchronized void commit() throws IOException {
+            if (position == readPosition) {
+                return;
+            }
+
+            position = readPosition;
+            Files.write(path, String.valueOf(position).getBytes(StandardCharsets.UTF_8));
+            cleanup();
+        }
+
+        /**
+         * 回到上次提交的位置
+         */
+        public synchronized void rewind() {
+            readPosition = position;
+        }
+
+        private MappedByteBuffer map(long id) throws IOException {
+            if (id != mappedSegmentId || ObjectUtil.isNull(mappedSegment)) {
+                try (FileChannel channel = FileChannel.open(segmentPath(id), StandardOpenOption.READ)) {
+                    // The previous mapping is released by the garbage collector
+                    mappedSegment = channel.map(FileChannel.MapMode.READ_ONLY, 0, segmentSize);
+                }
+                mappedSegmentId = id;
+            }
+            return mappedSegment;
+        }
+
+        private long loadPosition() {
+            try {
+                if (Files.exists(path)) {
+                    return Long.parseLong(new String(Files.readAllBytes(path), StandardCharsets.UTF_8).trim());
+                }
+            } catch (IOException | NumberFormatException e) {
+                log.error("Read write ahead spool cursor {} error: {}", path, e.getMessage());
+            }
+            return 0;
+        }
+    }
+}
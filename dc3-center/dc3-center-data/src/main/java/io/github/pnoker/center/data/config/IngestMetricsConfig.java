@@ -0,0 +1,94 @@
+/*
+ * Copyright 2016-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.pnoker.center.data.config;
+
+import io.github.pnoker.center.data.buffer.AdaptiveBatchController;
+import io.github.pnoker.center.data.buffer.PointValueBuffer;
+import io.github.pnoker.center.data.buffer.PointValueCompressor;
+import io.github.pnoker.center.data.buffer.RealtimeValueCache;
+import io.github.pnoker.center.data.service.PointValuePushService;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * 接收链路指标 Configuration
+ * <p>
+ * 注册接收速率、缓冲区深度、自适应批量决策、压缩、推送和实时缓存指标;
+ * 各存储服务的写入指标由 {@link io.github.pnoker.center.data.buffer.SinkMetrics} 注册。
+ *
+ * @author pnoker
+ * @since 2022.1.0
+ */
+@Configuration
+public class IngestMetricsConfig {
+
+    @Bean
+    public MeterBinder ingestMeterBinder(AdaptiveBatchController adaptiveBatchController, PointValueBuffer pointValueBuffer,
+                                         PointValueCompressor pointValueCompressor, PointValuePushService pointValuePushService,
+                                         RealtimeValueCache realtimeValueCache) {
+        return registry -> {
+            FunctionCounter.builder("dc3.point.received", adaptiveBatchController, AdaptiveBatchController::getReceived)
+                    .description("Point values received from the broker")
+                    .register(registry);
+            Gauge.builder("dc3.point.buffer.size", pointValueBuffer, PointValueBuffer::size)
+                    .description("Point values waiting in the receive buffer")
+                    .register(registry);
+
+            Gauge.builder("dc3.point.batch.mode", adaptiveBatchController, controller -> controller.isBatch() ? 1 : 0)
+                    .description("1 when values are buffered and saved in batches, 0 when saved directly")
+                    .register(registry);
+            Gauge.builder("dc3.point.batch.rate", adaptiveBatchController, AdaptiveBatchController::getRate)
+                    .description("Smoothed receive rate per second")
+                    .register(registry);
+            Gauge.builder("dc3.point.batch.size", adaptiveBatchController, AdaptiveBatchController::getBatchSize)
+                    .description("Buffer shard flush size chosen by the adaptive controller")
+                    .register(registry);
+            Gauge.builder("dc3.point.batch.flush.age", adaptiveBatchController, AdaptiveBatchController::getFlushAge)
+                    .description("Buffer shard flush age chosen by the adaptive controller")
+                    .baseUnit("milliseconds")
+                    .register(registry);
+            Gauge.builder("dc3.point.batch.save.p99", adaptiveBatchController, AdaptiveBatchController::getLatency)
+                    .description("p99 of recent buffer save durations")
+                    .baseUnit("milliseconds")
+                    .register(registry);
+            FunctionCounter.builder("dc3.point.batch.switches", adaptiveBatchController, AdaptiveBatchController::getSwitches)
+                    .description("Switches between direct and batch mode")
+                    .register(registry);
+
+            FunctionCounter.builder("dc3.point.compress.received", pointValueCompressor, PointValueCompressor::getReceived)
+                    .description("Numeric point values seen by the history compressor")
+                    .register(registry);
+            FunctionCounter.builder("dc3.point.compress.archived", pointValueCompressor, PointValueCompressor::getArchived)
+                    .description("Point values kept by the history compressor")
+                    .register(registry);
+            FunctionCounter.builder("dc3.point.compress.conflicts", pointValueCompressor, PointValueCompressor::getConflicts)
+                    .description("Point states recompressed because a concurrent batch committed first")
+                    .register(registry);
+
+            Gauge.builder("dc3.point.push.subscribers", pointValuePushService, PointValuePushService::getSubscriberCount)
+                    .description("Realtime push subscribers")
+                    .register(registry);
+            Gauge.builder("dc3.point.cache.allocated", realtimeValueCache, RealtimeValueCache::getAllocated)
+                    .description("Off-heap bytes allocated by the realtime value cache")
+                    .baseUnit("bytes")
+                    .register(registry);
+        };
+    }
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright 2016-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.pnoker.center.data.config;
+
+import io.github.pnoker.center.data.service.rabbit.PointValueMessageConverter;
+import org.springframework.amqp.support.converter.ContentTypeDelegatingMessageConverter;
+import org.springframework.amqp.support.converter.Jackson2JsonMessageConverter;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+
+/**
+ * 消息转换 Configuration
+ * <p>
+ * 按消息 content-type 选择转换器, 二进制 PointValue 使用 {@link PointValueMessageConverter},
+ * 其余消息 (JSON PointValue、驱动事件和设备事件) 仍使用 JSON 转换器,
+ * 驱动可以逐个切换到二进制格式, 新旧格式同时消费。
+ *
+ * @author pnoker
+ * @since 2022.1.0
+ */
+@Configuration
+public class MessageConverterConfig {
+
+    @Bean
+    @Primary
+    public ContentTypeDelegatingMessageConverter contentTypeMessageConverter(ObjectProvider<Jackson2JsonMessageConverter> jsonMessageConverter) {
+        ContentTypeDelegatingMessageConverter converter = new ContentTypeDelegatingMessageConverter(jsonMessageConverter.getIfAvailable(Jackson2JsonMessageConverter::new));
+        converter.addDelegate(PointValueMessageConverter.CONTENT_TYPE, new PointValueMessageConverter());
+        return converter;
+    }
+}
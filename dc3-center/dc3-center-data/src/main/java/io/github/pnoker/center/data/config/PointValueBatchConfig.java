@@ -0,0 +1,68 @@
+/*
+ * Copyright 2016-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.pnoker.center.data.config;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.amqp.core.AcknowledgeMode;
+import org.springframework.amqp.rabbit.config.SimpleRabbitListenerContainerFactory;
+import org.springframework.amqp.rabbit.connection.ConnectionFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.amqp.SimpleRabbitListenerContainerFactoryConfigurer;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Point Value 批量消费 Configuration
+ * <p>
+ * 开启后 pointValueQueue 按批次消费, 批次写入主存储后才确认消息,
+ * 未确认的数据保留在队列中, 由队列 TTL 提供缓冲。
+ *
+ * @author pnoker
+ * @since 2022.1.0
+ */
+@Slf4j
+@Configuration
+@ConditionalOnProperty(name = "data.point.batch.consumer.enable", havingValue = "true")
+public class PointValueBatchConfig {
+
+    @Value("${data.point.batch.consumer.prefetch}")
+    private Integer prefetch;
+    @Value("${data.point.batch.consumer.size}")
+    private Integer batchSize;
+    @Value("${data.point.batch.consumer.timeout}")
+    private Long receiveTimeout;
+    @Value("${data.point.batch.consumer.concurrency}")
+    private Integer concurrency;
+
+    @Bean
+    public SimpleRabbitListenerContainerFactory pointValueBatchContainerFactory(SimpleRabbitListenerContainerFactoryConfigurer configurer, ConnectionFactory connectionFactory) {
+        SimpleRabbitListenerContainerFactory factory = new SimpleRabbitListenerContainerFactory();
+        configurer.configure(factory, connectionFactory);
+
+        // A consumer batch can never be larger than the unacknowledged messages the broker hands out
+        factory.setPrefetchCount(Math.max(prefetch, batchSize));
+        factory.setAcknowledgeMode(AcknowledgeMode.MANUAL);
+        factory.setBatchListener(true);
+        factory.setConsumerBatchEnabled(true);
+        factory.setBatchSize(batchSize);
+        factory.setReceiveTimeout(receiveTimeout);
+        factory.setConcurrentConsumers(concurrency);
+        factory.setMaxConcurrentConsumers(concurrency);
+        return factory;
+    }
+}
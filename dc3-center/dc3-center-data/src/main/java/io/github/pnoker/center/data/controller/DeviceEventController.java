@@ -18,6 +18,7 @@ package io.github.pnoker.center.data.controller;
 
 import cn.hutool.core.util.ObjectUtil;
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
+import io.github.pnoker.center.data.entity.vo.CursorPageVO;
 import io.github.pnoker.center.data.entity.vo.query.DeviceEventPageQuery;
 import io.github.pnoker.center.data.service.EventService;
 import io.github.pnoker.common.constant.service.DataServiceConstant;
@@ -67,4 +68,26 @@ public class DeviceEventController {
         return R.fail();
     }
 
-}
\ No newline at end of file
+    /**
+     * 游标分页查询 DeviceEvent, 使用上一页返回的 next 作为下一页的 cursor
+     *
+     * @param deviceEventPageQuery DeviceEventDto
+     * @return CursorPageVO Of DeviceEvent
+     */
+    @PostMapping("/device/scroll")
+    public R<CursorPageVO<DeviceEvent>> deviceEventScroll(@RequestBody(required = false) DeviceEventPageQuery deviceEventPageQuery) {
+        try {
+            if (ObjectUtil.isEmpty(deviceEventPageQuery)) {
+                deviceEventPageQuery = new DeviceEventPageQuery();
+            }
+            CursorPageVO<DeviceEvent> page = eventService.deviceEventScroll(deviceEventPageQuery);
+            if (ObjectUtil.isNotNull(page)) {
+                return R.ok(page);
+            }
+        } catch (Exception e) {
+            return R.fail(e.getMessage());
+        }
+        return R.fail();
+    }
+
+}
@@ -18,6 +18,7 @@ package io.github.pnoker.center.data.controller;
 
 import cn.hutool.core.util.ObjectUtil;
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
+import io.github.pnoker.center.data.entity.vo.CursorPageVO;
 import io.github.pnoker.center.data.entity.vo.query.DriverEventPageQuery;
 import io.github.pnoker.center.data.service.EventService;
 import io.github.pnoker.common.constant.service.DataServiceConstant;
@@ -67,4 +68,26 @@ public class DriverEventController {
         return R.fail();
     }
 
-}
\ No newline at end of file
+    /**
+     * 游标分页查询 DriverEvent, 使用上一页返回的 next 作为下一页的 cursor
+     *
+     * @param driverEventPageQuery DriverEventDto
+     * @return CursorPageVO Of DriverEvent
+     */
+    @PostMapping("/driver/scroll")
+    public R<CursorPageVO<DriverEvent>> driverEventScroll(@RequestBody(required = false) DriverEventPageQuery driverEventPageQuery) {
+        try {
+            if (ObjectUtil.isEmpty(driverEventPageQuery)) {
+                driverEventPageQuery = new DriverEventPageQuery();
+            }
+            CursorPageVO<DriverEvent> page = eventService.driverEventScroll(driverEventPageQuery);
+            if (ObjectUtil.isNotNull(page)) {
+                return R.ok(page);
+            }
+        } catch (Exception e) {
+            return R.fail(e.getMessage());
+        }
+        return R.fail();
+    }
+
+}
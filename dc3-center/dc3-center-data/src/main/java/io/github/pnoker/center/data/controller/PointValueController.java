@@ -18,18 +18,41 @@ package io.github.pnoker.center.data.controller;
 
 import cn.hutool.core.util.ObjectUtil;
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
+import io.github.pnoker.center.data.entity.vo.CursorPageVO;
+import io.github.pnoker.center.data.entity.vo.PointValueAggregateVO;
+import io.github.pnoker.center.data.entity.vo.PointValueHistoryVO;
+import io.github.pnoker.center.data.entity.vo.query.PointValueAggregateQuery;
+import io.github.pnoker.center.data.entity.vo.query.PointValueExportQuery;
+import io.github.pnoker.center.data.entity.vo.query.PointValueHistoryQuery;
 import io.github.pnoker.center.data.entity.vo.query.PointValuePageQuery;
+import io.github.pnoker.center.data.service.PointValueExportService;
+import io.github.pnoker.center.data.service.PointValuePushService;
 import io.github.pnoker.center.data.service.PointValueService;
+import io.github.pnoker.center.data.service.RollupService;
 import io.github.pnoker.common.constant.service.DataServiceConstant;
 import io.github.pnoker.common.entity.R;
 import io.github.pnoker.common.entity.point.PointValue;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.validation.annotation.Validated;
+import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
 
 /**
  * PointValue Controller
@@ -44,6 +67,12 @@ public class PointValueController {
 
     @Resource
     private PointValueService pointValueService;
+    @Autowired(required = false)
+    private RollupService rollupService;
+    @Resource
+    private PointValueExportService pointValueExportService;
+    @Resource
+    private PointValuePushService pointValuePushService;
 
     /**
      * 查询最新 PointValue 集合
@@ -67,6 +96,25 @@ public class PointValueController {
         return R.fail();
     }
 
+    /**
+     * 查询设备多个位号最近的数值型历史值
+     *
+     * @param pointValueHistoryQuery 设备、位号和数量参数
+     * @return {@link io.github.pnoker.center.data.entity.vo.PointValueHistoryVO} Array
+     */
+    @PostMapping("/history")
+    public R<List<PointValueHistoryVO>> history(@Validated @RequestBody PointValueHistoryQuery pointValueHistoryQuery) {
+        try {
+            List<PointValueHistoryVO> historyVOS = pointValueService.history(pointValueHistoryQuery);
+            if (ObjectUtil.isNotNull(historyVOS)) {
+                return R.ok(historyVOS);
+            }
+        } catch (Exception e) {
+            return R.fail(e.getMessage());
+        }
+        return R.fail();
+    }
+
     /**
      * 模糊分页查询 PointValue
      *
@@ -89,4 +137,95 @@ public class PointValueController {
         return R.fail();
     }
 
+    /**
+     * 游标分页查询 PointValue, 使用上一页返回的 next 作为下一页的 cursor
+     *
+     * @param pointValuePageQuery 位号值和游标参数
+     * @return 带游标的 {@link io.github.pnoker.common.entity.point.PointValue}
+     */
+    @PostMapping("/scroll")
+    public R<CursorPageVO<PointValue>> scroll(@RequestBody(required = false) PointValuePageQuery pointValuePageQuery) {
+        try {
+            if (ObjectUtil.isEmpty(pointValuePageQuery)) {
+                pointValuePageQuery = new PointValuePageQuery();
+            }
+            CursorPageVO<PointValue> page = pointValueService.scroll(pointValuePageQuery);
+            if (ObjectUtil.isNotNull(page)) {
+                return R.ok(page);
+            }
+        } catch (Exception e) {
+            return R.fail(e.getMessage());
+        }
+        return R.fail();
+    }
+
+    /**
+     * 流式导出 PointValue, 按时间正序输出 NDJSON 或 CSV
+     *
+     * @param pointValueExportQuery 位号值和时间范围参数
+     * @return StreamingResponseBody
+     */
+    @GetMapping("/export")
+    public ResponseEntity<StreamingResponseBody> export(@Validated PointValueExportQuery pointValueExportQuery) {
+        boolean csv = PointValueExportService.FORMAT_CSV.equalsIgnoreCase(pointValueExportQuery.getFormat());
+        boolean gzip = Boolean.TRUE.equals(pointValueExportQuery.getGzip());
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(csv ? new MediaType("text", "csv", StandardCharsets.UTF_8) : new MediaType("application", "x-ndjson", StandardCharsets.UTF_8));
+        headers.setContentDisposition(ContentDisposition.builder("attachment")
+                .filename(pointValueExportQuery.getDeviceId() + (csv ? ".csv" : ".ndjson") + (gzip ? ".gz" : ""))
+                .build());
+        if (gzip) {
+            headers.set(HttpHeaders.CONTENT_ENCODING, "gzip");
+        }
+
+        StreamingResponseBody body = outputStream -> {
+            if (gzip) {
+                GZIPOutputStream gzipOutputStream = new GZIPOutputStream(outputStream, 8192, true);
+                pointValueExportService.export(pointValueExportQuery, gzipOutputStream);
+                gzipOutputStream.finish();
+            } else {
+                pointValueExportService.export(pointValueExportQuery, outputStream);
+            }
+        };
+        return new ResponseEntity<>(body, headers, HttpStatus.OK);
+    }
+
+    /**
+     * 订阅 PointValue 实时推送, 同一位号在推送间隔内只推送最新值
+     *
+     * @param deviceId 设备ID
+     * @param pointIds 位号ID集合, 为空时订阅设备全部位号
+     * @param interval 两次推送之间的最小毫秒数
+     * @return SseEmitter
+     */
+    @GetMapping(value = "/subscribe", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter subscribe(@RequestParam String deviceId,
+                                @RequestParam(required = false) List<String> pointIds,
+                                @RequestParam(required = false) Long interval) {
+        return pointValuePushService.subscribe(deviceId, pointIds, interval);
+    }
+
+    /**
+     * 查询 PointValue 聚合值, 按时间范围选择聚合粒度
+     *
+     * @param pointValueAggregateQuery 位号和时间范围参数
+     * @return {@link io.github.pnoker.center.data.entity.vo.PointValueAggregateVO} Array
+     */
+    @PostMapping("/aggregate")
+    public R<List<PointValueAggregateVO>> aggregate(@Validated @RequestBody PointValueAggregateQuery pointValueAggregateQuery) {
+        if (ObjectUtil.isNull(rollupService)) {
+            return R.fail("Point value rollup is disabled");
+        }
+        try {
+            List<PointValueAggregateVO> aggregateVOS = rollupService.aggregate(pointValueAggregateQuery);
+            if (ObjectUtil.isNotNull(aggregateVOS)) {
+                return R.ok(aggregateVOS);
+            }
+        } catch (Exception e) {
+            return R.fail(e.getMessage());
+        }
+        return R.fail();
+    }
+
 }
\ No newline at end of file
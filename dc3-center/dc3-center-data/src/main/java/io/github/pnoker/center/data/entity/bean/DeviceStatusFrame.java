@@ -0,0 +1,49 @@
+/*
+ * Copyright 2016-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.github.pnoker.center.data.entity.bean;
+
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * 驱动心跳帧, 一个驱动每个周期上报一次全部设备的状态
+ * <p>
+ * 以设备事件发送, 事件类型为 {@link #TYPE}, 事件内容为本对象的 JSON:
+ * 状态码 -> 设备ID集合, 例如 {"ONLINE":["id1","id2"],"FAULT":["id3"]},
+ * 多数设备状态相同, 按状态分组后每个设备只占一个ID。超时时间使用事件的 timeOut 和 timeUnit。
+ * <p>
+ * 驱动通过 dc3-driver-status 发送心跳帧。升级时先升级数据中心再升级驱动,
+ * 旧版本数据中心会丢弃设备ID为空的事件。
+ *
+ * @author pnoker
+ * @since 2022.1.0
+ */
+public class DeviceStatusFrame extends HashMap<String, List<String>> {
+    private static final long serialVersionUID = 1L;
+
+    public static final String TYPE = "STATUS_FRAME";
+
+    /**
+     * 获取帧中的设备数量
+     *
+     * @return Device Count
+     */
+    public int deviceCount() {
+        return values().stream().mapToInt(List::size).sum();
+    }
+}
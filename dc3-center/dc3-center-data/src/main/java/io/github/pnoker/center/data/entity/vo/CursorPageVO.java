@@ -0,0 +1,53 @@
+/*
+ * Copyright 2016-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.pnoker.center.data.entity.vo;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * Cursor Page VO, 按游标连续翻页的结果
+ *
+ * @author pnoker
+ * @since 2022.1.0
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class CursorPageVO<T> implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private List<T> records;
+
+    /**
+     * 下一页游标, 为空时表示没有更多数据
+     */
+    private String next;
+
+    private long size;
+
+    /**
+     * 估算的总数, 仅在请求时返回, 超过上限时为上限值
+     */
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private Long total;
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright 2016-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.pnoker.center.data.entity.vo;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.io.Serializable;
+import java.util.Date;
+
+/**
+ * Point Value Aggregate VO, 一个时间桶内位号值的统计结果
+ *
+ * @author pnoker
+ * @since 2022.1.0
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class PointValueAggregateVO implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * 时间桶开始时间
+     */
+    private Date time;
+
+    private Double min;
+    private Double max;
+    private Double avg;
+    private Long count;
+
+    /**
+     * 时间桶内最早的值
+     */
+    private Double first;
+
+    /**
+     * 时间桶内最晚的值
+     */
+    private Double last;
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright 2016-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.pnoker.center.data.entity.vo;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.io.Serializable;
+
+/**
+ * Point Value History VO, 位号最近的数值型历史值, 按时间倒序
+ *
+ * @author pnoker
+ * @since 2022.1.0
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class PointValueHistoryVO implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private String pointId;
+
+    /**
+     * 创建时间, 毫秒时间戳
+     */
+    private long[] times;
+
+    private double[] values;
+}
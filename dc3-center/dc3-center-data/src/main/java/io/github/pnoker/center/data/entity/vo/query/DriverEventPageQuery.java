@@ -39,6 +39,21 @@ public class DriverEventPageQuery implements Serializable {
      */
     private String driverId;
 
+    /**
+     * 事件类型
+     */
+    private String type;
+
+    /**
+     * 游标分页时上一页返回的游标, 为空时从第一页开始
+     */
+    private String cursor;
+
+    /**
+     * 游标分页时是否返回估算的总数
+     */
+    private Boolean estimateTotal = false;
+
     @JsonInclude(JsonInclude.Include.NON_NULL)
     private Pages page;
 }
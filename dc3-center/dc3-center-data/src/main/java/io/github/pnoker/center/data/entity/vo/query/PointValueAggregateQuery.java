@@ -0,0 +1,66 @@
+/*
+ * Copyright 2016-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.pnoker.center.data.entity.vo.query;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import javax.validation.constraints.NotBlank;
+import javax.validation.constraints.NotNull;
+import java.io.Serializable;
+
+/**
+ * Point Value Aggregate Query VO
+ *
+ * @author pnoker
+ * @since 2022.1.0
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class PointValueAggregateQuery implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    @NotBlank(message = "Device id can't be empty")
+    private String deviceId;
+
+    @NotBlank(message = "Point id can't be empty")
+    private String pointId;
+
+    /**
+     * 开始时间, 毫秒时间戳
+     */
+    @NotNull(message = "Start time can't be empty")
+    private Long startTime;
+
+    /**
+     * 结束时间, 毫秒时间戳
+     */
+    @NotNull(message = "End time can't be empty")
+    private Long endTime;
+
+    /**
+     * 聚合粒度: 1m, 1h, 1d, 为空时按时间范围和最大点数自动选择
+     */
+    private String resolution;
+
+    /**
+     * 自动选择聚合粒度时返回的最大点数
+     */
+    private Integer maxPoints = 500;
+}
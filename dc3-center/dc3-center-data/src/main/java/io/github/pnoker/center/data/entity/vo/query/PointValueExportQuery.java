@@ -0,0 +1,67 @@
+/*
+ * Copyright 2016-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.pnoker.center.data.entity.vo.query;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import javax.validation.constraints.NotBlank;
+import javax.validation.constraints.Pattern;
+import java.io.Serializable;
+
+/**
+ * Point Value Export Query VO
+ *
+ * @author pnoker
+ * @since 2022.1.0
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class PointValueExportQuery implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    @NotBlank(message = "Device id can't be empty")
+    private String deviceId;
+
+    /**
+     * 位号ID, 为空时导出设备全部位号
+     */
+    private String pointId;
+
+    /**
+     * 开始时间, 毫秒时间戳, 为 0 时不限制
+     */
+    private long startTime;
+
+    /**
+     * 结束时间, 毫秒时间戳, 为 0 时不限制
+     */
+    private long endTime;
+
+    /**
+     * 导出格式, ndjson 或 csv
+     */
+    @Pattern(regexp = "ndjson|csv", message = "Format must be ndjson or csv")
+    private String format = "ndjson";
+
+    /**
+     * 是否使用 gzip 压缩响应
+     */
+    private Boolean gzip = false;
+}
@@ -55,6 +55,16 @@ public class PointValuePageQuery implements Serializable {
      */
     private Boolean history = false;
 
+    /**
+     * 游标分页时上一页返回的游标, 为空时从第一页开始
+     */
+    private String cursor;
+
+    /**
+     * 游标分页时是否返回估算的总数
+     */
+    private Boolean estimateTotal = false;
+
     @JsonInclude(JsonInclude.Include.NON_NULL)
     private Pages page;
 }
@@ -16,12 +16,17 @@
 
 package io.github.pnoker.center.data.init;
 
+import io.github.pnoker.center.data.service.LastValueService;
+import io.github.pnoker.center.data.service.RepositoryHandleService;
 import io.github.pnoker.center.data.service.ScheduleService;
+import io.github.pnoker.center.data.service.impl.repository.MongoCollectionResolver;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.ApplicationArguments;
 import org.springframework.boot.ApplicationRunner;
 import org.springframework.stereotype.Component;
 
 import javax.annotation.Resource;
+import java.util.concurrent.ThreadPoolExecutor;
 
 /**
  * @author pnoker
@@ -30,11 +35,27 @@ import javax.annotation.Resource;
 @Component
 public class DataInitRunner implements ApplicationRunner {
 
+    @Value("${data.point.sava.mongo.last.enable}")
+    private Boolean enableLastValue;
+
     @Resource
     private ScheduleService scheduleService;
+    @Resource
+    private RepositoryHandleService repositoryHandleService;
+    @Resource
+    private LastValueService lastValueService;
+    @Resource
+    private MongoCollectionResolver mongoCollectionResolver;
+    @Resource
+    private ThreadPoolExecutor threadPoolExecutor;
 
     @Override
     public void run(ApplicationArguments args) throws Exception {
+        repositoryHandleService.initial();
+        threadPoolExecutor.execute(mongoCollectionResolver::migrateIndexes);
+        if (Boolean.TRUE.equals(enableLastValue)) {
+            threadPoolExecutor.execute(lastValueService::warm);
+        }
         scheduleService.initial();
     }
 }
@@ -16,9 +16,11 @@
 
 package io.github.pnoker.center.data.service;
 
+import io.github.pnoker.center.data.entity.bean.DeviceStatusFrame;
 import io.github.pnoker.center.data.entity.vo.query.DevicePageQuery;
 
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Device Interface
@@ -43,4 +45,23 @@ public interface DeviceStatusService {
      * @return Map String:String
      */
     Map<String, String> deviceByProfileId(String profileId);
+
+    /**
+     * 更新单个设备状态, 兼容逐个设备上报状态的驱动
+     *
+     * @param deviceId 设备ID
+     * @param status   状态
+     * @param timeout  超时时间
+     * @param timeUnit 超时时间单位
+     */
+    void status(String deviceId, String status, long timeout, TimeUnit timeUnit);
+
+    /**
+     * 更新驱动心跳帧中全部设备的状态, Redis 写入通过一次 Pipeline 发送
+     *
+     * @param frame    DeviceStatusFrame
+     * @param timeout  超时时间
+     * @param timeUnit 超时时间单位
+     */
+    void status(DeviceStatusFrame frame, long timeout, TimeUnit timeUnit);
 }
@@ -17,6 +17,7 @@
 package io.github.pnoker.center.data.service;
 
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
+import io.github.pnoker.center.data.entity.vo.CursorPageVO;
 import io.github.pnoker.center.data.entity.vo.query.DeviceEventPageQuery;
 import io.github.pnoker.center.data.entity.vo.query.DriverEventPageQuery;
 import io.github.pnoker.common.entity.DeviceEvent;
@@ -66,6 +67,14 @@ public interface EventService {
      */
     Page<DriverEvent> driverEvent(DriverEventPageQuery driverEventPageQuery);
 
+    /**
+     * 按 (createTime, _id) 游标倒序翻页 DriverEvent
+     *
+     * @param driverEventPageQuery 驱动事件和游标参数
+     * @return CursorPageVO Of DriverEvent
+     */
+    CursorPageVO<DriverEvent> driverEventScroll(DriverEventPageQuery driverEventPageQuery);
+
     /**
      * 获取 DeviceEvent 带分页、排序
      *
@@ -74,4 +83,12 @@ public interface EventService {
      */
     Page<DeviceEvent> deviceEvent(DeviceEventPageQuery deviceEventPageQuery);
 
+    /**
+     * 按 (createTime, _id) 游标倒序翻页 DeviceEvent
+     *
+     * @param deviceEventPageQuery 设备事件和游标参数
+     * @return CursorPageVO Of DeviceEvent
+     */
+    CursorPageVO<DeviceEvent> deviceEventScroll(DeviceEventPageQuery deviceEventPageQuery);
+
 }
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2016-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.pnoker.center.data.service;
+
+import io.github.pnoker.common.entity.point.PointValue;
+
+import java.util.List;
+
+/**
+ * Point Value 最新值服务接口
+ *
+ * @author pnoker
+ * @since 2022.1.0
+ */
+public interface LastValueService {
+
+    /**
+     * 批量查询设备位号的最新值
+     *
+     * @param deviceId 设备ID
+     * @param pointIds 位号ID集合
+     * @return PointValue Array, 不包含没有数据的位号
+     */
+    List<PointValue> get(String deviceId, List<String> pointIds);
+
+    /**
+     * 将最新值预热到 Redis 实时数据, 只写入 Redis 中缺失的位号
+     */
+    void warm();
+}
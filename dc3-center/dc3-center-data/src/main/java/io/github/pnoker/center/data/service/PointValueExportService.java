@@ -0,0 +1,46 @@
+/*
+ * Copyright 2016-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.pnoker.center.data.service;
+
+import io.github.pnoker.center.data.entity.vo.query.PointValueExportQuery;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * PointValue 导出服务
+ *
+ * @author pnoker
+ * @since 2022.1.0
+ */
+public interface PointValueExportService {
+
+    /**
+     * 导出格式: CSV
+     */
+    String FORMAT_CSV = "csv";
+
+    /**
+     * 按时间顺序把 PointValue 流式写入输出流, 内存占用与导出范围无关
+     *
+     * @param pointValueExportQuery PointValueExportQuery
+     * @param outputStream          OutputStream
+     * @return 导出的 PointValue 数量
+     * @throws IOException IOException
+     */
+    long export(PointValueExportQuery pointValueExportQuery, OutputStream outputStream) throws IOException;
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright 2016-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.pnoker.center.data.service;
+
+import io.github.pnoker.common.entity.point.PointValue;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * PointValue 实时推送服务
+ *
+ * @author pnoker
+ * @since 2022.1.0
+ */
+public interface PointValuePushService {
+
+    /**
+     * 订阅设备位号实时值
+     *
+     * @param deviceId 设备ID
+     * @param pointIds 位号ID集合, 为空时订阅设备全部位号
+     * @param interval 两次推送之间的最小毫秒数, 为空时使用默认值
+     * @return SseEmitter
+     */
+    SseEmitter subscribe(String deviceId, Collection<String> pointIds, Long interval);
+
+    /**
+     * 发布 PointValue, 只做合并和调度, 不会阻塞调用方
+     *
+     * @param pointValue PointValue
+     */
+    void publish(PointValue pointValue);
+
+    /**
+     * 批量发布 PointValue
+     *
+     * @param pointValues PointValue Array
+     */
+    void publish(List<PointValue> pointValues);
+
+    /**
+     * 获取当前订阅数量
+     *
+     * @return Subscriber Count
+     */
+    int getSubscriberCount();
+}
@@ -17,9 +17,13 @@
 package io.github.pnoker.center.data.service;
 
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
+import io.github.pnoker.center.data.entity.vo.CursorPageVO;
+import io.github.pnoker.center.data.entity.vo.PointValueHistoryVO;
+import io.github.pnoker.center.data.entity.vo.query.PointValueHistoryQuery;
 import io.github.pnoker.center.data.entity.vo.query.PointValuePageQuery;
 import io.github.pnoker.common.entity.point.PointValue;
 
+import java.io.IOException;
 import java.util.List;
 
 /**
@@ -42,6 +46,14 @@ public interface PointValueService {
      */
     void savePointValues(List<PointValue> pointValues);
 
+    /**
+     * 批量新增 PointValue, 写入主存储后返回, 其余存储异步写入
+     *
+     * @param pointValues PointValue Array
+     * @throws IOException IOException
+     */
+    void persistPointValues(List<PointValue> pointValues) throws IOException;
+
     /**
      * 获取带分页、排序
      *
@@ -50,6 +62,14 @@ public interface PointValueService {
      */
     Page<PointValue> latest(PointValuePageQuery pointValuePageQuery);
 
+    /**
+     * 一次查询设备多个位号最近的数值型历史值
+     *
+     * @param pointValueHistoryQuery PointValueHistoryQuery
+     * @return PointValueHistoryVO Array
+     */
+    List<PointValueHistoryVO> history(PointValueHistoryQuery pointValueHistoryQuery);
+
     /**
      * 获取带分页、排序
      *
@@ -58,4 +78,12 @@ public interface PointValueService {
      */
     Page<PointValue> list(PointValuePageQuery pointValuePageQuery);
 
+    /**
+     * 按 (createTime, _id) 游标倒序翻页, 翻页深度不影响查询代价
+     *
+     * @param pointValuePageQuery PointValuePageQuery
+     * @return CursorPageVO Of PointValue
+     */
+    CursorPageVO<PointValue> scroll(PointValuePageQuery pointValuePageQuery);
+
 }
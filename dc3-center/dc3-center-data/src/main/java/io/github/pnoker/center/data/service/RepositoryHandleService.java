@@ -16,8 +16,12 @@
 
 package io.github.pnoker.center.data.service;
 
+import io.github.pnoker.center.data.buffer.RepositoryPipeline;
+import io.github.pnoker.center.data.buffer.SpoolReader;
 import io.github.pnoker.common.entity.point.PointValue;
 
+import java.io.IOException;
+import java.util.Collection;
 import java.util.List;
 
 /**
@@ -42,4 +46,31 @@ public interface RepositoryHandleService {
      */
     void save(List<PointValue> pointValues);
 
+    /**
+     * 启动写前日志读取方, 回放上次停止前尚未写入存储的数据
+     */
+    void initial();
+
+    /**
+     * 同步保存到主存储, 成功后再异步保存到其余存储; 启用写前日志时同步写入写前日志并等待落盘
+     *
+     * @param pointValues PointValue Array
+     * @throws IOException IOException
+     */
+    void persist(List<PointValue> pointValues) throws IOException;
+
+    /**
+     * 获取全部存储服务写入管道
+     *
+     * @return RepositoryPipeline Array
+     */
+    Collection<RepositoryPipeline> getPipelines();
+
+    /**
+     * 获取全部写前日志读取方
+     *
+     * @return SpoolReader Array
+     */
+    Collection<SpoolReader> getSpoolReaders();
+
 }
@@ -20,6 +20,7 @@ import io.github.pnoker.common.entity.point.PointValue;
 
 import java.io.IOException;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Point Value 存储策略服务接口
@@ -52,4 +53,16 @@ public interface RepositoryService {
      * @throws IOException IOException
      */
     void savePointValues(String deviceId, List<PointValue> pointValues) throws IOException;
+
+    /**
+     * 保存多个设备的 PointValue 集合, 默认按设备依次保存, 支持批量写入的存储可以合并为一次请求
+     *
+     * @param group 设备ID -> PointValue Array
+     * @throws IOException IOException
+     */
+    default void savePointValues(Map<String, List<PointValue>> group) throws IOException {
+        for (Map.Entry<String, List<PointValue>> entry : group.entrySet()) {
+            savePointValues(entry.getKey(), entry.getValue());
+        }
+    }
 }
@@ -0,0 +1,39 @@
+/*
+ * Copyright 2016-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.pnoker.center.data.service;
+
+import io.github.pnoker.center.data.entity.vo.PointValueAggregateVO;
+import io.github.pnoker.center.data.entity.vo.query.PointValueAggregateQuery;
+
+import java.util.List;
+
+/**
+ * Point Value 聚合查询服务接口
+ *
+ * @author pnoker
+ * @since 2022.1.0
+ */
+public interface RollupService {
+
+    /**
+     * 查询位号在时间范围内的聚合值, 未指定粒度时选择点数不超过最大点数的最细粒度
+     *
+     * @param aggregateQuery PointValueAggregateQuery
+     * @return PointValueAggregateVO Array
+     */
+    List<PointValueAggregateVO> aggregate(PointValueAggregateQuery aggregateQuery);
+}
@@ -21,6 +21,8 @@ import cn.hutool.core.util.ObjectUtil;
 import io.github.pnoker.api.center.manager.*;
 import io.github.pnoker.api.common.EnableFlagDTOEnum;
 import io.github.pnoker.api.common.PageDTO;
+import io.github.pnoker.center.data.buffer.StatusTable;
+import io.github.pnoker.center.data.entity.bean.DeviceStatusFrame;
 import io.github.pnoker.center.data.entity.vo.query.DevicePageQuery;
 import io.github.pnoker.center.data.service.DeviceStatusService;
 import io.github.pnoker.common.constant.common.DefaultConstant;
@@ -30,13 +32,17 @@ import io.github.pnoker.common.enums.DeviceStatusEnum;
 import io.github.pnoker.common.utils.RedisUtil;
 import lombok.extern.slf4j.Slf4j;
 import net.devh.boot.grpc.client.inject.GrpcClient;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.data.redis.core.ValueOperations;
 import org.springframework.stereotype.Service;
 
 import javax.annotation.Resource;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 /**
@@ -54,6 +60,10 @@ public class DeviceStatusServiceImpl implements DeviceStatusService {
 
     @Resource
     private RedisUtil redisUtil;
+    @Resource
+    private StatusTable statusTable;
+    @Resource
+    private RedisTemplate<String, Object> redisTemplate;
 
     @Override
     public Map<String, String> device(DevicePageQuery pageQuery) {
@@ -91,6 +101,27 @@ public class DeviceStatusServiceImpl implements DeviceStatusService {
         return getStatusMap(devices);
     }
 
+    @Override
+    public void status(String deviceId, String status, long timeout, TimeUnit timeUnit) {
+        redisUtil.setKey(PrefixConstant.DEVICE_STATUS_KEY_PREFIX + deviceId, status, timeout, timeUnit);
+        statusTable.put(StatusTable.Type.DEVICE, deviceId, status, timeout, timeUnit);
+    }
+
+    @Override
+    public void status(DeviceStatusFrame frame, long timeout, TimeUnit timeUnit) {
+        redisTemplate.executePipelined(new SessionCallback<Object>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public <K, V> Object execute(RedisOperations<K, V> operations) {
+                ValueOperations<String, Object> valueOperations = (ValueOperations<String, Object>) operations.opsForValue();
+                frame.forEach((status, deviceIds) -> deviceIds.forEach(deviceId ->
+                        valueOperations.set(PrefixConstant.DEVICE_STATUS_KEY_PREFIX + deviceId, status, timeout, timeUnit)));
+                return null;
+            }
+        });
+        frame.forEach((status, deviceIds) -> deviceIds.forEach(deviceId -> statusTable.put(StatusTable.Type.DEVICE, deviceId, status, timeout, timeUnit)));
+    }
+
     /**
      * Query to DTO
      *
@@ -118,19 +149,29 @@ public class DeviceStatusServiceImpl implements DeviceStatusService {
 
     /**
      * Get status map
+     * <p>
+     * 按 data.status.source 读取本地状态表或 Redis, Redis 通过一次 MGET 读取全部状态
      *
      * @param devices DeviceDTO Array
      * @return Status Map
      */
     private Map<String, String> getStatusMap(List<DeviceDTO> devices) {
-        Map<String, String> statusMap = new HashMap<>(16);
-        Set<String> deviceIds = devices.stream().map(d -> d.getBase().getId()).collect(Collectors.toSet());
-        deviceIds.forEach(id -> {
-            String key = PrefixConstant.DEVICE_STATUS_KEY_PREFIX + id;
-            String status = redisUtil.getKey(key);
-            status = ObjectUtil.isNotNull(status) ? status : DeviceStatusEnum.OFFLINE.getCode();
-            statusMap.put(id, status);
-        });
+        List<String> deviceIds = devices.stream().map(d -> d.getBase().getId()).distinct().collect(Collectors.toList());
+        StatusTable.Source source = statusTable.getSource();
+        Map<String, String> statusMap = source == StatusTable.Source.REDIS ? new HashMap<>(deviceIds.size() * 2) : statusTable.get(StatusTable.Type.DEVICE, deviceIds);
+
+        List<String> missing = deviceIds.stream().filter(id -> !statusMap.containsKey(id)).collect(Collectors.toList());
+        if (source != StatusTable.Source.LOCAL && !missing.isEmpty()) {
+            List<String> keys = missing.stream().map(id -> PrefixConstant.DEVICE_STATUS_KEY_PREFIX + id).collect(Collectors.toList());
+            List<String> statuses = redisUtil.getKey(keys);
+            for (int i = 0; ObjectUtil.isNotNull(statuses) && i < statuses.size(); i++) {
+                if (ObjectUtil.isNotNull(statuses.get(i))) {
+                    statusMap.put(missing.get(i), statuses.get(i));
+                }
+            }
+        }
+
+        deviceIds.forEach(id -> statusMap.putIfAbsent(id, DeviceStatusEnum.OFFLINE.getCode()));
         return statusMap;
     }
 
@@ -17,6 +17,7 @@
 package io.github.pnoker.center.data.service.impl;
 
 import cn.hutool.core.util.ObjectUtil;
+import io.github.pnoker.center.data.buffer.StatusTable;
 import io.github.pnoker.center.data.service.DriverEventService;
 import io.github.pnoker.common.constant.common.PrefixConstant;
 import io.github.pnoker.common.dto.DriverEventDTO;
@@ -40,7 +41,8 @@ public class DriverEventServiceImpl implements DriverEventService {
 
     @Resource
     private RedisUtil redisUtil;
-
+    @Resource
+    private StatusTable statusTable;
 
     @Override
     public void heartbeatEvent(DriverEventDTO entityDTO) {
@@ -49,6 +51,7 @@ public class DriverEventServiceImpl implements DriverEventService {
             return;
         }
         redisUtil.setKey(PrefixConstant.DRIVER_STATUS_KEY_PREFIX + driverStatus.getDriverId(), driverStatus.getStatus(), 10, TimeUnit.SECONDS);
+        statusTable.put(StatusTable.Type.DRIVER, driverStatus.getDriverId(), String.valueOf(driverStatus.getStatus()), 10, TimeUnit.SECONDS);
     }
 
 }
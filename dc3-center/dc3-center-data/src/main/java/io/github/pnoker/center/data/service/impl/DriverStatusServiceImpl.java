@@ -25,6 +25,7 @@ import io.github.pnoker.api.center.manager.RPageDriverDTO;
 import io.github.pnoker.api.common.DriverTypeFlagDTOEnum;
 import io.github.pnoker.api.common.EnableFlagDTOEnum;
 import io.github.pnoker.api.common.PageDTO;
+import io.github.pnoker.center.data.buffer.StatusTable;
 import io.github.pnoker.center.data.entity.vo.query.DriverPageQuery;
 import io.github.pnoker.center.data.service.DriverStatusService;
 import io.github.pnoker.common.constant.common.DefaultConstant;
@@ -40,7 +41,6 @@ import javax.annotation.Resource;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 import java.util.stream.Collectors;
 
 /**
@@ -58,6 +58,8 @@ public class DriverStatusServiceImpl implements DriverStatusService {
 
     @Resource
     private RedisUtil redisUtil;
+    @Resource
+    private StatusTable statusTable;
 
     @Override
     public Map<String, String> driver(DriverPageQuery pageQuery) {
@@ -114,19 +116,29 @@ public class DriverStatusServiceImpl implements DriverStatusService {
 
     /**
      * Get status map
+     * <p>
+     * 按 data.status.source 读取本地状态表或 Redis, Redis 通过一次 MGET 读取全部状态
      *
      * @param drivers DriverDTO Array
      * @return Status Map
      */
     private Map<String, String> getStatusMap(List<DriverDTO> drivers) {
-        Map<String, String> statusMap = new HashMap<>(16);
-        Set<String> driverIds = drivers.stream().map(d -> d.getBase().getId()).collect(Collectors.toSet());
-        driverIds.forEach(id -> {
-            String key = PrefixConstant.DRIVER_STATUS_KEY_PREFIX + id;
-            String status = redisUtil.getKey(key);
-            status = ObjectUtil.isNotNull(status) ? status : DriverStatusEnum.OFFLINE.getCode();
-            statusMap.put(id, status);
-        });
+        List<String> driverIds = drivers.stream().map(d -> d.getBase().getId()).distinct().collect(Collectors.toList());
+        StatusTable.Source source = statusTable.getSource();
+        Map<String, String> statusMap = source == StatusTable.Source.REDIS ? new HashMap<>(driverIds.size() * 2) : statusTable.get(StatusTable.Type.DRIVER, driverIds);
+
+        List<String> missing = driverIds.stream().filter(id -> !statusMap.containsKey(id)).collect(Collectors.toList());
+        if (source != StatusTable.Source.LOCAL && !missing.isEmpty()) {
+            List<String> keys = missing.stream().map(id -> PrefixConstant.DRIVER_STATUS_KEY_PREFIX + id).collect(Collectors.toList());
+            List<String> statuses = redisUtil.getKey(keys);
+            for (int i = 0; ObjectUtil.isNotNull(statuses) && i < statuses.size(); i++) {
+                if (ObjectUtil.isNotNull(statuses.get(i))) {
+                    statusMap.put(missing.get(i), statuses.get(i));
+                }
+            }
+        }
+
+        driverIds.forEach(id -> statusMap.putIfAbsent(id, DriverStatusEnum.OFFLINE.getCode()));
         return statusMap;
     }
 
@@ -19,21 +19,33 @@ package io.github.pnoker.center.data.service.impl;
 import cn.hutool.core.text.CharSequenceUtil;
 import cn.hutool.core.util.ObjectUtil;
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
+import io.github.pnoker.center.data.buffer.EventBulkInserter;
+import io.github.pnoker.center.data.entity.vo.CursorPageVO;
 import io.github.pnoker.center.data.entity.vo.query.DeviceEventPageQuery;
 import io.github.pnoker.center.data.entity.vo.query.DriverEventPageQuery;
 import io.github.pnoker.center.data.service.EventService;
+import io.github.pnoker.center.data.utils.CursorUtil;
 import io.github.pnoker.common.entity.DeviceEvent;
 import io.github.pnoker.common.entity.DriverEvent;
 import io.github.pnoker.common.entity.common.Pages;
 import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.domain.Sort;
 import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.index.IndexOperations;
 import org.springframework.data.mongodb.core.query.Criteria;
 import org.springframework.data.mongodb.core.query.Query;
 import org.springframework.stereotype.Service;
 
 import javax.annotation.Resource;
+import java.time.Duration;
+import java.util.Date;
 import java.util.List;
+import java.util.stream.Collectors;
 
 /**
  * @author pnoker
@@ -41,18 +53,41 @@ import java.util.List;
  */
 @Slf4j
 @Service
-public class EventServiceImpl implements EventService {
+public class EventServiceImpl implements EventService, InitializingBean, DisposableBean {
+
+    private static final String DEVICE_FIELD = "deviceId";
+    private static final String DRIVER_FIELD = "driverId";
+    private static final String TYPE_FIELD = "type";
+    private static final String TIME_FIELD = "createTime";
+    private static final String EXPIRE_FIELD = "expireAt";
+
+    @Value("${data.page.count-limit}")
+    private Long countLimit;
+    @Value("${data.event.batch.size}")
+    private Integer batchSize;
+    @Value("${data.event.batch.interval}")
+    private Long interval;
+    @Value("${data.event.batch.capacity}")
+    private Integer batchCapacity;
+    @Value("${data.event.batch.max-retries}")
+    private Integer maxRetries;
+    @Value("${data.event.driver.retention}")
+    private Duration driverRetention;
 
     @Resource
     private MongoTemplate mongoTemplate;
 
+    private EventBulkInserter driverEventInserter;
+
     /**
      * {@inheritDoc}
+     * <p>
+     * 驱动事件进入批量写入缓冲, 由 {@link EventBulkInserter} 合并为批量 insert
      */
     @Override
     public void addDriverEvent(DriverEvent driverEvent) {
         if (ObjectUtil.isNotNull(driverEvent)) {
-            mongoTemplate.insert(driverEvent);
+            driverEventInserter.add(toDocument(driverEvent));
         }
     }
 
@@ -62,7 +97,7 @@ public class EventServiceImpl implements EventService {
     @Override
     public void addDriverEvents(List<DriverEvent> driverEvents) {
         if (ObjectUtil.isNotNull(driverEvents) && !driverEvents.isEmpty()) {
-            mongoTemplate.insert(driverEvents, DriverEvent.class);
+            driverEvents.forEach(this::addDriverEvent);
         }
     }
 
@@ -91,7 +126,34 @@ public class EventServiceImpl implements EventService {
      */
     @Override
     public Page<DriverEvent> driverEvent(DriverEventPageQuery driverEventPageQuery) {
-        return null;
+        if (ObjectUtil.isNull(driverEventPageQuery)) {
+            driverEventPageQuery = new DriverEventPageQuery();
+        }
+        Pages pages = ObjectUtil.isNull(driverEventPageQuery.getPage()) ? new Pages() : driverEventPageQuery.getPage();
+        Query query = buildDriverEventQuery(driverEventPageQuery, pages);
+        long count = mongoTemplate.count(query, DriverEvent.class);
+
+        query.with(Sort.by(Sort.Direction.DESC, TIME_FIELD));
+        long size = pages.getSize();
+        long page = pages.getCurrent();
+        query.limit((int) size).skip(size * (page - 1));
+
+        List<DriverEvent> driverEvents = mongoTemplate.find(query, DriverEvent.class);
+
+        return (new Page<DriverEvent>()).setCurrent(pages.getCurrent()).setSize(pages.getSize()).setTotal(count).setRecords(driverEvents);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public CursorPageVO<DriverEvent> driverEventScroll(DriverEventPageQuery driverEventPageQuery) {
+        if (ObjectUtil.isNull(driverEventPageQuery)) {
+            driverEventPageQuery = new DriverEventPageQuery();
+        }
+        Pages pages = ObjectUtil.isNull(driverEventPageQuery.getPage()) ? new Pages() : driverEventPageQuery.getPage();
+        Query query = buildDriverEventQuery(driverEventPageQuery, pages);
+        return scroll(query, DriverEvent.class, driverEventPageQuery.getCursor(), driverEventPageQuery.getEstimateTotal(), (int) pages.getSize());
     }
 
     /**
@@ -99,26 +161,14 @@ public class EventServiceImpl implements EventService {
      */
     @Override
     public Page<DeviceEvent> deviceEvent(DeviceEventPageQuery deviceEventPageQuery) {
-        Criteria criteria = new Criteria();
         if (ObjectUtil.isNull(deviceEventPageQuery)) {
             deviceEventPageQuery = new DeviceEventPageQuery();
         }
-        if (CharSequenceUtil.isNotEmpty(deviceEventPageQuery.getDeviceId())) {
-            criteria.and("deviceId").is(deviceEventPageQuery.getDeviceId());
-        }
-        if (CharSequenceUtil.isNotEmpty(deviceEventPageQuery.getPointId())) {
-            criteria.and("pointId").is(deviceEventPageQuery.getPointId());
-        }
-
         Pages pages = ObjectUtil.isNull(deviceEventPageQuery.getPage()) ? new Pages() : deviceEventPageQuery.getPage();
-        if (pages.getStartTime() > 0 && pages.getEndTime() > 0 && pages.getStartTime() <= pages.getEndTime()) {
-            criteria.and("createTime").gte(pages.getStartTime()).lte(pages.getEndTime());
-        }
-
-        Query query = new Query(criteria);
+        Query query = buildDeviceEventQuery(deviceEventPageQuery, pages);
         long count = mongoTemplate.count(query, DeviceEvent.class);
 
-        query.with(Sort.by(Sort.Direction.DESC, "createTime"));
+        query.with(Sort.by(Sort.Direction.DESC, TIME_FIELD));
         long size = pages.getSize();
         long page = pages.getCurrent();
         query.limit((int) size).skip(size * (page - 1));
@@ -128,4 +178,175 @@ public class EventServiceImpl implements EventService {
         return (new Page<DeviceEvent>()).setCurrent(pages.getCurrent()).setSize(pages.getSize()).setTotal(count).setRecords(deviceEvents);
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public CursorPageVO<DeviceEvent> deviceEventScroll(DeviceEventPageQuery deviceEventPageQuery) {
+        if (ObjectUtil.isNull(deviceEventPageQuery)) {
+            deviceEventPageQuery = new DeviceEventPageQuery();
+        }
+        Pages pages = ObjectUtil.isNull(deviceEventPageQuery.getPage()) ? new Pages() : deviceEventPageQuery.getPage();
+        Query query = buildDeviceEventQuery(deviceEventPageQuery, pages);
+        return scroll(query, DeviceEvent.class, deviceEventPageQuery.getCursor(), deviceEventPageQuery.getEstimateTotal(), (int) pages.getSize());
+    }
+
+    /**
+     * 按 (createTime, _id) 游标倒序翻页
+     *
+     * @param query         查询条件
+     * @param entityClass   事件类型
+     * @param cursor        上一页返回的游标
+     * @param estimateTotal 是否返回估算的总数
+     * @param size          每页数量
+     * @param <T>           事件类型
+     * @return CursorPageVO
+     */
+    private <T> CursorPageVO<T> scroll(Query query, Class<T> entityClass, String cursor, Boolean estimateTotal, int size) {
+        String collection = mongoTemplate.getCollectionName(entityClass);
+
+        CursorPageVO<T> cursorPage = new CursorPageVO<>();
+        cursorPage.setSize(size);
+        if (Boolean.TRUE.equals(estimateTotal)) {
+            cursorPage.setTotal(CursorUtil.estimateTotal(mongoTemplate, query, collection, countLimit));
+        }
+
+        if (CursorUtil.hasCursor(cursor)) {
+            CursorUtil.Cursor decoded = CursorUtil.decode(cursor);
+            query.addCriteria(CursorUtil.after(TIME_FIELD, decoded.getTime(), decoded.getId()));
+        }
+        query.with(Sort.by(Sort.Direction.DESC, TIME_FIELD, CursorUtil.ID_FIELD)).limit(size + 1);
+
+        // 多读一条用于判断是否还有下一页, 读取原始文档以获得 _id
+        List<Document> documents = mongoTemplate.find(query, Document.class, collection);
+        boolean hasNext = documents.size() > size;
+        if (hasNext) {
+            documents = documents.subList(0, size);
+        }
+
+        cursorPage.setRecords(documents.stream()
+                .map(document -> mongoTemplate.getConverter().read(entityClass, document))
+                .collect(Collectors.toList()));
+        if (hasNext) {
+            Document last = documents.get(documents.size() - 1);
+            cursorPage.setNext(CursorUtil.encode(((Number) last.get(TIME_FIELD)).longValue(), last.get(CursorUtil.ID_FIELD)));
+        }
+        return cursorPage;
+    }
+
+    /**
+     * 确保设备和驱动事件索引, 按设备、驱动、事件类型过滤和无过滤的倒序翻页都可以直接走索引;
+     * 创建驱动事件批量写入缓冲
+     */
+    @Override
+    public void afterPropertiesSet() {
+        try {
+            IndexOperations indexOperations = mongoTemplate.indexOps(DeviceEvent.class);
+            indexOperations.ensureIndex(new Index().background()
+                    .on(DEVICE_FIELD, Sort.Direction.ASC)
+                    .on(TIME_FIELD, Sort.Direction.DESC)
+                    .on(CursorUtil.ID_FIELD, Sort.Direction.DESC)
+                    .named("IX_device_id_create_time_id"));
+            indexOperations.ensureIndex(new Index().background()
+                    .on(TIME_FIELD, Sort.Direction.DESC)
+                    .on(CursorUtil.ID_FIELD, Sort.Direction.DESC)
+                    .named("IX_create_time_id"));
+        } catch (Exception e) {
+            log.warn("Ensure device event index error: {}", e.getMessage());
+        }
+
+        try {
+            IndexOperations indexOperations = mongoTemplate.indexOps(DriverEvent.class);
+            indexOperations.ensureIndex(new Index().background()
+                    .on(DRIVER_FIELD, Sort.Direction.ASC)
+                    .on(TYPE_FIELD, Sort.Direction.ASC)
+                    .on(TIME_FIELD, Sort.Direction.DESC)
+                    .on(CursorUtil.ID_FIELD, Sort.Direction.DESC)
+                    .named("IX_driver_id_type_create_time_id"));
+            indexOperations.ensureIndex(new Index().background()
+                    .on(DRIVER_FIELD, Sort.Direction.ASC)
+                    .on(TIME_FIELD, Sort.Direction.DESC)
+                    .on(CursorUtil.ID_FIELD, Sort.Direction.DESC)
+                    .named("IX_driver_id_create_time_id"));
+            indexOperations.ensureIndex(new Index().background()
+                    .on(TIME_FIELD, Sort.Direction.DESC)
+                    .on(CursorUtil.ID_FIELD, Sort.Direction.DESC)
+                    .named("IX_create_time_id"));
+            // Documents expire at their own expireAt, documents without it are kept forever
+            indexOperations.ensureIndex(new Index().background()
+                    .on(EXPIRE_FIELD, Sort.Direction.ASC)
+                    .expire(0)
+                    .named("IX_expire_at"));
+        } catch (Exception e) {
+            log.warn("Ensure driver event index error: {}", e.getMessage());
+        }
+
+        driverEventInserter = new EventBulkInserter(mongoTemplate, mongoTemplate.getCollectionName(DriverEvent.class), batchSize, interval, batchCapacity, maxRetries);
+    }
+
+    @Override
+    public void destroy() {
+        driverEventInserter.close();
+    }
+
+    /**
+     * 驱动事件转换为文档, 保留时间大于 0 时写入过期时间 expireAt
+     *
+     * @param driverEvent DriverEvent
+     * @return Document
+     */
+    private Document toDocument(DriverEvent driverEvent) {
+        Document document = new Document();
+        mongoTemplate.getConverter().write(driverEvent, document);
+        if (ObjectUtil.isNull(document.get(TIME_FIELD))) {
+            document.put(TIME_FIELD, System.currentTimeMillis());
+        }
+        if (!driverRetention.isZero() && !driverRetention.isNegative()) {
+            document.put(EXPIRE_FIELD, new Date(System.currentTimeMillis() + driverRetention.toMillis()));
+        }
+        return document;
+    }
+
+    /**
+     * 构造设备事件的设备、位号和时间范围查询条件
+     *
+     * @param deviceEventPageQuery DeviceEventPageQuery
+     * @param pages                Pages
+     * @return Query
+     */
+    private Query buildDeviceEventQuery(DeviceEventPageQuery deviceEventPageQuery, Pages pages) {
+        Criteria criteria = new Criteria();
+        if (CharSequenceUtil.isNotEmpty(deviceEventPageQuery.getDeviceId())) {
+            criteria.and(DEVICE_FIELD).is(deviceEventPageQuery.getDeviceId());
+        }
+        if (CharSequenceUtil.isNotEmpty(deviceEventPageQuery.getPointId())) {
+            criteria.and("pointId").is(deviceEventPageQuery.getPointId());
+        }
+        if (pages.getStartTime() > 0 && pages.getEndTime() > 0 && pages.getStartTime() <= pages.getEndTime()) {
+            criteria.and(TIME_FIELD).gte(pages.getStartTime()).lte(pages.getEndTime());
+        }
+        return new Query(criteria);
+    }
+
+    /**
+     * 构造驱动事件的驱动、事件类型和时间范围查询条件
+     *
+     * @param driverEventPageQuery DriverEventPageQuery
+     * @param pages                Pages
+     * @return Query
+     */
+    private Query buildDriverEventQuery(DriverEventPageQuery driverEventPageQuery, Pages pages) {
+        Criteria criteria = new Criteria();
+        if (CharSequenceUtil.isNotEmpty(driverEventPageQuery.getDriverId())) {
+            criteria.and(DRIVER_FIELD).is(driverEventPageQuery.getDriverId());
+        }
+        if (CharSequenceUtil.isNotEmpty(driverEventPageQuery.getType())) {
+            criteria.and(TYPE_FIELD).is(driverEventPageQuery.getType());
+        }
+        if (pages.getStartTime() > 0 && pages.getEndTime() > 0 && pages.getStartTime() <= pages.getEndTime()) {
+            criteria.and(TIME_FIELD).gte(pages.getStartTime()).lte(pages.getEndTime());
+        }
+        return new Query(criteria);
+    }
+
 }
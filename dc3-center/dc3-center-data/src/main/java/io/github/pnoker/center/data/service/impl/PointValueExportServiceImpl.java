@@ -0,0 +1,167 @@
+/*
+ * Copyright 2016-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.pnoker.center.data.service.impl;
+
+import cn.hutool.core.text.CharSequenceUtil;
+import cn.hutool.core.util.ObjectUtil;
+import io.github.pnoker.center.data.entity.vo.query.PointValueExportQuery;
+import io.github.pnoker.center.data.service.PointValueExportService;
+import io.github.pnoker.center.data.service.impl.repository.MongoCollectionResolver;
+import io.github.pnoker.common.entity.point.PointValue;
+import io.github.pnoker.common.utils.FieldUtil;
+import io.github.pnoker.common.utils.JsonUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.util.CloseableIterator;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.Resource;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+
+/**
+ * PointValue 导出服务实现
+ * <p>
+ * 通过 Mongo 游标按批读取, 每条记录直接编码写入响应, 每 flush-size 条刷新一次。
+ * 客户端读取变慢时写入会阻塞, 游标随之暂停拉取下一批, 内存中只保留一个游标批次。
+ *
+ * @author pnoker
+ * @since 2022.1.0
+ */
+@Slf4j
+@Service
+public class PointValueExportServiceImpl implements PointValueExportService {
+
+    private static final String CSV_HEADER = "deviceId,pointId,rawValue,value,originTime,createTime";
+
+    @Value("${data.point.export.batch-size}")
+    private Integer batchSize;
+    @Value("${data.point.export.flush-size}")
+    private Integer flushSize;
+
+    @Resource
+    private MongoTemplate mongoTemplate;
+    @Resource
+    private MongoCollectionResolver mongoCollectionResolver;
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long export(PointValueExportQuery exportQuery, OutputStream outputStream) throws IOException {
+        boolean csv = FORMAT_CSV.equalsIgnoreCase(exportQuery.getFormat());
+        String collection = mongoCollectionResolver.getCollection(exportQuery.getDeviceId());
+        Query query = buildQuery(exportQuery);
+
+        long count = 0;
+        Writer writer = new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8));
+        try (CloseableIterator<PointValue> iterator = mongoTemplate.stream(query, PointValue.class, collection)) {
+            if (csv) {
+                writer.write(CSV_HEADER);
+                writer.write('\n');
+            }
+            while (iterator.hasNext()) {
+                PointValue pointValue = iterator.next();
+                if (csv) {
+                    writeCsv(writer, pointValue);
+                } else {
+                    writer.write(JsonUtil.toJsonString(pointValue));
+                    writer.write('\n');
+                }
+
+                if (++count % flushSize == 0) {
+                    writer.flush();
+                }
+            }
+        }
+        writer.flush();
+        log.debug("Export {} point values of device {}", count, exportQuery.getDeviceId());
+        return count;
+    }
+
+    /**
+     * 构造导出查询, 按时间正序读取, 游标每批读取 batch-size 条
+     *
+     * @param exportQuery PointValueExportQuery
+     * @return Query
+     */
+    private Query buildQuery(PointValueExportQuery exportQuery) {
+        final String timeField = FieldUtil.getField(PointValue::getCreateTime);
+        Criteria criteria = mongoCollectionResolver.deviceCriteria(exportQuery.getDeviceId());
+        if (CharSequenceUtil.isNotEmpty(exportQuery.getPointId())) {
+            criteria.and(mongoCollectionResolver.getPointField()).is(exportQuery.getPointId());
+        }
+        if (exportQuery.getStartTime() > 0 || exportQuery.getEndTime() > 0) {
+            Criteria timeCriteria = criteria.and(timeField);
+            if (exportQuery.getStartTime() > 0) {
+                timeCriteria.gte(new Date(exportQuery.getStartTime()));
+            }
+            if (exportQuery.getEndTime() > 0) {
+                timeCriteria.lte(new Date(exportQuery.getEndTime()));
+            }
+        }
+
+        Query query = new Query(criteria);
+        query.with(Sort.by(Sort.Direction.ASC, timeField));
+        query.cursorBatchSize(batchSize);
+        return query;
+    }
+
+    private void writeCsv(Writer writer, PointValue pointValue) throws IOException {
+        writer.write(escape(pointValue.getDeviceId()));
+        writer.write(',');
+        writer.write(escape(pointValue.getPointId()));
+        writer.write(',');
+        writer.write(escape(pointValue.getRawValue()));
+        writer.write(',');
+        writer.write(escape(pointValue.getValue()));
+        writer.write(',');
+        writer.write(time(pointValue.getOriginTime()));
+        writer.write(',');
+        writer.write(time(pointValue.getCreateTime()));
+        writer.write('\n');
+    }
+
+    private static String time(Date date) {
+        return ObjectUtil.isNull(date) ? "" : String.valueOf(date.getTime());
+    }
+
+    /**
+     * 按 RFC 4180 转义 CSV 字段
+     *
+     * @param value 字段值
+     * @return 转义后的字段
+     */
+    private static String escape(String value) {
+        if (ObjectUtil.isNull(value)) {
+            return "";
+        }
+        if (CharSequenceUtil.containsAny(value, ',', '"', '\n', '\r')) {
+            return "\"" + value.replace("\"", "\"\"") + "\"";
+        }
+        return value;
+    }
+}
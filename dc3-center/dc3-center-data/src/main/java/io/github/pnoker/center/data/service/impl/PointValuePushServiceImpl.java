@@ -0,0 +1,347 @@
+/*
+ * Copyright 2016-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.pnoker.center.data.service.impl;
+
+import cn.hutool.core.collection.CollUtil;
+import cn.hutool.core.util.ObjectUtil;
+import io.github.pnoker.center.data.service.PointValuePushService;
+import io.github.pnoker.common.entity.point.PointValue;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * PointValue 实时推送服务实现
+ * <p>
+ * 接收线程只把值放入订阅方的待推送表, 同一位号只保留最新值; 每个订阅方最多每 interval
+ * 毫秒推送一次, 推送在独立线程池中执行。每个订阅方同时最多只有一次推送在执行,
+ * 线程池按需扩容, 阻塞在某个连接上的推送只占用自己的线程, 不会让其他订阅方排队等待。
+ * 一次推送超过 slow-timeout 仍未完成的订阅方视为慢消费者, 由定时检查直接断开并中断其推送线程。
+ *
+ * @author pnoker
+ * @since 2022.1.0
+ */
+@Slf4j
+@Service
+public class PointValuePushServiceImpl implements PointValuePushService, InitializingBean, DisposableBean {
+
+    private static final String EVENT_NAME = "value";
+
+    @Value("${data.point.push.interval}")
+    @Setter
+    private Long defaultInterval;
+    @Value("${data.point.push.timeout}")
+    @Setter
+    private Long timeout;
+    @Value("${data.point.push.slow-timeout}")
+    @Setter
+    private Long slowTimeout;
+    @Value("${data.point.push.heartbeat}")
+    @Setter
+    private Long heartbeat;
+    @Value("${data.point.push.max-subscribers}")
+    @Setter
+    private Integer maxSubscribers;
+    @Value("${data.point.push.worker}")
+    @Setter
+    private Integer workerSize;
+
+    private final Map<String, Set<Subscriber>> subscriberMap = new ConcurrentHashMap<>(16);
+    private final AtomicInteger subscriberCount = new AtomicInteger();
+
+    private ScheduledExecutorService scheduler;
+    private ExecutorService sender;
+
+    @Override
+    public void afterPropertiesSet() {
+        scheduler = Executors.newSingleThreadScheduledExecutor(threadFactory("push-scheduler"));
+        // One data push and one heartbeat in flight per subscriber at most, idle threads above the core size exit
+        sender = new ThreadPoolExecutor(workerSize, workerSize + maxSubscribers * 2, 60, TimeUnit.SECONDS,
+                new SynchronousQueue<>(), threadFactory("push-sender"));
+        scheduler.scheduleWithFixedDelay(this::heartbeat, heartbeat, heartbeat, TimeUnit.MILLISECONDS);
+        long check = Math.max(100, slowTimeout / 2);
+        scheduler.scheduleWithFixedDelay(this::evictSlow, check, check, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void destroy() {
+        scheduler.shutdownNow();
+        sender.shutdownNow();
+        subscriberMap.values().forEach(subscribers -> subscribers.forEach(subscriber -> subscriber.emitter.complete()));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public SseEmitter subscribe(String deviceId, Collection<String> pointIds, Long interval) {
+        if (subscriberCount.incrementAndGet() > maxSubscribers) {
+            subscriberCount.decrementAndGet();
+            throw new IllegalStateException("Too many point value subscribers");
+        }
+
+        SseEmitter emitter = new SseEmitter(timeout);
+        Subscriber subscriber = new Subscriber(deviceId, emitter,
+                CollUtil.isEmpty(pointIds) ? Collections.emptySet() : new HashSet<>(pointIds),
+                ObjectUtil.isNull(interval) ? defaultInterval : Math.max(interval, defaultInterval));
+        emitter.onCompletion(() -> remove(subscriber));
+        emitter.onTimeout(() -> remove(subscriber));
+        emitter.onError(throwable -> remove(subscriber));
+
+        subscriberMap.computeIfAbsent(deviceId, key -> new CopyOnWriteArraySet<>()).add(subscriber);
+        log.debug("Subscribe point values of device {}, points: {}", deviceId, subscriber.pointIds);
+        return emitter;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void publish(PointValue pointValue) {
+        Set<Subscriber> subscribers = subscriberMap.get(pointValue.getDeviceId());
+        if (CollUtil.isEmpty(subscribers)) {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        for (Subscriber subscriber : subscribers) {
+            if (subscriber.accept(pointValue)) {
+                schedule(subscriber, now);
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void publish(List<PointValue> pointValues) {
+        if (subscriberMap.isEmpty()) {
+            return;
+        }
+        pointValues.forEach(this::publish);
+    }
+
+    @Override
+    public int getSubscriberCount() {
+        return subscriberCount.get();
+    }
+
+    /**
+     * 订阅方没有待执行的推送时, 按节流间隔安排一次推送
+     *
+     * @param subscriber Subscriber
+     * @param now        当前时间
+     */
+    private void schedule(Subscriber subscriber, long now) {
+        if (!subscriber.scheduled.compareAndSet(false, true)) {
+            return;
+        }
+        long delay = Math.max(0, subscriber.lastSent + subscriber.interval - now);
+        if (delay == 0) {
+            execute(subscriber, () -> send(subscriber));
+        } else {
+            scheduler.schedule(() -> execute(subscriber, () -> send(subscriber)), delay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * 提交推送任务, 线程池已满时断开该订阅方
+     *
+     * @param subscriber Subscriber
+     * @param task       推送任务
+     */
+    private void execute(Subscriber subscriber, Runnable task) {
+        try {
+            sender.execute(task);
+        } catch (RejectedExecutionException e) {
+            log.warn("Drop point value subscriber of device {}, push workers exhausted", subscriber.deviceId);
+            subscriber.emitter.complete();
+            remove(subscriber);
+        }
+    }
+
+    private void send(Subscriber subscriber) {
+        List<PointValue> pointValues = subscriber.drain();
+        subscriber.sending(Thread.currentThread());
+        try {
+            if (!pointValues.isEmpty()) {
+                subscriber.emitter.send(SseEmitter.event().name(EVENT_NAME).data(pointValues, MediaType.APPLICATION_JSON));
+            }
+        } catch (Exception e) {
+            log.debug("Send point values to subscriber of device {} error: {}", subscriber.deviceId, e.getMessage());
+            subscriber.emitter.completeWithError(e);
+            remove(subscriber);
+        } finally {
+            subscriber.lastSent = System.currentTimeMillis();
+            subscriber.sent();
+            subscriber.scheduled.set(false);
+        }
+
+        // Values arrived while sending, schedule the next push
+        if (!subscriber.pending.isEmpty() && subscriberMap.getOrDefault(subscriber.deviceId, Collections.emptySet()).contains(subscriber)) {
+            schedule(subscriber, System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * 定时发送注释事件, 及时发现已断开的连接
+     */
+    private void heartbeat() {
+        subscriberMap.values().forEach(subscribers -> subscribers.forEach(subscriber -> {
+            if (subscriber.sendingSince > 0 || subscriber.scheduled.get()) {
+                return;
+            }
+            execute(subscriber, () -> {
+                subscriber.sending(Thread.currentThread());
+                try {
+                    subscriber.emitter.send(SseEmitter.event().comment("ping"));
+                } catch (Exception e) {
+                    remove(subscriber);
+                } finally {
+                    subscriber.sent();
+                }
+            });
+        }));
+    }
+
+    /**
+     * 定时断开推送超时的慢消费者, 并中断阻塞在该连接上的推送线程
+     */
+    private void evictSlow() {
+        long now = System.currentTimeMillis();
+        subscriberMap.values().forEach(subscribers -> subscribers.forEach(subscriber -> {
+            if (!subscriber.isSlow(now)) {
+                return;
+            }
+            log.warn("Drop slow point value subscriber of device {}", subscriber.deviceId);
+            remove(subscriber);
+            subscriber.emitter.complete();
+            Thread thread = subscriber.sendingThread;
+            if (ObjectUtil.isNotNull(thread)) {
+                thread.interrupt();
+            }
+        }));
+    }
+
+    private void remove(Subscriber subscriber) {
+        Set<Subscriber> subscribers = subscriberMap.get(subscriber.deviceId);
+        if (ObjectUtil.isNotNull(subscribers) && subscribers.remove(subscriber)) {
+            subscriberCount.decrementAndGet();
+            if (subscribers.isEmpty()) {
+                subscriberMap.remove(subscriber.deviceId, subscribers);
+            }
+        }
+    }
+
+    private static ThreadFactory threadFactory(String name) {
+        AtomicInteger index = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + index.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * 订阅方, 待推送表按位号合并
+     */
+    private class Subscriber {
+        private final String deviceId;
+        private final SseEmitter emitter;
+        private final Set<String> pointIds;
+        private final long interval;
+        private final Map<String, PointValue> pending = new ConcurrentHashMap<>(16);
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+
+        private volatile long lastSent;
+        private volatile long sendingSince;
+        private volatile Thread sendingThread;
+
+        Subscriber(String deviceId, SseEmitter emitter, Set<String> pointIds, long interval) {
+            this.deviceId = deviceId;
+            this.emitter = emitter;
+            this.pointIds = pointIds;
+            this.interval = interval;
+        }
+
+        boolean accept(PointValue pointValue) {
+            if (ObjectUtil.isNull(pointValue.getPointId())) {
+                return false;
+            }
+            if (!pointIds.isEmpty() && !pointIds.contains(pointValue.getPointId())) {
+                return false;
+            }
+            pending.put(pointValue.getPointId(), pointValue);
+            return true;
+        }
+
+        void sending(Thread thread) {
+            sendingThread = thread;
+            sendingSince = System.currentTimeMillis();
+        }
+
+        void sent() {
+            sendingSince = 0;
+            sendingThread = null;
+            // Clear an interrupt from the slow consumer check before the thread takes the next task
+            Thread.interrupted();
+        }
+
+        boolean isSlow(long now) {
+            long since = sendingSince;
+            return since > 0 && now - since > slowTimeout;
+        }
+
+        List<PointValue> drain() {
+            // Remove by key, a value put after the removal waits for the next push
+            List<PointValue> pointValues = new ArrayList<>(pending.size());
+            for (String pointId : pending.keySet()) {
+                PointValue pointValue = pending.remove(pointId);
+                if (ObjectUtil.isNotNull(pointValue)) {
+                    pointValues.add(pointValue);
+                }
+            }
+            return pointValues;
+        }
+    }
+}
@@ -20,28 +20,34 @@ import cn.hutool.core.collection.CollUtil;
 import cn.hutool.core.text.CharSequenceUtil;
 import cn.hutool.core.util.ObjectUtil;
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
+import com.google.common.collect.Lists;
 import io.github.pnoker.api.center.manager.PagePointQueryDTO;
 import io.github.pnoker.api.center.manager.PointApiGrpc;
 import io.github.pnoker.api.center.manager.PointDTO;
 import io.github.pnoker.api.center.manager.RPagePointDTO;
 import io.github.pnoker.api.common.EnableFlagDTOEnum;
 import io.github.pnoker.api.common.PageDTO;
+import io.github.pnoker.center.data.buffer.RealtimeValueCache;
+import io.github.pnoker.center.data.entity.vo.CursorPageVO;
+import io.github.pnoker.center.data.entity.vo.PointValueHistoryVO;
+import io.github.pnoker.center.data.entity.vo.query.PointValueHistoryQuery;
 import io.github.pnoker.center.data.entity.vo.query.PointValuePageQuery;
+import io.github.pnoker.center.data.service.LastValueService;
 import io.github.pnoker.center.data.service.PointValueService;
 import io.github.pnoker.center.data.service.RepositoryHandleService;
+import io.github.pnoker.center.data.service.impl.repository.MongoCollectionResolver;
+import io.github.pnoker.center.data.service.impl.repository.RedisRealtimeStore;
+import io.github.pnoker.center.data.utils.CursorUtil;
 import io.github.pnoker.common.constant.common.DefaultConstant;
-import io.github.pnoker.common.constant.common.PrefixConstant;
-import io.github.pnoker.common.constant.common.SuffixConstant;
-import io.github.pnoker.common.constant.common.SymbolConstant;
-import io.github.pnoker.common.constant.driver.StorageConstant;
 import io.github.pnoker.common.constant.service.ManagerServiceConstant;
 import io.github.pnoker.common.entity.common.Pages;
 import io.github.pnoker.common.entity.point.PointValue;
 import io.github.pnoker.common.utils.FieldUtil;
-import io.github.pnoker.common.utils.RedisUtil;
 import lombok.SneakyThrows;
 import lombok.extern.slf4j.Slf4j;
 import net.devh.boot.grpc.client.inject.GrpcClient;
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.domain.Sort;
 import org.springframework.data.mongodb.core.MongoTemplate;
 import org.springframework.data.mongodb.core.query.Criteria;
@@ -49,10 +55,16 @@ import org.springframework.data.mongodb.core.query.Query;
 import org.springframework.stereotype.Service;
 
 import javax.annotation.Resource;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.stream.Collectors;
 
@@ -64,6 +76,19 @@ import java.util.stream.Collectors;
 @Service
 public class PointValueServiceImpl implements PointValueService {
 
+    private static final String TIME_KEY = "t";
+    private static final String VALUE_KEY = "v";
+
+    /**
+     * 每次聚合查询的最大位号数量, 限制单个聚合中 $unionWith 子管道的数量
+     */
+    private static final int UNION_CHUNK_SIZE = 50;
+
+    @Value("${data.page.count-limit}")
+    private Long countLimit;
+    @Value("${data.point.sava.mongo.last.enable}")
+    private Boolean enableLastValue;
+
     @GrpcClient(ManagerServiceConstant.SERVICE_NAME)
     private PointApiGrpc.PointApiBlockingStub pointApiBlockingStub;
 
@@ -71,10 +96,16 @@ public class PointValueServiceImpl implements PointValueService {
     private RepositoryHandleService repositoryHandleService;
 
     @Resource
-    private RedisUtil redisUtil;
+    private RealtimeValueCache realtimeValueCache;
+    @Resource
+    private RedisRealtimeStore redisRealtimeStore;
+    @Resource
+    private LastValueService lastValueService;
     @Resource
     private MongoTemplate mongoTemplate;
     @Resource
+    private MongoCollectionResolver mongoCollectionResolver;
+    @Resource
     private ThreadPoolExecutor threadPoolExecutor;
 
     @Override
@@ -97,6 +128,16 @@ public class PointValueServiceImpl implements PointValueService {
         repositoryHandleService.save(pointValues);
     }
 
+    @Override
+    public void persistPointValues(List<PointValue> pointValues) throws IOException {
+        if (CollUtil.isEmpty(pointValues)) {
+            return;
+        }
+
+        pointValues.forEach(pointValue -> pointValue.setCreateTime(new Date()));
+        repositoryHandleService.persist(pointValues);
+    }
+
     @Override
     public Page<PointValue> latest(PointValuePageQuery pageQuery) {
         Page<PointValue> pointValuePage = new Page<>();
@@ -122,44 +163,128 @@ public class PointValueServiceImpl implements PointValueService {
         List<PointDTO> points = rPagePointDTO.getData().getDataList();
         List<String> pointIds = points.stream().map(p -> p.getBase().getId()).collect(Collectors.toList());
         List<PointValue> pointValues = realtime(pageQuery.getDeviceId(), pointIds);
-        if (CollUtil.isEmpty(pointValues)) {
-            pointValues = latest(pageQuery.getDeviceId(), pointIds);
+        if (pointValues.size() < pointIds.size()) {
+            // 实时数据缺失的位号从最新值存储中一次查询
+            Set<String> found = pointValues.stream().map(PointValue::getPointId).collect(Collectors.toSet());
+            List<String> missing = pointIds.stream().filter(pointId -> !found.contains(pointId)).collect(Collectors.toList());
+            pointValues = new ArrayList<>(pointValues);
+            pointValues.addAll(latest(pageQuery.getDeviceId(), missing));
         }
         pointValuePage.setCurrent(rPagePointDTO.getData().getPage().getCurrent()).setSize(rPagePointDTO.getData().getPage().getSize()).setTotal(rPagePointDTO.getData().getPage().getTotal()).setRecords(pointValues);
 
-        // 返回最近100个非字符类型的历史值
-        if (Boolean.TRUE.equals(pageQuery.getHistory())) {
-            pointValues.parallelStream().forEach(pointValue -> pointValue.setChildren(historyPointValue(pageQuery.getDeviceId(), pointValue.getPointId(), 100)));
+        // 返回最近100个非字符类型的历史值, 所有位号一次查询
+        if (Boolean.TRUE.equals(pageQuery.getHistory()) && CollUtil.isNotEmpty(pointValues)) {
+            List<String> historyPointIds = pointValues.stream().map(PointValue::getPointId).collect(Collectors.toList());
+            Map<String, List<Document>> recent = recentPointValues(pageQuery.getDeviceId(), historyPointIds, 100);
+            pointValues.forEach(pointValue -> pointValue.setChildren(recent.getOrDefault(pointValue.getPointId(), Collections.emptyList()).stream()
+                    .map(document -> document.get(VALUE_KEY))
+                    .filter(Objects::nonNull)
+                    .map(String::valueOf)
+                    .collect(Collectors.toList())));
         }
 
         return pointValuePage;
     }
 
+    @Override
+    public List<PointValueHistoryVO> history(PointValueHistoryQuery historyQuery) {
+        Map<String, List<Document>> recent = recentPointValues(historyQuery.getDeviceId(), historyQuery.getPointIds(), historyQuery.getCount());
+
+        List<PointValueHistoryVO> historyVOS = new ArrayList<>(historyQuery.getPointIds().size());
+        for (String pointId : historyQuery.getPointIds()) {
+            List<Document> documents = recent.getOrDefault(pointId, Collections.emptyList());
+            long[] times = new long[documents.size()];
+            double[] values = new double[documents.size()];
+            int size = 0;
+            for (Document document : documents) {
+                Object time = document.get(TIME_KEY);
+                Double value = parseDouble(document.get(VALUE_KEY));
+                if (!(time instanceof Date) || ObjectUtil.isNull(value)) {
+                    continue;
+                }
+                times[size] = ((Date) time).getTime();
+                values[size] = value;
+                size++;
+            }
+            historyVOS.add(new PointValueHistoryVO(pointId, Arrays.copyOf(times, size), Arrays.copyOf(values, size)));
+        }
+        return historyVOS;
+    }
+
     @Override
     @SneakyThrows
     public Page<PointValue> list(PointValuePageQuery pageQuery) {
         Page<PointValue> pointValuePage = new Page<>();
         if (ObjectUtil.isEmpty(pageQuery.getPage())) pageQuery.setPage(new Pages());
 
+        Query query = buildQueryByQuery(pageQuery);
+        Pages pages = pageQuery.getPage();
+        final String collection = mongoCollectionResolver.getCollection(pageQuery.getDeviceId());
+        long count = mongoTemplate.count(query, collection);
+        query.limit((int) pages.getSize()).skip(pages.getSize() * (pages.getCurrent() - 1));
+        query.with(Sort.by(Sort.Direction.DESC, FieldUtil.getField(PointValue::getCreateTime)));
+        List<PointValue> pointValues = mongoTemplate.find(query, PointValue.class, collection);
+        pointValuePage.setCurrent(pages.getCurrent()).setSize(pages.getSize()).setTotal(count).setRecords(pointValues);
+        return pointValuePage;
+    }
+
+    @Override
+    public CursorPageVO<PointValue> scroll(PointValuePageQuery pageQuery) {
+        if (ObjectUtil.isEmpty(pageQuery.getPage())) pageQuery.setPage(new Pages());
+
+        Query query = buildQueryByQuery(pageQuery);
+        final String collection = mongoCollectionResolver.getCollection(pageQuery.getDeviceId());
+        final String timeField = FieldUtil.getField(PointValue::getCreateTime);
+        int size = (int) pageQuery.getPage().getSize();
+
+        CursorPageVO<PointValue> cursorPage = new CursorPageVO<>();
+        cursorPage.setSize(size);
+        if (Boolean.TRUE.equals(pageQuery.getEstimateTotal())) {
+            cursorPage.setTotal(CursorUtil.estimateTotal(mongoTemplate, query, collection, countLimit));
+        }
+
+        if (CursorUtil.hasCursor(pageQuery.getCursor())) {
+            CursorUtil.Cursor cursor = CursorUtil.decode(pageQuery.getCursor());
+            query.addCriteria(CursorUtil.after(timeField, new Date(cursor.getTime()), cursor.getId()));
+        }
+        query.with(Sort.by(Sort.Direction.DESC, timeField, CursorUtil.ID_FIELD)).limit(size + 1);
+
+        // 多读一条用于判断是否还有下一页, 读取原始文档以获得 _id
+        List<Document> documents = mongoTemplate.find(query, Document.class, collection);
+        boolean hasNext = documents.size() > size;
+        if (hasNext) {
+            documents = documents.subList(0, size);
+        }
+
+        cursorPage.setRecords(documents.stream()
+                .map(document -> mongoTemplate.getConverter().read(PointValue.class, document))
+                .collect(Collectors.toList()));
+        if (hasNext) {
+            Document last = documents.get(documents.size() - 1);
+            cursorPage.setNext(CursorUtil.encode(last.getDate(timeField).getTime(), last.get(CursorUtil.ID_FIELD)));
+        }
+        return cursorPage;
+    }
+
+    /**
+     * 构造设备、位号和时间范围查询条件
+     *
+     * @param pageQuery PointValuePageQuery
+     * @return Query
+     */
+    private Query buildQueryByQuery(PointValuePageQuery pageQuery) {
         Criteria criteria = new Criteria();
         Query query = new Query(criteria);
         if (CharSequenceUtil.isNotEmpty(pageQuery.getDeviceId()))
-            criteria.and(FieldUtil.getField(PointValue::getDeviceId)).is(pageQuery.getDeviceId());
+            criteria.and(mongoCollectionResolver.getDeviceField()).is(pageQuery.getDeviceId());
         if (CharSequenceUtil.isNotEmpty(pageQuery.getPointId()))
-            criteria.and(FieldUtil.getField(PointValue::getPointId)).is(pageQuery.getPointId());
+            criteria.and(mongoCollectionResolver.getPointField()).is(pageQuery.getPointId());
 
         Pages pages = pageQuery.getPage();
         if (pages.getStartTime() > 0 && pages.getEndTime() > 0 && pages.getStartTime() <= pages.getEndTime()) {
             criteria.and(FieldUtil.getField(PointValue::getCreateTime)).gte(new Date(pages.getStartTime())).lte(new Date(pages.getEndTime()));
         }
-
-        final String collection = CharSequenceUtil.isNotEmpty(pageQuery.getDeviceId()) ? StorageConstant.POINT_VALUE_PREFIX + pageQuery.getDeviceId() : PrefixConstant.POINT + SuffixConstant.VALUE;
-        long count = mongoTemplate.count(query, collection);
-        query.limit((int) pages.getSize()).skip(pages.getSize() * (pages.getCurrent() - 1));
-        query.with(Sort.by(Sort.Direction.DESC, FieldUtil.getField(PointValue::getCreateTime)));
-        List<PointValue> pointValues = mongoTemplate.find(query, PointValue.class, collection);
-        pointValuePage.setCurrent(pages.getCurrent()).setSize(pages.getSize()).setTotal(count).setRecords(pointValues);
-        return pointValuePage;
+        return query;
     }
 
     /**
@@ -189,10 +314,20 @@ public class PointValueServiceImpl implements PointValueService {
             return Collections.emptyList();
         }
 
-        String prefix = PrefixConstant.REAL_TIME_VALUE_KEY_PREFIX + deviceId + SymbolConstant.DOT;
-        List<String> keys = pointIds.stream().map(pointId -> prefix + pointId).collect(Collectors.toList());
-        List<PointValue> pointValues = redisUtil.getKey(keys);
-        return pointValues.stream().filter(Objects::nonNull).collect(Collectors.toList());
+        // 先读进程内缓存, 未命中的位号再从 Redis 读取
+        List<PointValue> pointValues = realtimeValueCache.get(deviceId, pointIds);
+        if (pointValues.size() == pointIds.size()) {
+            return pointValues;
+        }
+
+        Set<String> found = pointValues.stream().map(PointValue::getPointId).collect(Collectors.toSet());
+        List<String> missing = pointIds.stream().filter(pointId -> !found.contains(pointId)).collect(Collectors.toList());
+        List<PointValue> redisPointValues = redisRealtimeStore.get(deviceId, missing);
+        if (pointValues.isEmpty()) {
+            return redisPointValues;
+        }
+        pointValues.addAll(redisPointValues);
+        return pointValues;
     }
 
     public List<PointValue> latest(String deviceId, List<String> pointIds) {
@@ -200,26 +335,112 @@ public class PointValueServiceImpl implements PointValueService {
             return Collections.emptyList();
         }
 
-        return pointIds.stream().map(pointId -> latestPointValue(deviceId, pointId)).filter(Objects::nonNull).collect(Collectors.toList());
+        // 先读最新值存储, 未启用或尚未写入的位号 (如升级后) 再从历史数据一次查询
+        List<PointValue> pointValues = Boolean.TRUE.equals(enableLastValue) ? lastValueService.get(deviceId, pointIds) : Collections.emptyList();
+        if (pointValues.size() == pointIds.size()) {
+            return pointValues;
+        }
+
+        Set<String> found = pointValues.stream().map(PointValue::getPointId).collect(Collectors.toSet());
+        List<String> missing = pointIds.stream().filter(pointId -> !found.contains(pointId)).collect(Collectors.toList());
+        List<PointValue> historyPointValues = latestPointValues(deviceId, missing);
+        if (pointValues.isEmpty()) {
+            return historyPointValues;
+        }
+        pointValues = new ArrayList<>(pointValues);
+        pointValues.addAll(historyPointValues);
+        return pointValues;
     }
 
-    private PointValue latestPointValue(String deviceId, String pointId) {
-        Criteria criteria = new Criteria();
-        Query query = new Query(criteria);
-        criteria.and(FieldUtil.getField(PointValue::getPointId)).is(pointId);
-        query.with(Sort.by(Sort.Direction.DESC, FieldUtil.getField(PointValue::getCreateTime)));
+    /**
+     * 批量查询设备多个位号在历史数据中的最新值
+     * <p>
+     * 位号按 {@link #UNION_CHUNK_SIZE} 分批, 每批一次聚合查询, 每个位号一个 $unionWith 子管道,
+     * 子管道按 (pointId, createTime) 索引倒序读取 1 条。
+     *
+     * @param deviceId 设备ID
+     * @param pointIds 位号ID集合
+     * @return PointValue Array, 不包含没有数据的位号
+     */
+    private List<PointValue> latestPointValues(String deviceId, List<String> pointIds) {
+        if (CollUtil.isEmpty(pointIds)) {
+            return Collections.emptyList();
+        }
 
-        return mongoTemplate.findOne(query, PointValue.class, StorageConstant.POINT_VALUE_PREFIX + deviceId);
+        final String collection = mongoCollectionResolver.getCollection(deviceId);
+        List<PointValue> pointValues = new ArrayList<>(pointIds.size());
+        for (List<String> chunk : Lists.partition(pointIds, UNION_CHUNK_SIZE)) {
+            for (Document document : mongoTemplate.getCollection(collection).aggregate(unionPipeline(collection, deviceId, chunk, 1))) {
+                pointValues.add(mongoTemplate.getConverter().read(PointValue.class, document));
+            }
+        }
+        return pointValues;
     }
 
-    private List<String> historyPointValue(String deviceId, String pointId, int count) {
-        Criteria criteria = new Criteria();
-        Query query = new Query(criteria);
-        criteria.and(FieldUtil.getField(PointValue::getDeviceId)).is(deviceId).and(FieldUtil.getField(PointValue::getPointId)).is(pointId);
-        query.fields().include(FieldUtil.getField(PointValue::getValue)).exclude(FieldUtil.getField(PointValue::getId));
-        query.limit(count).with(Sort.by(Sort.Direction.DESC, FieldUtil.getField(PointValue::getCreateTime)));
+    /**
+     * 批量查询设备多个位号最近的历史值
+     * <p>
+     * 位号按 {@link #UNION_CHUNK_SIZE} 分批, 每批一次聚合查询, 每个位号一个 $unionWith 子管道,
+     * 子管道按 (pointId, createTime) 索引倒序读取 count 条, 最后按位号分组, 每组内按时间倒序。
+     *
+     * @param deviceId 设备ID
+     * @param pointIds 位号ID集合
+     * @param count    每个位号的数量
+     * @return 位号ID -> [{t: createTime, v: value}]
+     */
+    private Map<String, List<Document>> recentPointValues(String deviceId, List<String> pointIds, int count) {
+        if (CollUtil.isEmpty(pointIds) || count <= 0) {
+            return Collections.emptyMap();
+        }
+
+        final String collection = mongoCollectionResolver.getCollection(deviceId);
+        final String timeField = FieldUtil.getField(PointValue::getCreateTime);
+        final String valueField = FieldUtil.getField(PointValue::getValue);
+
+        Map<String, List<Document>> recent = new HashMap<>(pointIds.size());
+        for (List<String> chunk : Lists.partition(pointIds, UNION_CHUNK_SIZE)) {
+            List<Document> pipeline = unionPipeline(collection, deviceId, chunk, count);
+            pipeline.add(new Document("$group", new Document("_id", "$" + mongoCollectionResolver.getPointField())
+                    .append("values", new Document("$push", new Document(TIME_KEY, "$" + timeField).append(VALUE_KEY, "$" + valueField)))));
+
+            for (Document document : mongoTemplate.getCollection(collection).aggregate(pipeline)) {
+                recent.put(String.valueOf(document.get("_id")), document.getList("values", Document.class));
+            }
+        }
+        return recent;
+    }
+
+    private List<Document> unionPipeline(String collection, String deviceId, List<String> pointIds, int count) {
+        List<Document> pipeline = new ArrayList<>(recentStages(deviceId, pointIds.get(0), count));
+        for (int i = 1; i < pointIds.size(); i++) {
+            pipeline.add(new Document("$unionWith", new Document("coll", collection).append("pipeline", recentStages(deviceId, pointIds.get(i), count))));
+        }
+        return pipeline;
+    }
 
-        List<PointValue> pointValues = mongoTemplate.find(query, PointValue.class, StorageConstant.POINT_VALUE_PREFIX + deviceId);
-        return pointValues.stream().map(PointValue::getValue).collect(Collectors.toList());
+    private List<Document> recentStages(String deviceId, String pointId, int count) {
+        Document match = new Document(mongoCollectionResolver.getPointField(), pointId);
+        if (mongoCollectionResolver.isTimeSeries()) {
+            match.append(mongoCollectionResolver.getDeviceField(), deviceId);
+        }
+        return Arrays.asList(
+                new Document("$match", match),
+                new Document("$sort", new Document(FieldUtil.getField(PointValue::getCreateTime), -1)),
+                new Document("$limit", count)
+        );
+    }
+
+    private static Double parseDouble(Object value) {
+        if (value instanceof Number) {
+            return ((Number) value).doubleValue();
+        }
+        if (ObjectUtil.isNull(value)) {
+            return null;
+        }
+        try {
+            return Double.parseDouble(String.valueOf(value));
+        } catch (NumberFormatException e) {
+            return null;
+        }
     }
 }
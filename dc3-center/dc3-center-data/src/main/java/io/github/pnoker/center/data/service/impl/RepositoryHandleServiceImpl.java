@@ -16,133 +16,422 @@
 
 package io.github.pnoker.center.data.service.impl;
 
+import cn.hutool.core.util.ObjectUtil;
+import io.github.pnoker.center.data.buffer.PointValueCompressor;
+import io.github.pnoker.center.data.buffer.RealtimeValueCache;
+import io.github.pnoker.center.data.buffer.RepositoryPipeline;
+import io.github.pnoker.center.data.buffer.SinkMetrics;
+import io.github.pnoker.center.data.buffer.SpillFile;
+import io.github.pnoker.center.data.buffer.SpoolReader;
+import io.github.pnoker.center.data.buffer.WriteAheadSpool;
 import io.github.pnoker.center.data.service.RepositoryHandleService;
 import io.github.pnoker.center.data.service.RepositoryService;
+import io.github.pnoker.center.data.service.impl.repository.LastValueServiceImpl;
+import io.github.pnoker.center.data.service.impl.repository.RollupServiceImpl;
 import io.github.pnoker.center.data.strategy.RepositoryStrategyFactory;
 import io.github.pnoker.common.constant.driver.StrategyConstant;
 import io.github.pnoker.common.entity.point.PointValue;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.env.Environment;
 import org.springframework.stereotype.Service;
 
 import javax.annotation.Resource;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ThreadPoolExecutor;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 
 /**
+ * 实时存储写入全部数据, 其余存储只写入经过 {@link PointValueCompressor} 压缩后的数据。
+ * 默认每个存储服务通过各自的写入管道异步写入;
+ * 启用写前日志后数据先写入本地写前日志, 每个存储服务通过各自的读取方从写前日志读取后写入,
+ * 存储服务不可用期间数据保存在磁盘上, 恢复后继续写入。
+ *
  * @author pnoker
  * @since 2022.1.0
  */
 @Slf4j
 @Service
-public class RepositoryHandleServiceImpl implements RepositoryHandleService {
+public class RepositoryHandleServiceImpl implements RepositoryHandleService, InitializingBean, DisposableBean {
+
+    private static final String PIPELINE_PREFIX = "data.point.pipeline.";
 
     @Value("${data.point.sava.influxdb.enable}")
+    @Setter
     private Boolean enableInfluxdb;
     @Value("${data.point.sava.opentsdb.enable}")
+    @Setter
     private Boolean enableOpentsdb;
     @Value("${data.point.sava.elasticsearch.enable}")
+    @Setter
     private Boolean enableElasticsearch;
+    @Value("${data.point.rollup.enable}")
+    @Setter
+    private Boolean enableRollup;
+    @Value("${data.point.sava.mongo.last.enable}")
+    @Setter
+    private Boolean enableLastValue;
+
+    @Value("${data.point.pipeline.capacity}")
+    @Setter
+    private Integer capacity;
+    @Value("${data.point.pipeline.worker}")
+    @Setter
+    private Integer workerSize;
+    @Value("${data.point.pipeline.batch}")
+    @Setter
+    private Integer batchSize;
+    @Value("${data.point.pipeline.overflow}")
+    @Setter
+    private String overflow;
+    @Value("${data.point.pipeline.spill}")
+    @Setter
+    private String spillPath;
+
+    @Value("${data.point.wal.enable}")
+    @Setter
+    private Boolean enableWal;
+    @Value("${data.point.wal.path}")
+    @Setter
+    private String walPath;
+    @Value("${data.point.wal.segment-size}")
+    @Setter
+    private Integer segmentSize;
+    @Value("${data.point.wal.commit-interval}")
+    @Setter
+    private Long commitInterval;
+    @Value("${data.point.wal.batch}")
+    @Setter
+    private Integer walBatchSize;
+    @Value("${data.point.wal.backoff}")
+    @Setter
+    private Long walBackoff;
 
     @Resource(name = "redisServiceImpl")
+    @Setter
     private RepositoryService redisRepositoryService;
     @Resource(name = "mongoServiceImpl")
+    @Setter
     private RepositoryService mongoRepositoryService;
 
     @Resource
-    private ThreadPoolExecutor threadPoolExecutor;
+    @Setter
+    private PointValueCompressor pointValueCompressor;
+    @Resource
+    @Setter
+    private RealtimeValueCache realtimeValueCache;
+    @Resource
+    @Setter
+    private Environment environment;
+    @Resource
+    @Setter
+    private MeterRegistry meterRegistry;
+
+    private final Map<String, RepositoryPipeline> pipelineMap = new ConcurrentHashMap<>(16);
+    private final Map<String, SpoolReader> spoolReaderMap = new ConcurrentHashMap<>(16);
+
+    private WriteAheadSpool spool;
+    private SinkMetrics mongoMetrics;
+
+    @Override
+    public void afterPropertiesSet() throws IOException {
+        mongoMetrics = new SinkMetrics(meterRegistry, mongoRepositoryService.getRepositoryName());
+        if (Boolean.TRUE.equals(enableWal)) {
+            spool = new WriteAheadSpool(Paths.get(walPath), segmentSize, commitInterval);
+        }
+    }
+
+    @Override
+    public void initial() {
+        if (ObjectUtil.isNull(spool)) {
+            return;
+        }
+
+        getRepositoryServices().forEach(this::getSpoolReader);
+    }
 
     @Override
     public void save(PointValue pointValue) {
-        // 保存单个数据到 Redis & Mongo
-        savePointValueToRepository(pointValue, redisRepositoryService, mongoRepositoryService);
+        save(Collections.singletonList(pointValue));
+    }
 
-        // 保存单个数据到 Influxdb
-        if (Boolean.TRUE.equals(enableInfluxdb)) {
-            // nothing to do
-            RepositoryService repositoryService = RepositoryStrategyFactory.get(StrategyConstant.Storage.INFLUXDB);
-            savePointValueToRepository(pointValue, repositoryService);
+    @Override
+    public void save(List<PointValue> pointValues) {
+        realtimeValueCache.put(pointValues);
+        PointValueCompressor.Batch batch = pointValueCompressor.compress(pointValues);
+        // save 的调用方不会重新投递批次, 压缩后即提交位号状态
+        List<PointValue> history = merge(batch.getHistory(), pointValueCompressor.commit(batch));
+        if (ObjectUtil.isNotNull(spool) && spool(pointValues, history)) {
+            return;
         }
 
-        // 保存单个数据到 Opentsdb
-        if (Boolean.TRUE.equals(enableOpentsdb)) {
-            RepositoryService repositoryService = RepositoryStrategyFactory.get(StrategyConstant.Storage.STRATEGY_OPENTSDB);
-            savePointValueToRepository(pointValue, repositoryService);
+        // 保存批量数据到 Redis, 压缩后的数据到 Mongo & 启用的时序数据库, 由各自的写入管道按设备分组; 写前日志写入失败时同样如此
+        getRepositoryServices().forEach(repositoryService -> getPipeline(repositoryService).offer(isRealtime(repositoryService) ? pointValues : history));
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * 主存储为 Mongo, 按设备依次写入, 部分设备写入成功后失败的批次在重新投递时会产生重复数据。
+     * 失败的批次会被重新投递, 因此写前日志落盘或者主存储写入成功后才提交位号压缩状态。
+     */
+    @Override
+    public void persist(List<PointValue> pointValues) throws IOException {
+        realtimeValueCache.put(pointValues);
+        PointValueCompressor.Batch batch = pointValueCompressor.compress(pointValues);
+        List<PointValue> history = batch.getHistory();
+        if (ObjectUtil.isNotNull(spool)) {
+            // 写前日志落盘后即可确认, 各存储服务由读取方异步写入
+            spool.sync(spool.append(encode(pointValues, history)));
+            List<PointValue> extra = pointValueCompressor.commit(batch);
+            if (!extra.isEmpty() && !spool(Collections.emptyList(), extra)) {
+                getRepositoryServices().stream()
+                        .filter(repositoryService -> !isRealtime(repositoryService))
+                        .forEach(repositoryService -> getPipeline(repositoryService).offer(extra));
+            }
+            return;
         }
 
-        // 保存单个数据到 Elasticsearch
-        if (Boolean.TRUE.equals(enableElasticsearch)) {
-            RepositoryService repositoryService = RepositoryStrategyFactory.get(StrategyConstant.Storage.STRATEGY_ELASTICSEARCH);
-            savePointValueToRepository(pointValue, repositoryService);
+        final Map<String, List<PointValue>> group = history.stream().collect(Collectors.groupingBy(PointValue::getDeviceId));
+
+        // 同步保存压缩后的数据到 Mongo
+        long start = System.nanoTime();
+        try {
+            mongoRepositoryService.savePointValues(group);
+            mongoMetrics.success(history, System.nanoTime() - start);
+        } catch (IOException | RuntimeException e) {
+            mongoMetrics.error(history.size());
+            throw e;
         }
+        // 主存储写入成功后才提交压缩状态, 失败的批次重新投递时按原状态压缩
+        List<PointValue> extra = pointValueCompressor.commit(batch);
+        if (!extra.isEmpty()) {
+            getPipeline(mongoRepositoryService).offer(extra);
+        }
+
+        // 保存批量数据到 Redis, 压缩后的数据到启用的时序数据库
+        List<PointValue> archived = merge(history, extra);
+        getRepositoryServices().stream()
+                .filter(repositoryService -> repositoryService != mongoRepositoryService)
+                .forEach(repositoryService -> getPipeline(repositoryService).offer(isRealtime(repositoryService) ? pointValues : archived));
     }
 
     @Override
-    public void save(List<PointValue> pointValues) {
-        final Map<String, List<PointValue>> group = pointValues.stream().collect(Collectors.groupingBy(PointValue::getDeviceId));
+    public Collection<RepositoryPipeline> getPipelines() {
+        return pipelineMap.values();
+    }
 
-        group.forEach((deviceId, values) -> {
-            // 保存批量数据到 Redis & Mongo
-            savePointValuesToRepository(deviceId, pointValues, redisRepositoryService, mongoRepositoryService);
+    @Override
+    public Collection<SpoolReader> getSpoolReaders() {
+        return spoolReaderMap.values();
+    }
 
-            // 保存批量数据到 Influxdb
-            if (Boolean.TRUE.equals(enableInfluxdb)) {
-                // nothing to do
-                RepositoryService repositoryService = RepositoryStrategyFactory.get(StrategyConstant.Storage.INFLUXDB);
-                savePointValuesToRepository(deviceId, pointValues, repositoryService);
-            }
+    @Override
+    public void destroy() {
+        pipelineMap.values().forEach(pipeline -> pipeline.close(10000));
+        spoolReaderMap.values().forEach(spoolReader -> spoolReader.close(10000));
+        if (ObjectUtil.isNotNull(spool)) {
+            spool.close();
+        }
+    }
 
-            // 保存批量数据到 Opentsdb
-            if (Boolean.TRUE.equals(enableOpentsdb)) {
-                RepositoryService repositoryService = RepositoryStrategyFactory.get(StrategyConstant.Storage.STRATEGY_OPENTSDB);
-                savePointValuesToRepository(deviceId, pointValues, repositoryService);
-            }
+    /**
+     * 写入写前日志, 不等待落盘, 写入失败时由调用方改为交给写入管道
+     *
+     * @param pointValues PointValue Array
+     * @param history     需要写入历史存储的 PointValue Array
+     * @return 是否写入成功
+     */
+    private boolean spool(List<PointValue> pointValues, List<PointValue> history) {
+        // Readers of sinks enabled after startup are created on first use
+        getRepositoryServices().forEach(this::getSpoolReader);
+        try {
+            spool.append(encode(pointValues, history));
+            return true;
+        } catch (IOException e) {
+            log.error("Append {} point values to write ahead spool error, fall back to repository pipelines: {}", pointValues.size(), e.getMessage());
+            return false;
+        }
+    }
 
-            // 保存批量数据到 Elasticsearch
-            if (Boolean.TRUE.equals(enableElasticsearch)) {
-                RepositoryService repositoryService = RepositoryStrategyFactory.get(StrategyConstant.Storage.STRATEGY_ELASTICSEARCH);
-                savePointValuesToRepository(deviceId, pointValues, repositoryService);
-            }
+    /**
+     * 合并压缩结果和提交压缩状态时补充归档的 PointValue
+     *
+     * @param history PointValue Array
+     * @param extra   PointValue Array
+     * @return PointValue Array
+     */
+    private static List<PointValue> merge(List<PointValue> history, List<PointValue> extra) {
+        if (extra.isEmpty()) {
+            return history;
+        }
+        List<PointValue> merged = new ArrayList<>(history.size() + extra.size());
+        merged.addAll(history);
+        merged.addAll(extra);
+        return merged;
+    }
+
+    /**
+     * 编码写前日志记录, 记录首字节标记该值写入实时存储还是历史存储
+     *
+     * @param pointValues PointValue Array
+     * @param history     需要写入历史存储的 PointValue Array
+     * @return Record Array
+     */
+    private List<byte[]> encode(List<PointValue> pointValues, List<PointValue> history) {
+        Set<PointValue> current = Collections.newSetFromMap(new IdentityHashMap<>(pointValues.size()));
+        current.addAll(pointValues);
+        Set<PointValue> archived = Collections.newSetFromMap(new IdentityHashMap<>(history.size()));
+        archived.addAll(history);
+
+        List<byte[]> records = new ArrayList<>(pointValues.size() + history.size());
+        // Values held back from earlier batches by the compressor only go to history
+        history.stream().filter(pointValue -> !current.contains(pointValue))
+                .forEach(pointValue -> records.add(SpoolReader.encode(pointValue, SpoolReader.HISTORY)));
+        pointValues.forEach(pointValue -> records.add(SpoolReader.encode(pointValue,
+                archived.contains(pointValue) ? (byte) (SpoolReader.REALTIME | SpoolReader.HISTORY) : SpoolReader.REALTIME)));
+        return records;
+    }
+
+    /**
+     * 获取存储服务的写前日志读取方, 不存在时创建
+     *
+     * @param repositoryService RepositoryService
+     * @return SpoolReader
+     */
+    private SpoolReader getSpoolReader(RepositoryService repositoryService) {
+        return spoolReaderMap.computeIfAbsent(repositoryService.getRepositoryName(), name -> {
+            SpoolReader spoolReader = new SpoolReader(repositoryService, spool.cursor(name), isRealtime(repositoryService), walBatchSize, walBackoff, new SinkMetrics(meterRegistry, name));
+            Gauge.builder("dc3.point.sink.spool.pending", spoolReader, SpoolReader::getPending)
+                    .description("Write ahead spool bytes not yet written to the sink")
+                    .tag("sink", name)
+                    .baseUnit("bytes")
+                    .register(meterRegistry);
+            return spoolReader;
         });
     }
 
     /**
-     * 保存 PointValue 到指定存储服务
+     * 是否写入全部数据, 实时存储、最新值和连续聚合写入全部数据, 其余存储只写入压缩后的数据
+     *
+     * @param repositoryService RepositoryService
+     * @return boolean
+     */
+    private boolean isRealtime(RepositoryService repositoryService) {
+        String name = repositoryService.getRepositoryName();
+        return repositoryService == redisRepositoryService || LastValueServiceImpl.LAST.equals(name) || RollupServiceImpl.ROLLUP.equals(name);
+    }
+
+    /**
+     * 获取启用的存储服务
      *
-     * @param pointValue         PointValue
-     * @param repositoryServices RepositoryService Array
+     * @return RepositoryService Array
      */
-    private void savePointValueToRepository(PointValue pointValue, RepositoryService... repositoryServices) {
-        for (RepositoryService repositoryService : repositoryServices) {
-            threadPoolExecutor.execute(() -> {
-                try {
-                    repositoryService.savePointValue(pointValue);
-                } catch (Exception e) {
-                    log.error("Save point value to {} error {}", repositoryService.getRepositoryName(), e.getMessage());
-                }
-            });
+    private List<RepositoryService> getRepositoryServices() {
+        List<RepositoryService> repositoryServices = new ArrayList<>(5);
+        repositoryServices.add(redisRepositoryService);
+        repositoryServices.add(mongoRepositoryService);
+
+        if (Boolean.TRUE.equals(enableInfluxdb)) {
+            repositoryServices.add(RepositoryStrategyFactory.get(StrategyConstant.Storage.INFLUXDB));
+        }
+        if (Boolean.TRUE.equals(enableOpentsdb)) {
+            repositoryServices.add(RepositoryStrategyFactory.get(StrategyConstant.Storage.STRATEGY_OPENTSDB));
         }
+        if (Boolean.TRUE.equals(enableElasticsearch)) {
+            repositoryServices.add(RepositoryStrategyFactory.get(StrategyConstant.Storage.STRATEGY_ELASTICSEARCH));
+        }
+        if (Boolean.TRUE.equals(enableLastValue)) {
+            repositoryServices.add(RepositoryStrategyFactory.get(LastValueServiceImpl.LAST));
+        }
+        if (Boolean.TRUE.equals(enableRollup)) {
+            repositoryServices.add(RepositoryStrategyFactory.get(RollupServiceImpl.ROLLUP));
+        }
+        return repositoryServices.stream().filter(ObjectUtil::isNotNull).collect(Collectors.toList());
+    }
 
+    /**
+     * 获取存储服务的写入管道, 不存在时创建
+     *
+     * @param repositoryService RepositoryService
+     * @return RepositoryPipeline
+     */
+    private RepositoryPipeline getPipeline(RepositoryService repositoryService) {
+        return pipelineMap.computeIfAbsent(repositoryService.getRepositoryName(), name -> createPipeline(repositoryService));
     }
 
     /**
-     * 保存 PointValues 到指定存储服务
+     * 创建写入管道, 支持通过 data.point.pipeline.[存储名称].* 覆盖默认配置
      *
-     * @param deviceId           设备ID
-     * @param pointValues        PointValue Array
-     * @param repositoryServices RepositoryService Array
+     * @param repositoryService RepositoryService
+     * @return RepositoryPipeline
      */
-    private void savePointValuesToRepository(String deviceId, List<PointValue> pointValues, RepositoryService... repositoryServices) {
-        for (RepositoryService repositoryService : repositoryServices) {
-            threadPoolExecutor.execute(() -> {
-                try {
-                    repositoryService.savePointValues(deviceId, pointValues);
-                } catch (Exception e) {
-                    log.error("Save point values to {} error {}", repositoryService.getRepositoryName(), e.getMessage());
-                }
-            });
+    private RepositoryPipeline createPipeline(RepositoryService repositoryService) {
+        String name = repositoryService.getRepositoryName();
+        String prefix = PIPELINE_PREFIX + name + ".";
+        int pipelineCapacity = environment.getProperty(prefix + "capacity", Integer.class, capacity);
+        int pipelineWorkerSize = environment.getProperty(prefix + "worker", Integer.class, workerSize);
+        int pipelineBatchSize = environment.getProperty(prefix + "batch", Integer.class, batchSize);
+        RepositoryPipeline.Overflow pipelineOverflow = RepositoryPipeline.Overflow.valueOf(environment.getProperty(prefix + "overflow", overflow).toUpperCase());
+
+        SpillFile spillFile = null;
+        if (pipelineOverflow == RepositoryPipeline.Overflow.SPILL) {
+            try {
+                spillFile = new SpillFile(Paths.get(spillPath, name + ".spill"));
+            } catch (IOException e) {
+                log.error("Create spill file of {} error, overflow values will be dropped: {}", name, e.getMessage());
+            }
         }
+
+        log.info("Create repository pipeline {}, capacity: {}, worker: {}, batch: {}, overflow: {}", name, pipelineCapacity, pipelineWorkerSize, pipelineBatchSize, pipelineOverflow);
+        RepositoryPipeline pipeline = new RepositoryPipeline(repositoryService, pipelineCapacity, pipelineWorkerSize, pipelineBatchSize, pipelineOverflow, spillFile, new SinkMetrics(meterRegistry, name));
+        bindPipelineMetrics(pipeline);
+        return pipeline;
+    }
+
+    /**
+     * 注册写入管道的队列深度、延迟、丢弃和溢出指标
+     *
+     * @param pipeline RepositoryPipeline
+     */
+    private void bindPipelineMetrics(RepositoryPipeline pipeline) {
+        Tags tags = Tags.of("sink", pipeline.getName());
+        Gauge.builder("dc3.point.sink.queue", pipeline, RepositoryPipeline::getQueueSize)
+                .description("Point values waiting in the sink pipeline")
+                .tags(tags)
+                .register(meterRegistry);
+        Gauge.builder("dc3.point.sink.lag", pipeline, RepositoryPipeline::getLag)
+                .description("Milliseconds the oldest queued point value has waited")
+                .tags(tags)
+                .baseUnit("milliseconds")
+                .register(meterRegistry);
+        Gauge.builder("dc3.point.sink.spill.pending", pipeline, RepositoryPipeline::getSpillPending)
+                .description("Spill file bytes not yet replayed")
+                .tags(tags)
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        FunctionCounter.builder("dc3.point.sink.dropped", pipeline, RepositoryPipeline::getDropped)
+                .description("Point values dropped by the sink pipeline")
+                .tags(tags)
+                .register(meterRegistry);
+        FunctionCounter.builder("dc3.point.sink.spilled", pipeline, RepositoryPipeline::getSpilled)
+                .description("Point values spilled to disk by the sink pipeline")
+                .tags(tags)
+                .register(meterRegistry);
     }
 }
@@ -18,10 +18,13 @@ package io.github.pnoker.center.data.service.impl.repository;
 
 import cn.hutool.core.text.CharSequenceUtil;
 import cn.hutool.core.util.ObjectUtil;
+import co.elastic.clients.elasticsearch.ElasticsearchAsyncClient;
 import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch._types.ElasticsearchException;
+import co.elastic.clients.elasticsearch._types.Time;
+import co.elastic.clients.elasticsearch._types.mapping.DynamicMapping;
 import co.elastic.clients.elasticsearch.core.BulkRequest;
 import co.elastic.clients.elasticsearch.core.BulkResponse;
-import co.elastic.clients.elasticsearch.core.IndexRequest;
 import co.elastic.clients.elasticsearch.core.bulk.BulkResponseItem;
 import io.github.pnoker.center.data.service.RepositoryService;
 import io.github.pnoker.center.data.strategy.RepositoryStrategyFactory;
@@ -29,26 +32,83 @@ import io.github.pnoker.common.constant.driver.StorageConstant;
 import io.github.pnoker.common.constant.driver.StrategyConstant;
 import io.github.pnoker.common.entity.point.EsPointValue;
 import io.github.pnoker.common.entity.point.PointValue;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.AllArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.stereotype.Service;
 
 import javax.annotation.Resource;
 import java.io.IOException;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 
 /**
+ * Elasticsearch 存储服务
+ * <p>
+ * 数据先进入本地批次, 达到条数或时间间隔后通过异步客户端批量写入, 同时发送中的批次数受限;
+ * 批次中因限流或服务端错误失败的条目按指数退避延迟后重新放入批次重试。
+ * 启用写前日志时同步写入, 失败时抛出异常, 由写前日志读取方重新读取后重试。
+ * 数据写入按日期滚动的索引, 索引由统一的模板管理。
+ *
  * @author pnoker
  * @since 2022.1.0
  */
 @Slf4j
 @Service
 @ConditionalOnProperty(name = "data.point.sava.elasticsearch.enable", havingValue = "true")
-public class ElasticsearchServiceImpl implements RepositoryService, InitializingBean {
+public class ElasticsearchServiceImpl implements RepositoryService, InitializingBean, DisposableBean {
+
+    @Value("${data.point.sava.elasticsearch.bulk-actions}")
+    private Integer bulkActions;
+    @Value("${data.point.sava.elasticsearch.flush-interval}")
+    private Long flushInterval;
+    @Value("${data.point.sava.elasticsearch.max-concurrent}")
+    private Integer maxConcurrent;
+    @Value("${data.point.sava.elasticsearch.max-retries}")
+    private Integer maxRetries;
+    @Value("${data.point.sava.elasticsearch.retry-backoff}")
+    private Long retryBackoff;
+    @Value("${data.point.sava.elasticsearch.index-pattern}")
+    private String indexPattern;
+    @Value("${data.point.sava.elasticsearch.shards}")
+    private Integer shards;
+    @Value("${data.point.sava.elasticsearch.replicas}")
+    private Integer replicas;
+    @Value("${data.point.sava.elasticsearch.refresh-interval}")
+    private String refreshInterval;
+    @Value("${data.point.wal.enable}")
+    private Boolean enableWal;
 
     @Resource
     private ElasticsearchClient elasticsearchClient;
+    @Resource
+    private ElasticsearchAsyncClient elasticsearchAsyncClient;
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    private DateTimeFormatter indexFormatter;
+    private Semaphore inFlight;
+    private ScheduledExecutorService flushExecutor;
+    private Counter retryCounter;
+    private Counter lostCounter;
+
+    private List<Operation> operations = new ArrayList<>();
 
     @Override
     public String getRepositoryName() {
@@ -61,12 +121,7 @@ public class ElasticsearchServiceImpl implements RepositoryService, Initializing
             return;
         }
 
-        final String index = StorageConstant.POINT_VALUE_PREFIX + pointValue.getDeviceId();
-        IndexRequest<EsPointValue> indexRequest = new IndexRequest.Builder<EsPointValue>()
-                .index(index)
-                .document(new EsPointValue(pointValue))
-                .build();
-        elasticsearchClient.index(indexRequest);
+        savePointValues(pointValue.getDeviceId(), Collections.singletonList(pointValue));
     }
 
     @Override
@@ -75,31 +130,281 @@ public class ElasticsearchServiceImpl implements RepositoryService, Initializing
             return;
         }
 
-        final String index = StorageConstant.POINT_VALUE_PREFIX + deviceId;
-        BulkRequest.Builder bulkRequestBuilder = new BulkRequest.Builder();
+        List<Operation> pending = new ArrayList<>(pointValues.size());
+        addOperations(pointValues, pending);
+        if (Boolean.TRUE.equals(enableWal)) {
+            bulkBlocking(pending);
+            return;
+        }
+        add(pending);
+    }
+
+    @Override
+    public void savePointValues(Map<String, List<PointValue>> group) throws IOException {
+        if (!Boolean.TRUE.equals(enableWal)) {
+            RepositoryService.super.savePointValues(group);
+            return;
+        }
+
+        // All devices of the batch in one blocking bulk request
+        List<Operation> pending = new ArrayList<>();
+        group.forEach((deviceId, pointValues) -> {
+            if (CharSequenceUtil.isNotEmpty(deviceId)) {
+                addOperations(pointValues, pending);
+            }
+        });
+        bulkBlocking(pending);
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        retryCounter = meterRegistry.counter("dc3.point.sink.retries", "sink", getRepositoryName());
+        lostCounter = meterRegistry.counter("dc3.point.sink.lost", "sink", getRepositoryName());
+        indexFormatter = DateTimeFormatter.ofPattern(indexPattern).withZone(ZoneId.systemDefault());
+        inFlight = new Semaphore(maxConcurrent);
+        putIndexTemplate();
+
+        flushExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "elasticsearch-bulk");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flushExecutor.scheduleWithFixedDelay(this::flush, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+
+        RepositoryStrategyFactory.put(StrategyConstant.Storage.STRATEGY_ELASTICSEARCH, this);
+    }
+
+    @Override
+    public void destroy() throws InterruptedException {
+        flushExecutor.shutdownNow();
+        flush();
+        // Wait for in-flight bulk requests to complete
+        if (inFlight.tryAcquire(maxConcurrent, flushInterval * 10, TimeUnit.MILLISECONDS)) {
+            inFlight.release(maxConcurrent);
+        }
+    }
+
+    /**
+     * 获取 PointValue 所在的索引, 按采集时间滚动
+     *
+     * @param pointValue PointValue
+     * @return Index Name
+     */
+    private String getIndex(PointValue pointValue) {
+        Instant instant = ObjectUtil.isNotNull(pointValue.getOriginTime()) ? pointValue.getOriginTime().toInstant() : Instant.now();
+        return StorageConstant.POINT_VALUE_PREFIX + indexFormatter.format(instant);
+    }
+
+    /**
+     * 创建或更新滚动索引的模板: 不做动态映射, ID 和值不做分词, 时间字段为 date
+     * <p>
+     * value 保留 keyword 类型, 另有 value.number 数值子字段用于范围查询和聚合,
+     * 非数值的值忽略该子字段; 模板只对之后新建的滚动索引生效。
+     */
+    private void putIndexTemplate() {
+        try {
+            elasticsearchClient.indices().putIndexTemplate(template -> template
+                    .name(StorageConstant.POINT_VALUE_PREFIX + "template")
+                    .indexPatterns(StorageConstant.POINT_VALUE_PREFIX + "*")
+                    .template(builder -> builder
+                            .settings(settings -> settings
+                                    .numberOfShards(String.valueOf(shards))
+                                    .numberOfReplicas(String.valueOf(replicas))
+                                    .refreshInterval(Time.of(time -> time.time(refreshInterval)))
+                            )
+                            .mappings(mappings -> mappings
+                                    .dynamic(DynamicMapping.False)
+                                    .properties("deviceId", property -> property.keyword(keyword -> keyword))
+                                    .properties("pointId", property -> property.keyword(keyword -> keyword))
+                                    .properties("rawValue", property -> property.keyword(keyword -> keyword.index(false)))
+                                    .properties("value", property -> property.keyword(keyword -> keyword
+                                            .fields("number", field -> field.double_(number -> number.ignoreMalformed(true)))
+                                    ))
+                                    .properties("originTime", property -> property.date(date -> date))
+                                    .properties("createTime", property -> property.date(date -> date))
+                            )
+                    )
+            );
+        } catch (Exception e) {
+            log.error("Put elasticsearch point value index template error: {}", e.getMessage(), e);
+        }
+    }
+
+    private void addOperations(List<PointValue> pointValues, List<Operation> pending) {
         pointValues.stream()
                 .filter(pointValue -> CharSequenceUtil.isNotEmpty(pointValue.getPointId()))
-                .forEach(pointValue -> bulkRequestBuilder.operations(operation -> operation
-                        .index(builder -> builder
-                                .index(index)
-                                .document(new EsPointValue(pointValue))
-                        )
-                ));
-
-        BulkResponse response = elasticsearchClient.bulk(bulkRequestBuilder.build());
+                .forEach(pointValue -> pending.add(new Operation(getIndex(pointValue), new EsPointValue(pointValue), 0)));
+    }
+
+    /**
+     * 添加到当前批次, 达到批次条数时立即发送
+     *
+     * @param pending Operation Array
+     */
+    private void add(List<Operation> pending) {
+        List<Operation> full = null;
+        synchronized (this) {
+            operations.addAll(pending);
+            if (operations.size() >= bulkActions) {
+                full = operations;
+                operations = new ArrayList<>(bulkActions);
+            }
+        }
+
+        if (ObjectUtil.isNotNull(full)) {
+            bulk(full);
+        }
+    }
+
+    /**
+     * 发送当前批次
+     */
+    private void flush() {
+        List<Operation> current;
+        synchronized (this) {
+            if (operations.isEmpty()) {
+                return;
+            }
+            current = operations;
+            operations = new ArrayList<>(bulkActions);
+        }
+        bulk(current);
+    }
+
+    /**
+     * 异步发送一个批次, 同时发送中的批次达到上限时阻塞调用方
+     *
+     * @param current Operation Array
+     */
+    private void bulk(List<Operation> current) {
+        try {
+            inFlight.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.error("Send pointValues to elasticsearch interrupted, {} lost", current.size());
+            return;
+        }
+
+        elasticsearchAsyncClient.bulk(bulkRequest(current)).whenComplete((response, throwable) -> {
+            inFlight.release();
+            if (ObjectUtil.isNotNull(throwable)) {
+                log.error("Send pointValues to elasticsearch error: {}", throwable.getMessage());
+                retry(current);
+                return;
+            }
+            if (response.errors()) {
+                retry(getFailedOperations(current, response));
+            }
+        });
+    }
+
+    /**
+     * 同步发送一个批次, 有可以重试的失败条目时抛出异常
+     *
+     * @param current Operation Array
+     * @throws IOException 发送失败或者有条目因限流、服务端错误失败
+     */
+    private void bulkBlocking(List<Operation> current) throws IOException {
+        if (current.isEmpty()) {
+            return;
+        }
+
+        BulkResponse response;
+        try {
+            response = elasticsearchClient.bulk(bulkRequest(current));
+        } catch (ElasticsearchException e) {
+            throw new IOException("Send pointValues to elasticsearch error: " + e.getMessage(), e);
+        }
         if (response.errors()) {
-            for (BulkResponseItem item : response.items()) {
-                if (ObjectUtil.isNotNull(item.error())) {
-                    // todo 存在没有保存成功的数据怎么办
-                    log.error("Send pointValues to elasticsearch error: {}", item.error().reason());
-                }
+            List<Operation> failed = getFailedOperations(current, response);
+            if (!failed.isEmpty()) {
+                throw new IOException("Send pointValues to elasticsearch failed, " + failed.size() + " of " + current.size() + " operations can be retried");
             }
         }
     }
 
-    @Override
-    public void afterPropertiesSet() {
-        RepositoryStrategyFactory.put(StrategyConstant.Storage.STRATEGY_ELASTICSEARCH, this);
+    private BulkRequest bulkRequest(List<Operation> current) {
+        BulkRequest.Builder bulkRequestBuilder = new BulkRequest.Builder();
+        current.forEach(operation -> bulkRequestBuilder.operations(builder -> builder
+                .index(index -> index
+                        .index(operation.index)
+                        .document(operation.document)
+                )
+        ));
+        return bulkRequestBuilder.build();
+    }
+
+    /**
+     * 获取批次中失败且可以重试的条目, 批次响应中的条目和请求中的条目顺序一致
+     *
+     * @param current  Operation Array
+     * @param response BulkResponse
+     * @return Operation Array
+     */
+    private List<Operation> getFailedOperations(List<Operation> current, BulkResponse response) {
+        List<Operation> failed = new ArrayList<>();
+        List<BulkResponseItem> items = response.items();
+        for (int i = 0; i < items.size(); i++) {
+            BulkResponseItem item = items.get(i);
+            if (ObjectUtil.isNull(item.error())) {
+                continue;
+            }
+
+            // Only throttling and server errors are worth retrying, mapping errors would fail again
+            if (item.status() == 429 || item.status() >= 500) {
+                failed.add(current.get(i));
+            } else {
+                log.error("Send pointValue to elasticsearch rejected: {}", item.error().reason());
+            }
+        }
+        return failed;
+    }
+
+    /**
+     * 将失败的条目延迟后重新放入批次, 第 n 次重试延迟 retryBackoff * 2^(n-1) 毫秒, 超过最大重试次数的条目丢弃
+     *
+     * @param failed Operation Array
+     */
+    private void retry(List<Operation> failed) {
+        Map<Integer, List<Operation>> pending = new TreeMap<>();
+        int lost = 0;
+        for (Operation operation : failed) {
+            if (operation.attempt >= maxRetries) {
+                lost++;
+                continue;
+            }
+            pending.computeIfAbsent(operation.attempt + 1, attempt -> new ArrayList<>())
+                    .add(new Operation(operation.index, operation.document, operation.attempt + 1));
+        }
+
+        if (lost > 0) {
+            lostCounter.increment(lost);
+            log.error("Send pointValues to elasticsearch failed after {} retries, {} lost", maxRetries, lost);
+        }
+        pending.forEach((attempt, retries) -> {
+            retryCounter.increment(retries.size());
+            try {
+                flushExecutor.schedule(() -> requeue(retries), retryBackoff << (attempt - 1), TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                // Shutting down, nothing will flush the retries any more
+                lostCounter.increment(retries.size());
+                log.error("Send pointValues to elasticsearch stopped, {} retries lost", retries.size());
+            }
+        });
+    }
+
+    private synchronized void requeue(List<Operation> retries) {
+        operations.addAll(retries);
+    }
+
+    /**
+     * 批次中的单条写入操作
+     */
+    @AllArgsConstructor
+    private static class Operation {
+        private final String index;
+        private final EsPointValue document;
+        private final int attempt;
     }
 
 }
\ No newline at end of file
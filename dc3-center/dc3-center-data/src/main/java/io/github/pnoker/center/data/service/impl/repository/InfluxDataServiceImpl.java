@@ -5,14 +5,20 @@ import com.influxdb.client.BucketsApi;
 import com.influxdb.client.InfluxDBClient;
 import com.influxdb.client.WriteApi;
 import com.influxdb.client.WriteApiBlocking;
+import com.influxdb.client.WriteOptions;
 import com.influxdb.client.domain.Bucket;
 import com.influxdb.client.domain.WritePrecision;
+import com.influxdb.client.write.events.BackpressureEvent;
+import com.influxdb.client.write.events.WriteErrorEvent;
+import com.influxdb.client.write.events.WriteRetriableErrorEvent;
+import com.influxdb.exceptions.InfluxException;
 import io.github.pnoker.center.data.service.RepositoryService;
 import io.github.pnoker.center.data.strategy.RepositoryStrategyFactory;
 import io.github.pnoker.common.constant.driver.StrategyConstant;
 import io.github.pnoker.common.entity.point.InfluxPoint;
 import io.github.pnoker.common.entity.point.PointValue;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
@@ -20,13 +26,27 @@ import org.springframework.stereotype.Service;
 
 import javax.annotation.Resource;
 import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 
+/**
+ * Influxdb 存储服务
+ * <p>
+ * 使用一个常驻的非阻塞 WriteApi, 由客户端按批量大小和刷新间隔异步写入, 失败时按退避策略重试;
+ * 启用写前日志时改用阻塞写入, 写入成功后才返回, 失败时抛出异常, 写前日志读取方据此决定是否提交读取位置
+ *
+ * @author pnoker
+ * @since 2022.1.0
+ */
 @Slf4j
 @Service
 @ConditionalOnProperty(name = "data.point.sava.influxdb.enable", havingValue = "true")
-public class InfluxDataServiceImpl implements RepositoryService, InitializingBean {
+public class InfluxDataServiceImpl implements RepositoryService, InitializingBean, DisposableBean {
 
     @Resource
     private InfluxDBClient influxDBClient;
@@ -37,6 +57,28 @@ public class InfluxDataServiceImpl implements RepositoryService, InitializingBea
     @Value("${influx.org}")
     private String organization;
 
+    @Value("${data.point.sava.influxdb.batch-size}")
+    private Integer batchSize;
+    @Value("${data.point.sava.influxdb.flush-interval}")
+    private Integer flushInterval;
+    @Value("${data.point.sava.influxdb.jitter-interval}")
+    private Integer jitterInterval;
+    @Value("${data.point.sava.influxdb.retry-interval}")
+    private Integer retryInterval;
+    @Value("${data.point.sava.influxdb.max-retries}")
+    private Integer maxRetries;
+    @Value("${data.point.sava.influxdb.max-retry-delay}")
+    private Integer maxRetryDelay;
+    @Value("${data.point.sava.influxdb.buffer-limit}")
+    private Integer bufferLimit;
+    @Value("${data.point.wal.enable}")
+    private Boolean enableWal;
+
+    private WriteApi writeApi;
+    private WriteApiBlocking writeApiBlocking;
+
+    private final Set<String> knownBuckets = ConcurrentHashMap.newKeySet();
+
     @Override
     public String getRepositoryName() {
         return StrategyConstant.Storage.INFLUXDB;
@@ -47,17 +89,7 @@ public class InfluxDataServiceImpl implements RepositoryService, InitializingBea
         if (!CharSequenceUtil.isAllNotEmpty(pointValue.getDeviceId(), pointValue.getPointId())) {
             return;
         }
-        ensurePointValueBucket();
-        WriteApiBlocking writeApiBlocking = influxDBClient.getWriteApiBlocking();
-        writeApiBlocking.writeMeasurement(WritePrecision.MS, new InfluxPoint(pointValue));
-    }
-
-    private void ensurePointValueBucket() {
-        BucketsApi bucketsApi = influxDBClient.getBucketsApi();
-        Bucket bucket = bucketsApi.findBucketByName(bucketName);
-        if (null == bucket) {
-            bucketsApi.createBucket(bucketName, organization);
-        }
+        write(Collections.singletonList(new InfluxPoint(pointValue)));
     }
 
     @Override
@@ -65,14 +97,92 @@ public class InfluxDataServiceImpl implements RepositoryService, InitializingBea
         if (CharSequenceUtil.isEmpty(deviceId)) {
             return;
         }
-        ensurePointValueBucket();
-        WriteApi writeApi = influxDBClient.makeWriteApi();
-        writeApi.writeMeasurements(WritePrecision.MS, pointValues.stream().map(InfluxPoint::new).collect(Collectors.toList()));
-        writeApi.flush();
+        write(pointValues.stream().map(InfluxPoint::new).collect(Collectors.toList()));
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * 全部设备的数据合并为一次写入
+     */
+    @Override
+    public void savePointValues(Map<String, List<PointValue>> group) throws IOException {
+        write(group.entrySet().stream()
+                .filter(entry -> CharSequenceUtil.isNotEmpty(entry.getKey()))
+                .map(Map.Entry::getValue)
+                .flatMap(Collection::stream)
+                .map(InfluxPoint::new)
+                .collect(Collectors.toList()));
     }
 
     @Override
     public void afterPropertiesSet() throws Exception {
         RepositoryStrategyFactory.put(StrategyConstant.Storage.INFLUXDB, this);
+        if (Boolean.TRUE.equals(enableWal)) {
+            writeApiBlocking = influxDBClient.getWriteApiBlocking();
+            return;
+        }
+
+        WriteOptions writeOptions = WriteOptions.builder()
+                .batchSize(batchSize)
+                .flushInterval(flushInterval)
+                .jitterInterval(jitterInterval)
+                .retryInterval(retryInterval)
+                .maxRetries(maxRetries)
+                .maxRetryDelay(maxRetryDelay)
+                .exponentialBase(2)
+                .bufferLimit(bufferLimit)
+                .build();
+        writeApi = influxDBClient.makeWriteApi(writeOptions);
+        writeApi.listenEvents(WriteErrorEvent.class, event -> log.error("Send pointValues to influxdb error: {}", event.getThrowable().getMessage()));
+        writeApi.listenEvents(WriteRetriableErrorEvent.class, event -> log.warn("Send pointValues to influxdb error, retry in {} ms: {}", event.getRetryInterval(), event.getThrowable().getMessage()));
+        writeApi.listenEvents(BackpressureEvent.class, event -> log.warn("Send pointValues to influxdb backpressure, buffer limit {} reached", bufferLimit));
+    }
+
+    @Override
+    public void destroy() {
+        // Close flushes the points still buffered in the write api
+        if (null != writeApi) {
+            writeApi.close();
+        }
+    }
+
+    /**
+     * 写入 Influxdb, 启用写前日志时阻塞到写入完成
+     *
+     * @param influxPoints InfluxPoint Array
+     * @throws IOException 阻塞写入失败
+     */
+    private void write(List<InfluxPoint> influxPoints) throws IOException {
+        if (influxPoints.isEmpty()) {
+            return;
+        }
+
+        try {
+            ensurePointValueBucket();
+            if (null != writeApiBlocking) {
+                writeApiBlocking.writeMeasurements(WritePrecision.MS, influxPoints);
+                return;
+            }
+            writeApi.writeMeasurements(WritePrecision.MS, influxPoints);
+        } catch (InfluxException e) {
+            throw new IOException("Write point values to influxdb error: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 确保 Bucket 已创建, 已确认存在的 Bucket 不再查询
+     */
+    private void ensurePointValueBucket() {
+        if (knownBuckets.contains(bucketName)) {
+            return;
+        }
+
+        BucketsApi bucketsApi = influxDBClient.getBucketsApi();
+        Bucket bucket = bucketsApi.findBucketByName(bucketName);
+        if (null == bucket) {
+            bucketsApi.createBucket(bucketName, organization);
+        }
+        knownBuckets.add(bucketName);
     }
 }
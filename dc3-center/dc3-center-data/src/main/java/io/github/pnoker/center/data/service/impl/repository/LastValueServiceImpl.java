@@ -0,0 +1,203 @@
+/*
+ * Copyright 2016-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.pnoker.center.data.service.impl.repository;
+
+import cn.hutool.core.collection.CollUtil;
+import cn.hutool.core.text.CharSequenceUtil;
+import io.github.pnoker.center.data.service.LastValueService;
+import io.github.pnoker.center.data.service.RepositoryService;
+import io.github.pnoker.center.data.strategy.RepositoryStrategyFactory;
+import io.github.pnoker.common.constant.common.SymbolConstant;
+import io.github.pnoker.common.entity.point.MgPointValue;
+import io.github.pnoker.common.entity.point.PointValue;
+import io.github.pnoker.common.utils.FieldUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.FindAndReplaceOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.util.CloseableIterator;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Point Value 最新值存储
+ * <p>
+ * 每个位号一个文档, _id 为 设备ID.位号ID, 写入时只有比已保存值更新的值才会覆盖,
+ * 查询一个设备的多个位号只需要一次 _id 查询。
+ *
+ * @author pnoker
+ * @since 2022.1.0
+ */
+@Slf4j
+@Service
+public class LastValueServiceImpl implements RepositoryService, LastValueService, InitializingBean {
+
+    public static final String LAST = "last";
+
+    private static final int DUPLICATE_KEY = 11000;
+
+    @Value("${data.point.sava.mongo.last.collection}")
+    private String collection;
+    @Value("${data.point.sava.mongo.last.warm-batch}")
+    private Integer warmBatch;
+
+    @Resource
+    private MongoTemplate mongoTemplate;
+    @Resource
+    private RedisRealtimeStore redisRealtimeStore;
+
+    @Override
+    public String getRepositoryName() {
+        return LAST;
+    }
+
+    @Override
+    public void savePointValue(PointValue pointValue) {
+        if (!CharSequenceUtil.isAllNotEmpty(pointValue.getDeviceId(), pointValue.getPointId())) {
+            return;
+        }
+
+        savePointValues(pointValue.getDeviceId(), Collections.singletonList(pointValue));
+    }
+
+    @Override
+    public void savePointValues(String deviceId, List<PointValue> pointValues) {
+        if (CharSequenceUtil.isEmpty(deviceId)) {
+            return;
+        }
+
+        savePointValues(Collections.singletonMap(deviceId, pointValues));
+    }
+
+    @Override
+    public void savePointValues(Map<String, List<PointValue>> group) {
+        // Only the newest value of each point in the batch is written
+        Map<String, PointValue> latest = new LinkedHashMap<>(64);
+        group.forEach((deviceId, pointValues) -> pointValues.stream()
+                .filter(pointValue -> CharSequenceUtil.isNotEmpty(pointValue.getPointId()))
+                .forEach(pointValue -> latest.merge(getId(deviceId, pointValue.getPointId()), pointValue,
+                        (previous, current) -> getTime(current) >= getTime(previous) ? current : previous)));
+        if (latest.isEmpty()) {
+            return;
+        }
+
+        BulkOperations bulkOperations = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, collection);
+        latest.forEach((id, pointValue) -> bulkOperations.replaceOne(buildNewerQuery(id, pointValue), buildDocument(id, pointValue), FindAndReplaceOptions.options().upsert()));
+        try {
+            bulkOperations.execute();
+        } catch (BulkOperationException e) {
+            // A duplicate key means the saved value is newer, which is expected with out of order values
+            if (e.getErrors().stream().anyMatch(error -> error.getCode() != DUPLICATE_KEY)) {
+                throw e;
+            }
+        }
+    }
+
+    @Override
+    public List<PointValue> get(String deviceId, List<String> pointIds) {
+        if (CharSequenceUtil.isEmpty(deviceId) || CollUtil.isEmpty(pointIds)) {
+            return Collections.emptyList();
+        }
+
+        List<String> ids = pointIds.stream().map(pointId -> getId(deviceId, pointId)).collect(Collectors.toList());
+        Query query = new Query(Criteria.where("_id").in(ids));
+        List<PointValue> pointValues = mongoTemplate.find(query, PointValue.class, collection);
+
+        // Keep the order of the requested points
+        Map<String, PointValue> pointValueMap = pointValues.stream().collect(Collectors.toMap(PointValue::getPointId, pointValue -> pointValue, (previous, current) -> current));
+        return pointIds.stream().map(pointValueMap::get).filter(pointValue -> null != pointValue).collect(Collectors.toList());
+    }
+
+    @Override
+    public void warm() {
+        long warmed = 0;
+        Query query = new Query().cursorBatchSize(warmBatch);
+        try (CloseableIterator<PointValue> iterator = mongoTemplate.stream(query, PointValue.class, collection)) {
+            List<PointValue> batch = new ArrayList<>(warmBatch);
+            while (iterator.hasNext()) {
+                batch.add(iterator.next());
+                if (batch.size() >= warmBatch) {
+                    warmed += warm(batch);
+                    batch.clear();
+                }
+            }
+            warmed += warm(batch);
+        } catch (Exception e) {
+            log.error("Warm realtime point values from last values error: {}", e.getMessage(), e);
+        }
+        log.info("Warm {} realtime point values from last values", warmed);
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        RepositoryStrategyFactory.put(LAST, this);
+    }
+
+    /**
+     * 只写入 Redis 中缺失的位号, 通过 SET NX / HSETNX 原子写入, 避免覆盖更新的实时数据
+     *
+     * @param batch PointValue Array
+     * @return Warmed Count
+     */
+    private int warm(List<PointValue> batch) {
+        if (batch.isEmpty()) {
+            return 0;
+        }
+        return redisRealtimeStore.saveIfAbsent(batch.stream().collect(Collectors.groupingBy(PointValue::getDeviceId)));
+    }
+
+    /**
+     * 只匹配比当前值旧的最新值, 不存在时插入, 已保存的值更新时插入会因 _id 重复而失败
+     *
+     * @param id         最新值ID
+     * @param pointValue PointValue
+     * @return Query
+     */
+    private Query buildNewerQuery(String id, PointValue pointValue) {
+        String timeField = FieldUtil.getField(PointValue::getCreateTime);
+        return new Query(Criteria.where("_id").is(id).and(timeField).lte(new Date(getTime(pointValue))));
+    }
+
+    private Document buildDocument(String id, PointValue pointValue) {
+        Document document = new Document();
+        mongoTemplate.getConverter().write(new MgPointValue(pointValue), document);
+        document.put("_id", id);
+        return document;
+    }
+
+    private static long getTime(PointValue pointValue) {
+        return null != pointValue.getCreateTime() ? pointValue.getCreateTime().getTime() : 0;
+    }
+
+    private static String getId(String deviceId, String pointId) {
+        return deviceId + SymbolConstant.DOT + pointId;
+    }
+}
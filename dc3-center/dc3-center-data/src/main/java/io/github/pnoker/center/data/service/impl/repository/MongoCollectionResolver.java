@@ -0,0 +1,281 @@
+/*
+ * Copyright 2016-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.pnoker.center.data.service.impl.repository;
+
+import cn.hutool.core.text.CharSequenceUtil;
+import io.github.pnoker.center.data.utils.CursorUtil;
+import io.github.pnoker.common.constant.common.PrefixConstant;
+import io.github.pnoker.common.constant.common.SuffixConstant;
+import io.github.pnoker.common.constant.driver.StorageConstant;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.CollectionOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.index.IndexInfo;
+import org.springframework.data.mongodb.core.index.IndexOperations;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.timeseries.Granularity;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * Point Value Mongo 集合解析
+ * <p>
+ * 默认每个设备一个普通集合; 开启时序模式后全部设备写入同一个时序集合,
+ * timeField 为 createTime, metaField 为 meta: {deviceId, pointId}。
+ * 写入路径只负责创建不存在的集合及其索引, 每个集合每个进程只检查一次;
+ * 已存在集合的索引迁移由启动任务 {@link #migrateIndexes()} 在后台完成,
+ * 新索引构建完成后才删除被替代的旧索引。
+ *
+ * @author pnoker
+ * @since 2022.1.0
+ */
+@Slf4j
+@Component
+public class MongoCollectionResolver {
+
+    public static final String TIME_FIELD = "createTime";
+    public static final String META_FIELD = "meta";
+    public static final String DEVICE_FIELD = "deviceId";
+    public static final String POINT_FIELD = "pointId";
+
+    /**
+     * 旧版本创建的索引, 已由带 _id 的复合索引替代
+     */
+    private static final List<String> SUPERSEDED_INDEXES = Arrays.asList("IX_point_id", "IX_create_time", "IX_point_id_create_time");
+
+    @Value("${data.point.sava.mongo.time-series.enable}")
+    private Boolean enableTimeSeries;
+    @Value("${data.point.sava.mongo.time-series.collection}")
+    private String timeSeriesCollection;
+    @Value("${data.point.sava.mongo.time-series.granularity}")
+    private String granularity;
+
+    @Resource
+    private MongoTemplate mongoTemplate;
+
+    private final Set<String> initializedCollections = ConcurrentHashMap.newKeySet();
+
+    /**
+     * 是否为时序集合模式
+     *
+     * @return boolean
+     */
+    public boolean isTimeSeries() {
+        return Boolean.TRUE.equals(enableTimeSeries);
+    }
+
+    /**
+     * 获取设备 PointValue 所在集合
+     *
+     * @param deviceId 设备ID, 为空时返回全部设备所在的集合
+     * @return Collection Name
+     */
+    public String getCollection(String deviceId) {
+        if (isTimeSeries()) {
+            return timeSeriesCollection;
+        }
+        return CharSequenceUtil.isNotEmpty(deviceId) ? StorageConstant.POINT_VALUE_PREFIX + deviceId : PrefixConstant.POINT + SuffixConstant.VALUE;
+    }
+
+    /**
+     * 获取查询条件中设备ID字段名称
+     *
+     * @return Field Name
+     */
+    public String getDeviceField() {
+        return isTimeSeries() ? META_FIELD + "." + DEVICE_FIELD : DEVICE_FIELD;
+    }
+
+    /**
+     * 获取查询条件中位号ID字段名称
+     *
+     * @return Field Name
+     */
+    public String getPointField() {
+        return isTimeSeries() ? META_FIELD + "." + POINT_FIELD : POINT_FIELD;
+    }
+
+    /**
+     * 获取设备查询条件, 普通集合模式下集合已按设备区分, 无需设备条件
+     *
+     * @param deviceId 设备ID
+     * @return Criteria
+     */
+    public Criteria deviceCriteria(String deviceId) {
+        Criteria criteria = new Criteria();
+        if (isTimeSeries() && CharSequenceUtil.isNotEmpty(deviceId)) {
+            criteria.and(getDeviceField()).is(deviceId);
+        }
+        return criteria;
+    }
+
+    /**
+     * 确保集合已创建, 每个集合每个进程只执行一次
+     * <p>
+     * 仅在集合不存在时创建集合及其索引, 此时集合为空, 建索引开销很小;
+     * 已存在集合的索引不在写入路径上变更, 由 {@link #migrateIndexes()} 处理。
+     *
+     * @param collection Collection Name
+     */
+    public void ensureCollection(String collection) {
+        if (initializedCollections.contains(collection)) {
+            return;
+        }
+
+        if (!mongoTemplate.collectionExists(collection)) {
+            createCollection(collection);
+            ensurePointValueIndex(collection);
+        }
+        initializedCollections.add(collection);
+    }
+
+    /**
+     * 迁移已存在 PointValue 集合的索引, 在启动后的后台任务中执行
+     * <p>
+     * 先构建新的复合索引, 确认构建完成后再删除被替代的旧索引,
+     * 迁移期间查询始终有可用的索引。
+     */
+    public void migrateIndexes() {
+        for (String collection : mongoTemplate.getCollectionNames()) {
+            if (!isPointValueCollection(collection)) {
+                continue;
+            }
+
+            try {
+                List<String> current = ensurePointValueIndex(collection);
+                IndexOperations indexOperations = mongoTemplate.indexOps(collection);
+                List<String> built = indexOperations.getIndexInfo().stream().map(IndexInfo::getName).collect(Collectors.toList());
+                if (!built.containsAll(current)) {
+                    log.warn("Point value index of {} not ready, keep superseded index: {}", collection, current);
+                    continue;
+                }
+                dropSupersededIndex(collection, indexOperations, current);
+            } catch (Exception e) {
+                log.error("Migrate point value index of {} error: {}", collection, e.getMessage(), e);
+            }
+        }
+    }
+
+    private boolean isPointValueCollection(String collection) {
+        if (isTimeSeries()) {
+            return timeSeriesCollection.equals(collection);
+        }
+        return collection.startsWith(StorageConstant.POINT_VALUE_PREFIX);
+    }
+
+    private void createCollection(String collection) {
+        try {
+            if (isTimeSeries()) {
+                CollectionOptions.TimeSeriesOptions options = CollectionOptions.TimeSeriesOptions.timeSeries(TIME_FIELD)
+                        .metaField(META_FIELD)
+                        .granularity(Granularity.valueOf(granularity.toUpperCase()));
+                mongoTemplate.createCollection(collection, CollectionOptions.empty().timeSeries(options));
+                log.info("Create point value time series collection: {}", collection);
+            } else {
+                mongoTemplate.createCollection(collection);
+                log.info("Create point value collection: {}", collection);
+            }
+        } catch (Exception e) {
+            // Another data center instance may have created it in the meantime
+            log.warn("Create point value collection {} error: {}", collection, e.getMessage());
+        }
+    }
+
+    /**
+     * Ensure device point and time index, blocks until the indexes are built
+     *
+     * @param collection Collection Name
+     * @return Index Names
+     */
+    private List<String> ensurePointValueIndex(String collection) {
+        IndexOperations indexOperations = mongoTemplate.indexOps(collection);
+
+        // ensure point and time index, serves latest, recent history and cursor page queries of a point
+        String pointIndexName = indexName("IX_point_id_create_time");
+        Index pointIndex = new Index();
+        pointIndex.background()
+                .on(getPointField(), Sort.Direction.ASC)
+                .on(TIME_FIELD, Sort.Direction.DESC)
+                .named(pointIndexName);
+        withIdTieBreaker(pointIndex);
+        indexOperations.ensureIndex(pointIndex);
+
+        // ensure time index
+        String timeIndexName = indexName("IX_create_time");
+        Index timeIndex = new Index();
+        timeIndex.background()
+                .on(TIME_FIELD, Sort.Direction.DESC)
+                .named(timeIndexName);
+        withIdTieBreaker(timeIndex);
+        indexOperations.ensureIndex(timeIndex);
+
+        return Arrays.asList(pointIndexName, timeIndexName);
+    }
+
+    /**
+     * 删除被新索引替代的旧索引, 避免每次写入同时维护新旧两套索引
+     *
+     * @param collection      Collection Name
+     * @param indexOperations IndexOperations
+     * @param current         当前使用的索引名称
+     */
+    private void dropSupersededIndex(String collection, IndexOperations indexOperations, List<String> current) {
+        indexOperations.getIndexInfo().stream()
+                .map(IndexInfo::getName)
+                .filter(name -> SUPERSEDED_INDEXES.contains(name) && !current.contains(name))
+                .forEach(name -> {
+                    try {
+                        indexOperations.dropIndex(name);
+                        log.info("Drop superseded point value index {} of {}", name, collection);
+                    } catch (Exception e) {
+                        // Another data center instance may have dropped it in the meantime
+                        log.warn("Drop superseded point value index {} of {} error: {}", name, collection, e.getMessage());
+                    }
+                });
+    }
+
+    /**
+     * 普通集合的索引带上 _id 后使用新名称, 避免与已存在的同名索引冲突
+     *
+     * @param name Index Name
+     * @return Index Name
+     */
+    private String indexName(String name) {
+        return isTimeSeries() ? name : name + "_id";
+    }
+
+    /**
+     * 游标分页按 (createTime, _id) 排序, 普通集合的索引带上 _id, 排序可以直接走索引;
+     * 时序集合的二级索引不支持 _id, 保持原样
+     *
+     * @param index Index
+     */
+    private void withIdTieBreaker(Index index) {
+        if (!isTimeSeries()) {
+            index.on(CursorUtil.ID_FIELD, Sort.Direction.DESC);
+        }
+    }
+}
@@ -17,20 +17,21 @@
 package io.github.pnoker.center.data.service.impl.repository;
 
 import cn.hutool.core.text.CharSequenceUtil;
+import cn.hutool.core.util.ObjectUtil;
 import io.github.pnoker.center.data.service.RepositoryService;
 import io.github.pnoker.center.data.strategy.RepositoryStrategyFactory;
-import io.github.pnoker.common.constant.driver.StorageConstant;
 import io.github.pnoker.common.constant.driver.StrategyConstant;
 import io.github.pnoker.common.entity.point.MgPointValue;
 import io.github.pnoker.common.entity.point.PointValue;
 import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
 import org.springframework.beans.factory.InitializingBean;
-import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.BulkOperations;
 import org.springframework.data.mongodb.core.MongoTemplate;
-import org.springframework.data.mongodb.core.index.Index;
 import org.springframework.stereotype.Service;
 
 import javax.annotation.Resource;
+import java.util.Date;
 import java.util.List;
 import java.util.stream.Collectors;
 
@@ -44,6 +45,8 @@ public class MongoServiceImpl implements RepositoryService, InitializingBean {
 
     @Resource
     private MongoTemplate mongoTemplate;
+    @Resource
+    private MongoCollectionResolver mongoCollectionResolver;
 
     @Override
     public String getRepositoryName() {
@@ -56,8 +59,12 @@ public class MongoServiceImpl implements RepositoryService, InitializingBean {
             return;
         }
 
-        final String collection = StorageConstant.POINT_VALUE_PREFIX + pointValue.getDeviceId();
-        ensurePointValueIndex(collection);
+        final String collection = mongoCollectionResolver.getCollection(pointValue.getDeviceId());
+        mongoCollectionResolver.ensureCollection(collection);
+        if (mongoCollectionResolver.isTimeSeries()) {
+            mongoTemplate.insert(toTimeSeriesDocument(pointValue), collection);
+            return;
+        }
         mongoTemplate.insert(new MgPointValue(pointValue), collection);
     }
 
@@ -67,8 +74,19 @@ public class MongoServiceImpl implements RepositoryService, InitializingBean {
             return;
         }
 
-        final String collection = StorageConstant.POINT_VALUE_PREFIX + deviceId;
-        ensurePointValueIndex(collection);
+        final String collection = mongoCollectionResolver.getCollection(deviceId);
+        mongoCollectionResolver.ensureCollection(collection);
+        if (mongoCollectionResolver.isTimeSeries()) {
+            final List<Document> batch = pointValues.stream()
+                    .filter(pointValue -> CharSequenceUtil.isNotEmpty(pointValue.getPointId()))
+                    .map(this::toTimeSeriesDocument)
+                    .collect(Collectors.toList());
+            if (!batch.isEmpty()) {
+                mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, collection).insert(batch).execute();
+            }
+            return;
+        }
+
         final List<MgPointValue> batch = pointValues.stream()
                 .filter(pointValue -> CharSequenceUtil.isNotEmpty(pointValue.getPointId()))
                 .map(MgPointValue::new)
@@ -82,24 +100,18 @@ public class MongoServiceImpl implements RepositoryService, InitializingBean {
     }
 
     /**
-     * Ensure device point and time index
+     * PointValue 转换为时序集合文档, 设备和位号同时写入 metaField
      *
-     * @param collection Collection Name
+     * @param pointValue PointValue
+     * @return Document
      */
-    private void ensurePointValueIndex(String collection) {
-        // ensure point index
-        Index pointIndex = new Index();
-        pointIndex.background()
-                .on("pointId", Sort.Direction.DESC)
-                .named("IX_point_id");
-        mongoTemplate.indexOps(collection).ensureIndex(pointIndex);
-
-        // ensure time index
-        Index timeIndex = new Index();
-        timeIndex.background()
-                .on("createTime", Sort.Direction.DESC)
-                .named("IX_create_time");
-        mongoTemplate.indexOps(collection).ensureIndex(timeIndex);
+    private Document toTimeSeriesDocument(PointValue pointValue) {
+        Document document = new Document();
+        mongoTemplate.getConverter().write(new MgPointValue(pointValue), document);
+        document.put(MongoCollectionResolver.TIME_FIELD, ObjectUtil.isNotNull(pointValue.getCreateTime()) ? pointValue.getCreateTime() : new Date());
+        document.put(MongoCollectionResolver.META_FIELD, new Document(MongoCollectionResolver.DEVICE_FIELD, pointValue.getDeviceId())
+                .append(MongoCollectionResolver.POINT_FIELD, pointValue.getPointId()));
+        return document;
     }
 
 }
\ No newline at end of file
@@ -17,8 +17,8 @@
 package io.github.pnoker.center.data.service.impl.repository;
 
 import cn.hutool.core.text.CharSequenceUtil;
-import cn.hutool.core.util.ObjectUtil;
 import com.google.common.collect.Lists;
+import io.github.pnoker.center.data.buffer.SpillFile;
 import io.github.pnoker.center.data.service.RepositoryService;
 import io.github.pnoker.center.data.strategy.RepositoryStrategyFactory;
 import io.github.pnoker.common.constant.driver.StorageConstant;
@@ -26,39 +26,91 @@ import io.github.pnoker.common.constant.driver.StrategyConstant;
 import io.github.pnoker.common.entity.point.PointValue;
 import io.github.pnoker.common.entity.point.TsPointValue;
 import io.github.pnoker.common.utils.JsonUtil;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.extern.slf4j.Slf4j;
-import okhttp3.*;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
 import org.apache.http.entity.ContentType;
 import org.jetbrains.annotations.NotNull;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.stereotype.Service;
 
 import javax.annotation.Resource;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
+import java.util.zip.GZIPOutputStream;
 
 /**
+ * Opentsdb 存储服务
+ * <p>
+ * 数据按块压缩后异步发送, 同时发送中的请求数受限; 失败的块按退避策略重试,
+ * 重试用尽后写入本地溢出文件, 在 TSD 恢复后回放。
+ * 启用写前日志时同步发送, 失败时抛出异常, 由写前日志读取方重新读取后重试。
+ *
  * @author pnoker
  * @since 2022.1.0
  */
 @Slf4j
 @Service
 @ConditionalOnProperty(name = "data.point.sava.opentsdb.enable", havingValue = "true")
-public class OpentsdbServiceImpl implements RepositoryService, InitializingBean {
+public class OpentsdbServiceImpl implements RepositoryService, InitializingBean, DisposableBean {
+
+    private static final MediaType JSON = MediaType.parse(ContentType.APPLICATION_JSON.toString());
 
     @Value("${data.point.sava.opentsdb.host}")
     private String host;
     @Value("${data.point.sava.opentsdb.port}")
     private Integer port;
+    @Value("${data.point.sava.opentsdb.chunk-size}")
+    private Integer chunkSize;
+    @Value("${data.point.sava.opentsdb.max-in-flight}")
+    private Integer maxInFlight;
+    @Value("${data.point.sava.opentsdb.max-retries}")
+    private Integer maxRetries;
+    @Value("${data.point.sava.opentsdb.retry-interval}")
+    private Long retryInterval;
+    @Value("${data.point.sava.opentsdb.spill}")
+    private String spillPath;
+    @Value("${data.point.wal.enable}")
+    private Boolean enableWal;
 
     @Resource
     private OkHttpClient okHttpClient;
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    private String putUrl;
+    private Semaphore inFlight;
+    private SpillFile spillFile;
+    private ScheduledExecutorService retryExecutor;
+    private Counter retryCounter;
+
+    /**
+     * 最近一次请求是否成功, 用于判断是否可以回放溢出文件
+     */
+    private volatile boolean available = true;
 
     @Override
     public String getRepositoryName() {
@@ -66,7 +118,7 @@ public class OpentsdbServiceImpl implements RepositoryService, InitializingBean
     }
 
     @Override
-    public void savePointValue(PointValue pointValue) {
+    public void savePointValue(PointValue pointValue) throws IOException {
         if (!CharSequenceUtil.isAllNotEmpty(pointValue.getDeviceId(), pointValue.getPointId())) {
             return;
         }
@@ -75,66 +127,225 @@ public class OpentsdbServiceImpl implements RepositoryService, InitializingBean
     }
 
     @Override
-    public void savePointValues(String deviceId, List<PointValue> pointValues) {
+    public void savePointValues(String deviceId, List<PointValue> pointValues) throws IOException {
         if (CharSequenceUtil.isEmpty(deviceId)) {
             return;
         }
 
-        List<TsPointValue> tsPointValues = pointValues.stream()
+        put(convertPointValues(deviceId, pointValues));
+    }
+
+    @Override
+    public void savePointValues(Map<String, List<PointValue>> group) throws IOException {
+        if (!Boolean.TRUE.equals(enableWal)) {
+            RepositoryService.super.savePointValues(group);
+            return;
+        }
+
+        // Chunk all devices of the batch together
+        List<TsPointValue> tsPointValues = new ArrayList<>();
+        group.forEach((deviceId, pointValues) -> {
+            if (CharSequenceUtil.isNotEmpty(deviceId)) {
+                tsPointValues.addAll(convertPointValues(deviceId, pointValues));
+            }
+        });
+        put(tsPointValues);
+    }
+
+    @Override
+    public void afterPropertiesSet() throws IOException {
+        retryCounter = meterRegistry.counter("dc3.point.sink.retries", "sink", getRepositoryName());
+        putUrl = String.format("http://%s:%s/api/put?details", host, port);
+        inFlight = new Semaphore(maxInFlight);
+        spillFile = new SpillFile(Paths.get(spillPath, getRepositoryName() + ".spill"));
+        retryExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "opentsdb-retry");
+            thread.setDaemon(true);
+            return thread;
+        });
+        retryExecutor.scheduleWithFixedDelay(this::replay, retryInterval, retryInterval, TimeUnit.MILLISECONDS);
+
+        RepositoryStrategyFactory.put(StrategyConstant.Storage.STRATEGY_OPENTSDB, this);
+    }
+
+    @Override
+    public void destroy() {
+        retryExecutor.shutdownNow();
+    }
+
+    private List<TsPointValue> convertPointValues(String deviceId, List<PointValue> pointValues) {
+        return pointValues.stream()
                 .filter(pointValue -> CharSequenceUtil.isNotEmpty(pointValue.getPointId()))
                 .map(pointValue -> convertPointValues(StorageConstant.POINT_VALUE_PREFIX + deviceId, pointValue))
                 .flatMap(Collection::stream)
                 .collect(Collectors.toList());
-
-        List<List<TsPointValue>> partition = Lists.partition(tsPointValues, 100);
-        partition.forEach(this::putPointValues);
     }
 
-    @Override
-    public void afterPropertiesSet() {
-        RepositoryStrategyFactory.put(StrategyConstant.Storage.STRATEGY_OPENTSDB, this);
+    private void put(List<TsPointValue> tsPointValues) throws IOException {
+        for (List<TsPointValue> chunk : Lists.partition(tsPointValues, chunkSize)) {
+            if (Boolean.TRUE.equals(enableWal)) {
+                putPointValuesBlocking(JsonUtil.toJsonString(chunk));
+            } else {
+                putPointValues(JsonUtil.toJsonString(chunk), 0);
+            }
+        }
     }
 
     private List<TsPointValue> convertPointValues(String metric, PointValue pointValue) {
         String point = pointValue.getPointId();
-        String value = pointValue.getValue();
         long timestamp = pointValue.getOriginTime().getTime();
 
         List<TsPointValue> tsPointValues = new ArrayList<>(2);
 
-        TsPointValue tsValue = new TsPointValue(metric, value);
+        TsPointValue tsValue = new TsPointValue(metric, pointValue.getValue());
         tsValue.setTimestamp(timestamp);
         tsValue.addTag("point", point).addTag("valueType", "value");
         tsPointValues.add(tsValue);
 
-        TsPointValue tsRawValue = new TsPointValue(metric, value);
+        TsPointValue tsRawValue = new TsPointValue(metric, pointValue.getRawValue());
         tsRawValue.setTimestamp(timestamp);
-        tsValue.addTag("point", point).addTag("valueType", "rawValue");
+        tsRawValue.addTag("point", point).addTag("valueType", "rawValue");
         tsPointValues.add(tsRawValue);
 
         return tsPointValues;
     }
 
-    private void putPointValues(List<TsPointValue> tsPointValues) {
-        String putUrl = String.format("http://%s:%s/api/put?details", host, port);
-        RequestBody requestBody = RequestBody.create(JsonUtil.toJsonString(tsPointValues), MediaType.parse(ContentType.APPLICATION_JSON.toString()));
-        Request request = new Request.Builder()
-                .url(putUrl)
-                .post(requestBody)
-                .build();
+    /**
+     * 异步发送一块数据, 同时发送中的请求达到上限时阻塞调用方
+     *
+     * @param body    JSON Array
+     * @param attempt 已重试次数
+     */
+    private void putPointValues(String body, int attempt) {
+        try {
+            inFlight.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            spill(body);
+            return;
+        }
+
+        Request request;
+        try {
+            request = new Request.Builder()
+                    .url(putUrl)
+                    .header("Content-Encoding", "gzip")
+                    .post(RequestBody.create(gzip(body), JSON))
+                    .build();
+        } catch (IOException e) {
+            inFlight.release();
+            log.error("Compress pointValues for opentsdb error: {}", e.getMessage(), e);
+            return;
+        }
 
         okHttpClient.newCall(request).enqueue(new Callback() {
             @Override
             public void onFailure(@NotNull Call call, @NotNull IOException e) {
-                log.error("Send pointValues to opentsdb error: {}", e.getMessage(), e);
+                inFlight.release();
+                available = false;
+                log.error("Send pointValues to opentsdb error: {}", e.getMessage());
+                retry(body, attempt);
             }
 
             @Override
             public void onResponse(@NotNull Call call, @NotNull Response response) {
-                if (ObjectUtil.isNotNull(response.body())) {
-                    log.debug("Send pointValues to opentsdb, Response: {}", response.message());
+                inFlight.release();
+                try (ResponseBody responseBody = response.body()) {
+                    if (response.isSuccessful()) {
+                        available = true;
+                        return;
+                    }
+
+                    String details = null != responseBody ? responseBody.string() : response.message();
+                    if (response.code() >= 500) {
+                        available = false;
+                        log.error("Send pointValues to opentsdb error, Response: {}", details);
+                        retry(body, attempt);
+                        return;
+                    }
+
+                    // Client errors mean malformed data points, retrying would fail again
+                    log.error("Send pointValues to opentsdb rejected, Response: {}", details);
+                } catch (IOException e) {
+                    log.error("Read opentsdb response error: {}", e.getMessage());
                 }
             }
         });
     }
+
+    /**
+     * 同步发送一块数据, 失败或者服务端错误时抛出异常
+     *
+     * @param body JSON Array
+     * @throws IOException 发送失败
+     */
+    private void putPointValuesBlocking(String body) throws IOException {
+        Request request = new Request.Builder()
+                .url(putUrl)
+                .header("Content-Encoding", "gzip")
+                .post(RequestBody.create(gzip(body), JSON))
+                .build();
+
+        try (Response response = okHttpClient.newCall(request).execute(); ResponseBody responseBody = response.body()) {
+            if (response.isSuccessful()) {
+                return;
+            }
+
+            String details = null != responseBody ? responseBody.string() : response.message();
+            if (response.code() >= 500) {
+                throw new IOException("Send pointValues to opentsdb error, Response: " + details);
+            }
+
+            // Client errors mean malformed data points, retrying would fail again
+            log.error("Send pointValues to opentsdb rejected, Response: {}", details);
+        }
+    }
+
+    /**
+     * 按指数退避重试, 重试用尽后写入溢出文件
+     *
+     * @param body    JSON Array
+     * @param attempt 已重试次数
+     */
+    private void retry(String body, int attempt) {
+        if (attempt >= maxRetries || retryExecutor.isShutdown()) {
+            spill(body);
+            return;
+        }
+
+        retryCounter.increment();
+        long delay = retryInterval << Math.min(attempt, 10);
+        retryExecutor.schedule(() -> putPointValues(body, attempt + 1), delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void spill(String body) {
+        try {
+            spillFile.append(Collections.singletonList(body));
+        } catch (IOException e) {
+            log.error("Spill pointValues for opentsdb error, data lost: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * TSD 可用且发送通道空闲时回放溢出文件
+     */
+    private void replay() {
+        if (!available || spillFile.pending() == 0 || inFlight.availablePermits() < maxInFlight) {
+            return;
+        }
+
+        try {
+            spillFile.poll(maxInFlight).forEach(body -> putPointValues(body, maxRetries));
+        } catch (Exception e) {
+            log.error("Replay spilled pointValues for opentsdb error: {}", e.getMessage());
+        }
+    }
+
+    private static byte[] gzip(String body) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream(body.length() / 4);
+        try (GZIPOutputStream gzipOutputStream = new GZIPOutputStream(outputStream)) {
+            gzipOutputStream.write(body.getBytes(StandardCharsets.UTF_8));
+        }
+        return outputStream.toByteArray();
+    }
 }
@@ -0,0 +1,241 @@
+/*
+ * Copyright 2016-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.pnoker.center.data.service.impl.repository;
+
+import cn.hutool.core.collection.CollUtil;
+import cn.hutool.core.util.ObjectUtil;
+import io.github.pnoker.center.data.utils.PointValueCodecUtil;
+import io.github.pnoker.common.constant.common.PrefixConstant;
+import io.github.pnoker.common.constant.common.SymbolConstant;
+import io.github.pnoker.common.entity.point.PointValue;
+import io.github.pnoker.common.utils.RedisUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.stream.Collectors;
+
+/**
+ * Redis 实时数据存储
+ * <p>
+ * string: 每个位号一个 Key, 兼容原有数据;
+ * hash: 每个设备一个 Hash, Field 为位号ID, Value 为紧凑二进制编码, 批量写入通过 Pipeline 一次发送,
+ * Redis 不支持 Hash Field 单独过期, 已删除位号的值会一直保留在设备 Hash 中, 直到设备 Hash 被删除;
+ * both: 迁移期间同时写入两种结构, 读取时优先读取 Hash, 缺失的位号再从 string Key 读取。
+ *
+ * @author pnoker
+ * @since 2022.1.0
+ */
+@Slf4j
+@Component
+public class RedisRealtimeStore {
+
+    /**
+     * 实时数据存储结构
+     */
+    public enum Layout {
+        STRING, HASH, BOTH
+    }
+
+    @Value("${data.point.sava.redis.layout}")
+    private String layout;
+
+    @Resource
+    private RedisUtil redisUtil;
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private RedisTemplate<String, Object> redisTemplate;
+
+    /**
+     * 获取实时数据存储结构
+     *
+     * @return Layout
+     */
+    public Layout getLayout() {
+        return Layout.valueOf(layout.toUpperCase());
+    }
+
+    /**
+     * 保存多个设备的实时数据, 同一位号只保留最后一个值
+     *
+     * @param group DeviceId -> PointValue Array
+     */
+    public void save(Map<String, List<PointValue>> group) {
+        Layout current = getLayout();
+        if (current != Layout.HASH) {
+            saveString(group);
+        }
+        if (current != Layout.STRING) {
+            saveHash(group);
+        }
+    }
+
+    /**
+     * 只保存 Redis 中缺失的位号实时数据, 已存在的值不会被覆盖
+     * <p>
+     * string 结构使用 SET NX, hash 结构使用 HSETNX, 判断和写入在 Redis 中原子完成,
+     * 不会覆盖预热期间写入的更新的实时数据。
+     *
+     * @param group DeviceId -> PointValue Array
+     * @return 写入的位号数量
+     */
+    public int saveIfAbsent(Map<String, List<PointValue>> group) {
+        Layout current = getLayout();
+        int saved = 0;
+        if (current != Layout.HASH) {
+            saved = saveStringIfAbsent(group);
+        }
+        if (current != Layout.STRING) {
+            saved = saveHashIfAbsent(group);
+        }
+        return saved;
+    }
+
+    /**
+     * 读取设备的多个位号实时数据
+     *
+     * @param deviceId 设备ID
+     * @param pointIds 位号ID集合
+     * @return PointValue Array, 不包含没有实时数据的位号
+     */
+    public List<PointValue> get(String deviceId, List<String> pointIds) {
+        if (CollUtil.isEmpty(pointIds)) {
+            return Collections.emptyList();
+        }
+
+        Layout current = getLayout();
+        if (current == Layout.STRING) {
+            return getString(deviceId, pointIds);
+        }
+
+        List<PointValue> pointValues = getHash(deviceId, pointIds);
+        if (current == Layout.BOTH && pointValues.size() < pointIds.size()) {
+            List<String> found = pointValues.stream().map(PointValue::getPointId).collect(Collectors.toList());
+            List<String> missing = pointIds.stream().filter(pointId -> !found.contains(pointId)).collect(Collectors.toList());
+            pointValues.addAll(getString(deviceId, missing));
+        }
+        return pointValues;
+    }
+
+    private void saveString(Map<String, List<PointValue>> group) {
+        Map<String, PointValue> collect = new HashMap<>(64);
+        group.forEach((deviceId, pointValues) -> {
+            final String prefix = PrefixConstant.REAL_TIME_VALUE_KEY_PREFIX + deviceId + SymbolConstant.DOT;
+            pointValues.forEach(pointValue -> collect.put(prefix + pointValue.getPointId(), pointValue));
+        });
+        redisUtil.setKey(collect);
+    }
+
+    private void saveHash(Map<String, List<PointValue>> group) {
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            group.forEach((deviceId, pointValues) -> saveHash(connection, deviceId, pointValues));
+            return null;
+        });
+    }
+
+    private void saveHash(RedisConnection connection, String deviceId, List<PointValue> pointValues) {
+        Map<String, PointValue> latest = new LinkedHashMap<>(pointValues.size());
+        pointValues.forEach(pointValue -> latest.put(pointValue.getPointId(), pointValue));
+
+        Map<byte[], byte[]> hash = new HashMap<>(latest.size());
+        latest.forEach((pointId, pointValue) -> hash.put(pointId.getBytes(StandardCharsets.UTF_8), PointValueCodecUtil.encode(pointValue, false)));
+        connection.hMSet(hashKey(deviceId), hash);
+    }
+
+    private int saveStringIfAbsent(Map<String, List<PointValue>> group) {
+        List<Object> results = redisTemplate.executePipelined(new SessionCallback<Object>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public <K, V> Object execute(RedisOperations<K, V> operations) {
+                ValueOperations<String, Object> valueOperations = (ValueOperations<String, Object>) operations.opsForValue();
+                group.forEach((deviceId, pointValues) -> {
+                    final String prefix = PrefixConstant.REAL_TIME_VALUE_KEY_PREFIX + deviceId + SymbolConstant.DOT;
+                    pointValues.forEach(pointValue -> valueOperations.setIfAbsent(prefix + pointValue.getPointId(), pointValue));
+                });
+                return null;
+            }
+        });
+        return countSaved(results);
+    }
+
+    private int saveHashIfAbsent(Map<String, List<PointValue>> group) {
+        List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            group.forEach((deviceId, pointValues) -> {
+                byte[] key = hashKey(deviceId);
+                pointValues.forEach(pointValue -> connection.hSetNX(key, pointValue.getPointId().getBytes(StandardCharsets.UTF_8), PointValueCodecUtil.encode(pointValue, false)));
+            });
+            return null;
+        });
+        return countSaved(results);
+    }
+
+    private static int countSaved(List<Object> results) {
+        return (int) results.stream().filter(Boolean.TRUE::equals).count();
+    }
+
+    private List<PointValue> getString(String deviceId, List<String> pointIds) {
+        String prefix = PrefixConstant.REAL_TIME_VALUE_KEY_PREFIX + deviceId + SymbolConstant.DOT;
+        List<String> keys = pointIds.stream().map(pointId -> prefix + pointId).collect(Collectors.toList());
+        List<PointValue> pointValues = redisUtil.getKey(keys);
+        return pointValues.stream().filter(Objects::nonNull).collect(Collectors.toList());
+    }
+
+    private List<PointValue> getHash(String deviceId, List<String> pointIds) {
+        byte[][] fields = pointIds.stream().map(pointId -> pointId.getBytes(StandardCharsets.UTF_8)).toArray(byte[][]::new);
+        List<byte[]> values = stringRedisTemplate.execute((RedisCallback<List<byte[]>>) connection -> connection.hMGet(hashKey(deviceId), fields));
+
+        List<PointValue> pointValues = new ArrayList<>(pointIds.size());
+        if (ObjectUtil.isNull(values)) {
+            return pointValues;
+        }
+        for (int i = 0; i < values.size(); i++) {
+            byte[] value = values.get(i);
+            if (ObjectUtil.isNotNull(value)) {
+                pointValues.add(decode(deviceId, pointIds.get(i), value));
+            }
+        }
+        return pointValues;
+    }
+
+    private PointValue decode(String deviceId, String pointId, byte[] value) {
+        PointValue pointValue = PointValueCodecUtil.decode(value);
+        pointValue.setDeviceId(deviceId);
+        pointValue.setPointId(pointId);
+        return pointValue;
+    }
+
+    private static byte[] hashKey(String deviceId) {
+        return (PrefixConstant.REAL_TIME_VALUE_KEY_PREFIX + deviceId).getBytes(StandardCharsets.UTF_8);
+    }
+}
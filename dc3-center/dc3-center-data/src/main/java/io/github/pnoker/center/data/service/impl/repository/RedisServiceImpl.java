@@ -19,16 +19,15 @@ package io.github.pnoker.center.data.service.impl.repository;
 import cn.hutool.core.text.CharSequenceUtil;
 import io.github.pnoker.center.data.service.RepositoryService;
 import io.github.pnoker.center.data.strategy.RepositoryStrategyFactory;
-import io.github.pnoker.common.constant.common.PrefixConstant;
-import io.github.pnoker.common.constant.common.SymbolConstant;
 import io.github.pnoker.common.constant.driver.StrategyConstant;
 import io.github.pnoker.common.entity.point.PointValue;
-import io.github.pnoker.common.utils.RedisUtil;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.stereotype.Service;
 
 import javax.annotation.Resource;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.stream.Collectors;
@@ -42,7 +41,7 @@ import java.util.stream.Collectors;
 public class RedisServiceImpl implements RepositoryService, InitializingBean {
 
     @Resource
-    private RedisUtil redisUtil;
+    private RedisRealtimeStore redisRealtimeStore;
 
     @Override
     public String getRepositoryName() {
@@ -55,8 +54,7 @@ public class RedisServiceImpl implements RepositoryService, InitializingBean {
             return;
         }
 
-        final String prefix = PrefixConstant.REAL_TIME_VALUE_KEY_PREFIX + pointValue.getDeviceId() + SymbolConstant.DOT;
-        redisUtil.setKey(prefix + pointValue.getPointId(), pointValue);
+        redisRealtimeStore.save(Collections.singletonMap(pointValue.getDeviceId(), Collections.singletonList(pointValue)));
     }
 
     @Override
@@ -65,15 +63,25 @@ public class RedisServiceImpl implements RepositoryService, InitializingBean {
             return;
         }
 
-        final String prefix = PrefixConstant.REAL_TIME_VALUE_KEY_PREFIX + deviceId + SymbolConstant.DOT;
-        Map<String, PointValue> collect = pointValues.stream()
-                .filter(pointValue -> CharSequenceUtil.isNotEmpty(pointValue.getPointId()))
-                .collect(Collectors.toMap(pointValue -> prefix + pointValue.getPointId(), pointValue -> pointValue));
-        redisUtil.setKey(collect);
+        savePointValues(Collections.singletonMap(deviceId, pointValues));
+    }
+
+    @Override
+    public void savePointValues(Map<String, List<PointValue>> group) {
+        Map<String, List<PointValue>> collect = new HashMap<>(group.size());
+        group.forEach((deviceId, pointValues) -> {
+            if (CharSequenceUtil.isEmpty(deviceId)) {
+                return;
+            }
+            collect.put(deviceId, pointValues.stream()
+                    .filter(pointValue -> CharSequenceUtil.isNotEmpty(pointValue.getPointId()))
+                    .collect(Collectors.toList()));
+        });
+        redisRealtimeStore.save(collect);
     }
 
     @Override
     public void afterPropertiesSet() {
         RepositoryStrategyFactory.put(StrategyConstant.Storage.REDIS, this);
     }
-}
\ No newline at end of file
+}
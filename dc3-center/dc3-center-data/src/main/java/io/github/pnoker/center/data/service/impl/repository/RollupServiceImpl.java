@@ -0,0 +1,459 @@
+/*
+ * Copyright 2016-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.pnoker.center.data.service.impl.repository;
+
+import cn.hutool.core.text.CharSequenceUtil;
+import cn.hutool.core.util.ObjectUtil;
+import io.github.pnoker.center.data.entity.vo.PointValueAggregateVO;
+import io.github.pnoker.center.data.entity.vo.query.PointValueAggregateQuery;
+import io.github.pnoker.center.data.service.RepositoryService;
+import io.github.pnoker.center.data.service.RollupService;
+import io.github.pnoker.center.data.strategy.RepositoryStrategyFactory;
+import io.github.pnoker.common.constant.common.SymbolConstant;
+import io.github.pnoker.common.entity.point.PointValue;
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+/**
+ * Point Value 连续聚合
+ * <p>
+ * 作为存储服务接收全部数值型 PointValue, 定时把收到的原始值按采集时间写入 1 分钟时间桶的 samples 中,
+ * 再由分钟桶重新计算 min/max/sum/count/first/last, 由分钟桶重新计算小时桶, 由小时桶重新计算天桶。
+ * 原始值以采集时间为键写入, 聚合值总是重新计算, 批次重新投递或写前日志回放不会重复计数。
+ * <p>
+ * 每个位号单独维护水位线, 为该位号已收到的最大采集时间减去允许的延迟, 早于水位线的数据不再计入聚合;
+ * 采集时间超过接收时间的部分不推进水位线, 时钟超前的设备不会让其他数据被当作延迟数据丢弃。
+ *
+ * @author pnoker
+ * @since 2022.1.0
+ */
+@Slf4j
+@Service
+@ConditionalOnProperty(name = "data.point.rollup.enable", havingValue = "true")
+public class RollupServiceImpl implements RepositoryService, RollupService, InitializingBean, DisposableBean {
+
+    public static final String ROLLUP = "rollup";
+
+    private static final String DEVICE_FIELD = "deviceId";
+    private static final String POINT_FIELD = "pointId";
+    private static final String TIME_FIELD = "time";
+    private static final String SAMPLES_FIELD = "samples";
+    private static final int RECOMPUTE_CHUNK = 500;
+
+    /**
+     * 聚合粒度
+     */
+    @Getter
+    @AllArgsConstructor
+    public enum Resolution {
+        MINUTE("1m", TimeUnit.MINUTES.toMillis(1)),
+        HOUR("1h", TimeUnit.HOURS.toMillis(1)),
+        DAY("1d", TimeUnit.DAYS.toMillis(1));
+
+        private final String code;
+        private final long millis;
+
+        public static Resolution of(String code) {
+            for (Resolution resolution : values()) {
+                if (resolution.code.equalsIgnoreCase(code)) {
+                    return resolution;
+                }
+            }
+            throw new IllegalArgumentException("Unsupported rollup resolution: " + code);
+        }
+    }
+
+    @Value("${data.point.rollup.collection}")
+    private String collection;
+    @Value("${data.point.rollup.flush-interval}")
+    private Long flushInterval;
+    @Value("${data.point.rollup.lateness}")
+    private Long lateness;
+
+    @Resource
+    private MongoTemplate mongoTemplate;
+
+    private Map<Bucket, Map<Long, Double>> pending = new HashMap<>(1024);
+    private Set<Bucket> recompute = new HashSet<>(64);
+    private final Map<String, Long> pointTimeMap = new HashMap<>(1024);
+    private final LongAdder late = new LongAdder();
+
+    private ScheduledExecutorService flushExecutor;
+
+    @Override
+    public String getRepositoryName() {
+        return ROLLUP;
+    }
+
+    @Override
+    public void savePointValue(PointValue pointValue) {
+        if (!CharSequenceUtil.isAllNotEmpty(pointValue.getDeviceId(), pointValue.getPointId())) {
+            return;
+        }
+
+        savePointValues(pointValue.getDeviceId(), Collections.singletonList(pointValue));
+    }
+
+    @Override
+    public void savePointValues(String deviceId, List<PointValue> pointValues) {
+        if (CharSequenceUtil.isEmpty(deviceId)) {
+            return;
+        }
+
+        synchronized (this) {
+            pointValues.forEach(pointValue -> accumulate(deviceId, pointValue));
+        }
+    }
+
+    @Override
+    public List<PointValueAggregateVO> aggregate(PointValueAggregateQuery aggregateQuery) {
+        long startTime = aggregateQuery.getStartTime();
+        long endTime = aggregateQuery.getEndTime();
+        if (startTime > endTime) {
+            return Collections.emptyList();
+        }
+
+        Resolution resolution = CharSequenceUtil.isNotEmpty(aggregateQuery.getResolution())
+                ? Resolution.of(aggregateQuery.getResolution())
+                : chooseResolution(endTime - startTime, ObjectUtil.defaultIfNull(aggregateQuery.getMaxPoints(), 500));
+
+        Criteria criteria = Criteria.where(DEVICE_FIELD).is(aggregateQuery.getDeviceId())
+                .and(POINT_FIELD).is(aggregateQuery.getPointId())
+                .and(TIME_FIELD).gte(new Date(floor(startTime, resolution))).lte(new Date(endTime));
+        Query query = new Query(criteria).with(Sort.by(Sort.Direction.ASC, TIME_FIELD));
+        query.fields().exclude(SAMPLES_FIELD);
+
+        List<Document> documents = mongoTemplate.find(query, Document.class, getCollection(resolution));
+        return documents.stream().map(this::convert).collect(Collectors.toList());
+    }
+
+    /**
+     * 获取因晚于允许延迟而未计入聚合的数据量
+     *
+     * @return Late Count
+     */
+    public long getLate() {
+        return late.sum();
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        for (Resolution resolution : Resolution.values()) {
+            Index index = new Index();
+            index.background()
+                    .on(DEVICE_FIELD, Sort.Direction.ASC)
+                    .on(POINT_FIELD, Sort.Direction.ASC)
+                    .on(TIME_FIELD, Sort.Direction.ASC)
+                    .unique()
+                    .named("UX_device_point_time");
+            mongoTemplate.indexOps(getCollection(resolution)).ensureIndex(index);
+        }
+
+        flushExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "point-value-rollup");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flushExecutor.scheduleWithFixedDelay(this::flush, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+
+        RepositoryStrategyFactory.put(ROLLUP, this);
+    }
+
+    @Override
+    public void destroy() {
+        flushExecutor.shutdownNow();
+        flush();
+    }
+
+    private void accumulate(String deviceId, PointValue pointValue) {
+        if (CharSequenceUtil.isEmpty(pointValue.getPointId()) || CharSequenceUtil.isEmpty(pointValue.getValue())) {
+            return;
+        }
+
+        double value;
+        try {
+            value = Double.parseDouble(pointValue.getValue());
+        } catch (NumberFormatException e) {
+            return;
+        }
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            return;
+        }
+
+        long receiveTime = ObjectUtil.isNotNull(pointValue.getCreateTime()) ? pointValue.getCreateTime().getTime() : System.currentTimeMillis();
+        long time = ObjectUtil.isNotNull(pointValue.getOriginTime()) ? pointValue.getOriginTime().getTime() : receiveTime;
+        String pointKey = deviceId + SymbolConstant.DOT + pointValue.getPointId();
+        Long pointTime = pointTimeMap.get(pointKey);
+        if (ObjectUtil.isNotNull(pointTime) && time < pointTime - lateness) {
+            late.increment();
+            return;
+        }
+        // Event time ahead of the receive time does not move the watermark of the point
+        pointTimeMap.put(pointKey, Math.max(ObjectUtil.defaultIfNull(pointTime, Long.MIN_VALUE), Math.min(time, receiveTime)));
+
+        Bucket bucket = new Bucket(deviceId, pointValue.getPointId(), floor(time, Resolution.MINUTE));
+        pending.computeIfAbsent(bucket, key -> new HashMap<>(8)).putIfAbsent(time, value);
+    }
+
+    /**
+     * 将原始值写入分钟桶并重新计算受影响的时间桶, 失败时放回内存等待下次合并
+     */
+    private void flush() {
+        Map<Bucket, Map<Long, Double>> current;
+        Set<Bucket> buckets;
+        synchronized (this) {
+            if (pending.isEmpty() && recompute.isEmpty()) {
+                return;
+            }
+            current = pending;
+            pending = new HashMap<>(current.size());
+            buckets = recompute;
+            recompute = new HashSet<>(64);
+        }
+
+        if (!current.isEmpty()) {
+            try {
+                // Samples are keyed by their time, a replayed value overwrites itself
+                BulkOperations bulkOperations = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, getCollection(Resolution.MINUTE));
+                current.forEach((bucket, samples) -> bulkOperations.upsert(buildQuery(bucket), buildUpdate(bucket, samples)));
+                bulkOperations.execute();
+                buckets.addAll(current.keySet());
+            } catch (Exception e) {
+                log.error("Save point value rollup samples error, retry later: {}", e.getMessage());
+                synchronized (this) {
+                    current.forEach((bucket, samples) -> pending.computeIfAbsent(bucket, key -> new HashMap<>(samples.size())).putAll(samples));
+                    recompute.addAll(buckets);
+                }
+                return;
+            }
+        }
+
+        try {
+            recomputeMinute(buckets);
+            recompute(Resolution.MINUTE, Resolution.HOUR, buckets);
+            recompute(Resolution.HOUR, Resolution.DAY, buckets);
+        } catch (Exception e) {
+            // Recomputing is idempotent, the whole chain is retried
+            log.error("Recompute point value rollup error, retry later: {}", e.getMessage());
+            synchronized (this) {
+                recompute.addAll(buckets);
+            }
+        }
+    }
+
+    /**
+     * 由分钟桶中的原始值重新计算分钟桶的聚合值
+     *
+     * @param buckets 受影响的分钟桶
+     */
+    private void recomputeMinute(Set<Bucket> buckets) {
+        String minuteCollection = getCollection(Resolution.MINUTE);
+        Document sample = new Document("t", new Document("$add", Arrays.asList("$" + TIME_FIELD, new Document("$toLong", "$$this.k"))))
+                .append("v", "$$this.v");
+        Document samples = new Document("$map", new Document("input", new Document("$objectToArray", "$" + SAMPLES_FIELD)).append("in", sample));
+
+        for (List<Document> match : buildMatch(buckets, Resolution.MINUTE)) {
+            List<Document> pipeline = Arrays.asList(
+                    new Document("$match", new Document("$or", match)),
+                    new Document("$project", new Document(DEVICE_FIELD, 1).append(POINT_FIELD, 1).append(TIME_FIELD, 1).append("s", samples)),
+                    // first and last are compared as {t, v} documents, t decides the order
+                    new Document("$project", new Document("_id", 0).append(DEVICE_FIELD, 1).append(POINT_FIELD, 1).append(TIME_FIELD, 1)
+                            .append("min", new Document("$min", "$s.v"))
+                            .append("max", new Document("$max", "$s.v"))
+                            .append("sum", new Document("$sum", "$s.v"))
+                            .append("count", new Document("$size", "$s"))
+                            .append("first", new Document("$min", "$s"))
+                            .append("last", new Document("$max", "$s"))),
+                    buildMerge(minuteCollection, "discard")
+            );
+            mongoTemplate.getCollection(minuteCollection).aggregate(pipeline).allowDiskUse(true).toCollection();
+        }
+    }
+
+    /**
+     * 由细粒度时间桶重新计算粗粒度时间桶
+     *
+     * @param source  细粒度
+     * @param target  粗粒度
+     * @param buckets 受影响的分钟桶
+     */
+    private void recompute(Resolution source, Resolution target, Set<Bucket> buckets) {
+        Document time = new Document("$subtract", Arrays.asList("$" + TIME_FIELD,
+                new Document("$mod", Arrays.asList(new Document("$toLong", "$" + TIME_FIELD), target.getMillis()))));
+        Document group = new Document("_id", new Document(DEVICE_FIELD, "$" + DEVICE_FIELD).append(POINT_FIELD, "$" + POINT_FIELD).append(TIME_FIELD, time))
+                .append("min", new Document("$min", "$min"))
+                .append("max", new Document("$max", "$max"))
+                .append("sum", new Document("$sum", "$sum"))
+                .append("count", new Document("$sum", "$count"))
+                .append("first", new Document("$min", "$first"))
+                .append("last", new Document("$max", "$last"));
+        Document project = new Document("_id", 0)
+                .append(DEVICE_FIELD, "$_id." + DEVICE_FIELD)
+                .append(POINT_FIELD, "$_id." + POINT_FIELD)
+                .append(TIME_FIELD, "$_id." + TIME_FIELD)
+                .append("min", 1).append("max", 1).append("sum", 1).append("count", 1).append("first", 1).append("last", 1);
+
+        for (List<Document> match : buildMatch(buckets, target)) {
+            List<Document> pipeline = Arrays.asList(
+                    new Document("$match", new Document("$or", match)),
+                    new Document("$group", group),
+                    new Document("$project", project),
+                    buildMerge(getCollection(target), "insert")
+            );
+            mongoTemplate.getCollection(getCollection(source)).aggregate(pipeline).allowDiskUse(true).toCollection();
+        }
+    }
+
+    /**
+     * 构造受影响时间桶的查询条件, 每个位号一个条件, 按数量分块
+     *
+     * @param buckets    受影响的分钟桶
+     * @param resolution 需要重新计算的粒度
+     * @return 分块的查询条件
+     */
+    private List<List<Document>> buildMatch(Set<Bucket> buckets, Resolution resolution) {
+        Map<Bucket, TreeSet<Long>> pointMap = new HashMap<>(buckets.size());
+        buckets.forEach(bucket -> pointMap.computeIfAbsent(new Bucket(bucket.getDeviceId(), bucket.getPointId(), 0), key -> new TreeSet<>())
+                .add(floor(bucket.getTime(), resolution)));
+
+        List<List<Document>> chunks = new ArrayList<>();
+        List<Document> chunk = new ArrayList<>(RECOMPUTE_CHUNK);
+        for (Map.Entry<Bucket, TreeSet<Long>> entry : pointMap.entrySet()) {
+            TreeSet<Long> times = entry.getValue();
+            Document range = resolution == Resolution.MINUTE
+                    ? new Document("$in", times.stream().map(Date::new).collect(Collectors.toList()))
+                    : new Document("$gte", new Date(times.first())).append("$lt", new Date(times.last() + resolution.getMillis()));
+            chunk.add(new Document(DEVICE_FIELD, entry.getKey().getDeviceId()).append(POINT_FIELD, entry.getKey().getPointId()).append(TIME_FIELD, range));
+            if (chunk.size() >= RECOMPUTE_CHUNK) {
+                chunks.add(chunk);
+                chunk = new ArrayList<>(RECOMPUTE_CHUNK);
+            }
+        }
+        if (!chunk.isEmpty()) {
+            chunks.add(chunk);
+        }
+        return chunks;
+    }
+
+    private Document buildMerge(String into, String whenNotMatched) {
+        return new Document("$merge", new Document("into", into)
+                .append("on", Arrays.asList(DEVICE_FIELD, POINT_FIELD, TIME_FIELD))
+                .append("whenMatched", "merge")
+                .append("whenNotMatched", whenNotMatched));
+    }
+
+    private Query buildQuery(Bucket bucket) {
+        return Query.query(Criteria.where(DEVICE_FIELD).is(bucket.getDeviceId())
+                .and(POINT_FIELD).is(bucket.getPointId())
+                .and(TIME_FIELD).is(new Date(bucket.getTime())));
+    }
+
+    private Update buildUpdate(Bucket bucket, Map<Long, Double> samples) {
+        // Samples are keyed by the milliseconds into the minute
+        Update update = new Update();
+        samples.forEach((time, value) -> update.set(SAMPLES_FIELD + SymbolConstant.DOT + (time - bucket.getTime()), value));
+        return update;
+    }
+
+    private PointValueAggregateVO convert(Document document) {
+        PointValueAggregateVO aggregateVO = new PointValueAggregateVO();
+        aggregateVO.setTime(document.getDate(TIME_FIELD));
+        aggregateVO.setMin(toDouble(document.get("min")));
+        aggregateVO.setMax(toDouble(document.get("max")));
+        Number count = (Number) document.get("count");
+        aggregateVO.setCount(ObjectUtil.isNull(count) ? 0L : count.longValue());
+        Double sum = toDouble(document.get("sum"));
+        aggregateVO.setAvg(ObjectUtil.isNull(sum) || aggregateVO.getCount() == 0 ? null : sum / aggregateVO.getCount());
+        Document first = document.get("first", Document.class);
+        aggregateVO.setFirst(ObjectUtil.isNull(first) ? null : toDouble(first.get("v")));
+        Document last = document.get("last", Document.class);
+        aggregateVO.setLast(ObjectUtil.isNull(last) ? null : toDouble(last.get("v")));
+        return aggregateVO;
+    }
+
+    private static Double toDouble(Object value) {
+        return value instanceof Number ? ((Number) value).doubleValue() : null;
+    }
+
+    /**
+     * 选择时间桶数量不超过最大点数的最细粒度, 都超过时使用最粗粒度
+     *
+     * @param range     时间范围毫秒数
+     * @param maxPoints 最大点数
+     * @return Resolution
+     */
+    private static Resolution chooseResolution(long range, int maxPoints) {
+        for (Resolution resolution : Resolution.values()) {
+            if (range / resolution.getMillis() <= maxPoints) {
+                return resolution;
+            }
+        }
+        return Resolution.DAY;
+    }
+
+    private static long floor(long time, Resolution resolution) {
+        return time - Math.floorMod(time, resolution.getMillis());
+    }
+
+    private String getCollection(Resolution resolution) {
+        return collection + "_" + resolution.getCode();
+    }
+
+    /**
+     * 位号分钟桶
+     */
+    @Getter
+    @EqualsAndHashCode
+    @AllArgsConstructor
+    private static class Bucket {
+        private final String deviceId;
+        private final String pointId;
+        private final long time;
+    }
+}
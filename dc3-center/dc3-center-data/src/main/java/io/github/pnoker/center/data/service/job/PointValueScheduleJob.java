@@ -16,8 +16,12 @@
 
 package io.github.pnoker.center.data.service.job;
 
-import io.github.pnoker.center.data.service.PointValueService;
-import io.github.pnoker.common.entity.point.PointValue;
+import io.github.pnoker.center.data.buffer.AdaptiveBatchController;
+import io.github.pnoker.center.data.buffer.PointValueBuffer;
+import io.github.pnoker.center.data.buffer.PointValueCompressor;
+import io.github.pnoker.center.data.buffer.RepositoryPipeline;
+import io.github.pnoker.center.data.buffer.SpoolReader;
+import io.github.pnoker.center.data.service.RepositoryHandleService;
 import lombok.extern.slf4j.Slf4j;
 import org.jetbrains.annotations.NotNull;
 import org.quartz.JobExecutionContext;
@@ -27,11 +31,8 @@ import org.springframework.scheduling.quartz.QuartzJobBean;
 import org.springframework.stereotype.Component;
 
 import javax.annotation.Resource;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.concurrent.ThreadPoolExecutor;
+import java.util.Arrays;
 import java.util.concurrent.atomic.AtomicLong;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * @author pnoker
@@ -47,41 +48,17 @@ public class PointValueScheduleJob extends QuartzJobBean {
     private Integer interval;
 
     @Resource
-    private PointValueService pointValueService;
+    private PointValueBuffer pointValueBuffer;
     @Resource
-    private ThreadPoolExecutor threadPoolExecutor;
+    private AdaptiveBatchController adaptiveBatchController;
+    @Resource
+    private PointValueCompressor pointValueCompressor;
+    @Resource
+    private RepositoryHandleService repositoryHandleService;
 
-    public static final ReentrantReadWriteLock valueLock = new ReentrantReadWriteLock();
     public static final AtomicLong valueCount = new AtomicLong(0);
     public static final AtomicLong valueSpeed = new AtomicLong(0);
 
-    private static final List<PointValue> pointValues = new ArrayList<>();
-
-    /**
-     * 获取 PointValue 长度
-     *
-     * @return Point Value Size
-     */
-    public static int getPointValuesSize() {
-        return pointValues.size();
-    }
-
-    /**
-     * 清空 PointValue
-     */
-    public static void clearPointValues() {
-        pointValues.clear();
-    }
-
-    /**
-     * 添加 PointValue
-     *
-     * @param pointValue PointValue
-     */
-    public static void addPointValues(PointValue pointValue) {
-        pointValues.add(pointValue);
-    }
-
     @Override
     protected void executeInternal(@NotNull JobExecutionContext jobExecutionContext) throws JobExecutionException {
         // Statistical point value receive rate
@@ -89,17 +66,36 @@ public class PointValueScheduleJob extends QuartzJobBean {
         valueSpeed.set(speed);
         speed /= interval;
         if (speed >= batchSpeed) {
-            log.debug("Point value receiver speed: {} /s, value size: {}, interval: {}", speed, getPointValuesSize(), interval);
+            log.debug("Point value receiver speed: {} /s, buffer size: {}, shard depth: {}, interval: {}", speed, pointValueBuffer.size(), Arrays.toString(pointValueBuffer.depth()), interval);
         }
 
-        // Save point value array to Redis & MongoDB
-        threadPoolExecutor.execute(() -> {
-            valueLock.writeLock().lock();
-            if (!pointValues.isEmpty()) {
-                pointValueService.savePointValues(pointValues);
-                clearPointValues();
+        // Statistical adaptive batch decisions
+        if (adaptiveBatchController.isBatch()) {
+            log.debug("Point value adaptive batch rate: {} /s, batch size: {}, flush age: {} ms, save p99: {} ms, switches: {}",
+                    (long) adaptiveBatchController.getRate(), adaptiveBatchController.getBatchSize(), adaptiveBatchController.getFlushAge(),
+                    adaptiveBatchController.getLatency(), adaptiveBatchController.getSwitches());
+        }
+
+        // Statistical history compression ratio
+        if (pointValueCompressor.isEnable() && pointValueCompressor.getReceived() > 0) {
+            log.debug("Point value compress received: {}, archived: {}", pointValueCompressor.getReceived(), pointValueCompressor.getArchived());
+        }
+
+        // Statistical repository pipeline throughput and lag
+        for (RepositoryPipeline pipeline : repositoryHandleService.getPipelines()) {
+            long rate = pipeline.rate();
+            if (rate > 0 || pipeline.getQueueSize() > 0) {
+                log.debug("Repository {} pipeline speed: {} /s, queue: {}, lag: {} ms, dropped: {}, spilled: {}, failed: {}",
+                        pipeline.getName(), rate, pipeline.getQueueSize(), pipeline.getLag(), pipeline.getDropped(), pipeline.getSpilled(), pipeline.getFailed());
             }
-            valueLock.writeLock().unlock();
-        });
+        }
+
+        // Statistical write ahead spool backlog
+        for (SpoolReader spoolReader : repositoryHandleService.getSpoolReaders()) {
+            if (spoolReader.getPending() > 0) {
+                log.debug("Repository {} spool pending: {} bytes, written: {}, failed: {}",
+                        spoolReader.getName(), spoolReader.getPending(), spoolReader.getWritten(), spoolReader.getFailed());
+            }
+        }
     }
 }
@@ -18,11 +18,12 @@ package io.github.pnoker.center.data.service.rabbit;
 
 import cn.hutool.core.util.ObjectUtil;
 import com.rabbitmq.client.Channel;
-import io.github.pnoker.center.data.service.EventService;
-import io.github.pnoker.common.constant.common.PrefixConstant;
+import io.github.pnoker.center.data.buffer.DeviceEventDeduplicator;
+import io.github.pnoker.center.data.entity.bean.DeviceStatusFrame;
+import io.github.pnoker.center.data.service.DeviceStatusService;
 import io.github.pnoker.common.constant.driver.EventConstant;
 import io.github.pnoker.common.entity.DeviceEvent;
-import io.github.pnoker.common.utils.RedisUtil;
+import io.github.pnoker.common.utils.JsonUtil;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.amqp.core.Message;
 import org.springframework.amqp.rabbit.annotation.RabbitHandler;
@@ -31,7 +32,6 @@ import org.springframework.stereotype.Component;
 
 import javax.annotation.Resource;
 import java.io.IOException;
-import java.util.concurrent.ThreadPoolExecutor;
 
 /**
  * 接收驱动发送过来的设备事件
@@ -44,36 +44,40 @@ import java.util.concurrent.ThreadPoolExecutor;
 public class DeviceEventReceiver {
 
     @Resource
-    private RedisUtil redisUtil;
+    private DeviceStatusService deviceStatusService;
     @Resource
-    private EventService eventService;
-    @Resource
-    private ThreadPoolExecutor threadPoolExecutor;
+    private DeviceEventDeduplicator deviceEventDeduplicator;
 
     @RabbitHandler
     @RabbitListener(queues = "#{deviceEventQueue.name}")
     public void deviceEventReceive(Channel channel, Message message, DeviceEvent deviceEvent) {
         try {
             channel.basicAck(message.getMessageProperties().getDeliveryTag(), true);
-            if (ObjectUtil.isNull(deviceEvent) || ObjectUtil.isNull(deviceEvent.getDeviceId())) {
+            if (ObjectUtil.isNull(deviceEvent) || ObjectUtil.isNull(deviceEvent.getType())
+                    || (ObjectUtil.isNull(deviceEvent.getDeviceId()) && !DeviceStatusFrame.TYPE.equals(deviceEvent.getType()))) {
                 log.error("Invalid device event: {}", deviceEvent);
                 return;
             }
             log.debug("Device {} event, From: {}, Event: {}", deviceEvent.getType(), message.getMessageProperties().getReceivedRoutingKey(), deviceEvent);
 
             switch (deviceEvent.getType()) {
-                // Save device heartbeat to Redis
+                // Save device heartbeat to Redis & local status table, compatible with drivers reporting device by device
                 case EventConstant.Device.STATUS:
-                    redisUtil.setKey(
-                            PrefixConstant.DEVICE_STATUS_KEY_PREFIX + deviceEvent.getDeviceId(),
-                            deviceEvent.getContent(),
-                            deviceEvent.getTimeOut(),
-                            deviceEvent.getTimeUnit()
-                    );
+                    deviceStatusService.status(deviceEvent.getDeviceId(), String.valueOf(deviceEvent.getContent()), deviceEvent.getTimeOut(), deviceEvent.getTimeUnit());
+                    break;
+                // Save the status of all devices of a driver in one pipelined update
+                case DeviceStatusFrame.TYPE:
+                    DeviceStatusFrame frame = JsonUtil.parseObject(String.valueOf(deviceEvent.getContent()), DeviceStatusFrame.class);
+                    if (ObjectUtil.isNull(frame)) {
+                        log.error("Invalid device status frame: {}", deviceEvent);
+                        break;
+                    }
+                    deviceStatusService.status(frame, deviceEvent.getTimeOut(), deviceEvent.getTimeUnit());
+                    log.debug("Device status frame, From: {}, Devices: {}", message.getMessageProperties().getReceivedRoutingKey(), frame.deviceCount());
                     break;
+                // Insert the first error of the dedup window, repeats within it only update its count
                 case EventConstant.Device.ERROR:
-                    //TODO 去重
-                    threadPoolExecutor.execute(() -> eventService.addDeviceEvent(deviceEvent));
+                    deviceEventDeduplicator.offer(deviceEvent);
                     break;
                 default:
                     log.error("Invalid event type, {}", deviceEvent.getType());
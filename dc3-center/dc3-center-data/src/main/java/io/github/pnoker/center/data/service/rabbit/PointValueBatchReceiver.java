@@ -0,0 +1,117 @@
+/*
+ * Copyright 2016-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.pnoker.center.data.service.rabbit;
+
+import cn.hutool.core.util.ObjectUtil;
+import com.rabbitmq.client.Channel;
+import io.github.pnoker.center.data.buffer.AdaptiveBatchController;
+import io.github.pnoker.center.data.service.PointValuePushService;
+import io.github.pnoker.center.data.service.PointValueService;
+import io.github.pnoker.center.data.service.job.PointValueScheduleJob;
+import io.github.pnoker.common.entity.point.PointValue;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.amqp.rabbit.annotation.RabbitListener;
+import org.springframework.amqp.support.AmqpHeaders;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.messaging.Message;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 批量接收驱动发送过来的数据
+ * <p>
+ * 一个批次写入主存储成功后才确认该批次的全部消息, 写入失败则退回队列重新投递
+ *
+ * @author pnoker
+ * @since 2022.1.0
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "data.point.batch.consumer.enable", havingValue = "true")
+public class PointValueBatchReceiver {
+
+    @Value("${data.point.batch.consumer.backoff}")
+    private Long backoff;
+
+    @Resource
+    private PointValueService pointValueService;
+    @Resource
+    private PointValuePushService pointValuePushService;
+    @Resource
+    private AdaptiveBatchController adaptiveBatchController;
+
+    @RabbitListener(queues = "#{pointValueQueue.name}", containerFactory = "pointValueBatchContainerFactory")
+    public void pointValueReceive(Channel channel, List<Message<PointValue>> messages) {
+        if (messages.isEmpty()) {
+            return;
+        }
+
+        long deliveryTag = 0;
+        List<PointValue> pointValues = new ArrayList<>(messages.size());
+        for (Message<PointValue> message : messages) {
+            Long tag = message.getHeaders().get(AmqpHeaders.DELIVERY_TAG, Long.class);
+            if (ObjectUtil.isNotNull(tag) && tag > deliveryTag) {
+                deliveryTag = tag;
+            }
+
+            PointValue pointValue = message.getPayload();
+            if (ObjectUtil.isNull(pointValue) || ObjectUtil.isNull(pointValue.getDeviceId())) {
+                log.error("Invalid point value: {}", pointValue);
+                continue;
+            }
+            pointValues.add(pointValue);
+        }
+        PointValueScheduleJob.valueCount.getAndAdd(pointValues.size());
+        adaptiveBatchController.onArrival(pointValues.size());
+        log.debug("Point value batch, Received: {}, Valid: {}", messages.size(), pointValues.size());
+        pointValuePushService.publish(pointValues);
+
+        try {
+            pointValueService.persistPointValues(pointValues);
+            channel.basicAck(deliveryTag, true);
+        } catch (Exception e) {
+            log.error("Persist point value batch error, requeue {} messages: {}", messages.size(), e.getMessage(), e);
+            requeue(channel, deliveryTag);
+        }
+    }
+
+    /**
+     * 退回当前批次, 等待一段时间后再退回, 避免主存储不可用时反复投递
+     *
+     * @param channel     Channel
+     * @param deliveryTag 当前批次最后一条消息的 Delivery Tag
+     */
+    private void requeue(Channel channel, long deliveryTag) {
+        try {
+            TimeUnit.MILLISECONDS.sleep(backoff);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        try {
+            channel.basicNack(deliveryTag, true, true);
+        } catch (IOException e) {
+            log.error(e.getMessage(), e);
+        }
+    }
+}
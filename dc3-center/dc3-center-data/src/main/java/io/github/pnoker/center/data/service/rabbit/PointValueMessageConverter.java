@@ -0,0 +1,60 @@
+/*
+ * Copyright 2016-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.pnoker.center.data.service.rabbit;
+
+import io.github.pnoker.center.data.utils.PointValueCodecUtil;
+import io.github.pnoker.common.entity.point.PointValue;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.support.converter.MessageConversionException;
+import org.springframework.amqp.support.converter.MessageConverter;
+
+/**
+ * PointValue 二进制消息转换器
+ * <p>
+ * 消息体为 {@link PointValueCodecUtil} 编码的 PointValue, content-type 为 {@link #CONTENT_TYPE}。
+ * 多个值合并为一条消息时使用 Spring AMQP 的批量格式 (BatchingRabbitTemplate),
+ * 监听容器在转换前拆分批量消息, 每个值仍按本转换器解码。
+ *
+ * @author pnoker
+ * @since 2022.1.0
+ */
+public class PointValueMessageConverter implements MessageConverter {
+
+    public static final String CONTENT_TYPE = "application/x-dc3-point-value";
+
+    @Override
+    public Message toMessage(Object object, MessageProperties messageProperties) {
+        if (!(object instanceof PointValue)) {
+            throw new MessageConversionException("Unsupported binary payload type: " + object.getClass().getName());
+        }
+
+        messageProperties.setContentType(CONTENT_TYPE);
+        byte[] body = PointValueCodecUtil.encode((PointValue) object, true);
+        messageProperties.setContentLength(body.length);
+        return new Message(body, messageProperties);
+    }
+
+    @Override
+    public Object fromMessage(Message message) {
+        try {
+            return PointValueCodecUtil.decode(message.getBody());
+        } catch (RuntimeException e) {
+            throw new MessageConversionException("Decode binary point value error", e);
+        }
+    }
+}
@@ -18,20 +18,25 @@ package io.github.pnoker.center.data.service.rabbit;
 
 import cn.hutool.core.util.ObjectUtil;
 import com.rabbitmq.client.Channel;
+import io.github.pnoker.center.data.buffer.AdaptiveBatchController;
+import io.github.pnoker.center.data.buffer.PointValueBuffer;
+import io.github.pnoker.center.data.service.PointValuePushService;
 import io.github.pnoker.center.data.service.PointValueService;
-import io.github.pnoker.center.data.service.RepositoryHandleService;
 import io.github.pnoker.center.data.service.job.PointValueScheduleJob;
 import io.github.pnoker.common.entity.point.PointValue;
+import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.amqp.core.Message;
 import org.springframework.amqp.rabbit.annotation.RabbitHandler;
 import org.springframework.amqp.rabbit.annotation.RabbitListener;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.stereotype.Component;
 
 import javax.annotation.Resource;
 import java.io.IOException;
 import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * 接收驱动发送过来的数据
@@ -43,16 +48,27 @@ import java.util.concurrent.ThreadPoolExecutor;
  */
 @Slf4j
 @Component
+@ConditionalOnProperty(name = "data.point.batch.consumer.enable", havingValue = "false", matchIfMissing = true)
 public class PointValueReceiver {
 
-    @Value("${data.point.batch.speed}")
-    private Integer batchSpeed;
+    @Value("${data.point.batch.buffer.timeout}")
+    @Setter
+    private Long bufferTimeout;
 
     @Resource
+    @Setter
     private PointValueService pointValueService;
     @Resource
-    private RepositoryHandleService repositoryHandleService;
+    @Setter
+    private PointValuePushService pointValuePushService;
     @Resource
+    @Setter
+    private PointValueBuffer pointValueBuffer;
+    @Resource
+    @Setter
+    private AdaptiveBatchController adaptiveBatchController;
+    @Resource
+    @Setter
     private ThreadPoolExecutor threadPoolExecutor;
 
     @RabbitHandler
@@ -65,19 +81,22 @@ public class PointValueReceiver {
                 return;
             }
             PointValueScheduleJob.valueCount.getAndIncrement();
+            adaptiveBatchController.onArrival(1);
             log.debug("Point value, From: {}, Received: {}", message.getMessageProperties().getReceivedRoutingKey(), pointValue);
+            pointValuePushService.publish(pointValue);
 
-            // Judge whether to process data in batch according to the data transmission speed
-            if (PointValueScheduleJob.valueSpeed.get() < batchSpeed) {
+            // Judge whether to process data in batch according to the smoothed arrival rate
+            if (!adaptiveBatchController.isBatch()) {
                 threadPoolExecutor.execute(() ->
                         // Save point value to Redis & MongoDB
                         pointValueService.savePointValue(pointValue)
                 );
             } else {
-                // Save point value to schedule
-                PointValueScheduleJob.valueLock.writeLock().lock();
-                PointValueScheduleJob.addPointValues(pointValue);
-                PointValueScheduleJob.valueLock.writeLock().unlock();
+                // Save point value to buffer, wait for the buffer to drain when the shard is full
+                if (!pointValueBuffer.offer(pointValue, bufferTimeout, TimeUnit.MILLISECONDS)) {
+                    log.warn("Point value buffer is full, save directly: {}", pointValue.getDeviceId());
+                    threadPoolExecutor.execute(() -> pointValueService.savePointValue(pointValue));
+                }
             }
         } catch (IOException e) {
             log.error(e.getMessage(), e);
@@ -0,0 +1,132 @@
+/*
+ * Copyright 2016-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.pnoker.center.data.utils;
+
+import cn.hutool.core.text.CharSequenceUtil;
+import io.github.pnoker.common.constant.common.ExceptionConstant;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * 游标分页工具类
+ * <p>
+ * 按 (createTime, _id) 倒序翻页, 游标为最后一条记录的 createTime 和 _id,
+ * 对调用方不透明。下一页条件只依赖索引上的范围查询, 任意深度的翻页代价相同。
+ *
+ * @author pnoker
+ * @since 2022.1.0
+ */
+public class CursorUtil {
+
+    public static final String ID_FIELD = "_id";
+
+    private static final String SEPARATOR = ":";
+
+    private CursorUtil() {
+        throw new IllegalStateException(ExceptionConstant.UTILITY_CLASS);
+    }
+
+    /**
+     * 编码游标
+     *
+     * @param time 毫秒时间戳
+     * @param id   _id
+     * @return Cursor Token
+     */
+    public static String encode(long time, Object id) {
+        String raw = time + SEPARATOR + id;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 解码游标
+     *
+     * @param token Cursor Token
+     * @return Cursor
+     */
+    public static Cursor decode(String token) {
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+            int index = raw.indexOf(SEPARATOR);
+            long time = Long.parseLong(raw.substring(0, index));
+            String id = raw.substring(index + 1);
+            return new Cursor(time, ObjectId.isValid(id) ? new ObjectId(id) : id);
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Invalid cursor: " + token);
+        }
+    }
+
+    /**
+     * 按倒序排列时, 位于游标之后的记录条件
+     *
+     * @param timeField 时间字段
+     * @param time      游标时间, 类型与时间字段一致
+     * @param id        游标 _id
+     * @return Criteria
+     */
+    public static Criteria after(String timeField, Object time, Object id) {
+        return new Criteria().orOperator(
+                Criteria.where(timeField).lt(time),
+                Criteria.where(timeField).is(time).and(ID_FIELD).lt(id)
+        );
+    }
+
+    /**
+     * 估算总数, 没有查询条件时读取集合元数据, 否则最多计数到上限
+     *
+     * @param mongoTemplate MongoTemplate
+     * @param query         不包含游标条件的 Query
+     * @param collection    Collection Name
+     * @param limit         计数上限
+     * @return Estimated Total
+     */
+    public static long estimateTotal(MongoTemplate mongoTemplate, Query query, String collection, long limit) {
+        Document queryObject = query.getQueryObject();
+        if (queryObject.isEmpty()) {
+            return mongoTemplate.getCollection(collection).estimatedDocumentCount();
+        }
+        return mongoTemplate.count(Query.of(query).limit((int) limit), collection);
+    }
+
+    /**
+     * 是否为有效游标
+     *
+     * @param token Cursor Token
+     * @return boolean
+     */
+    public static boolean hasCursor(String token) {
+        return CharSequenceUtil.isNotBlank(token);
+    }
+
+    /**
+     * 游标内容
+     */
+    @Getter
+    @AllArgsConstructor
+    public static class Cursor {
+        private final long time;
+        private final Object id;
+    }
+}
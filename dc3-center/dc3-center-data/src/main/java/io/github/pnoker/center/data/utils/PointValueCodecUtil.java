@@ -0,0 +1,183 @@
+/*
+ * Copyright 2016-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.pnoker.center.data.utils;
+
+import cn.hutool.core.util.ObjectUtil;
+import io.github.pnoker.common.constant.common.ExceptionConstant;
+import io.github.pnoker.common.entity.point.PointValue;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+
+/**
+ * PointValue 紧凑二进制编解码工具类
+ * <p>
+ * 格式: [版本][字段标记][字段...], 字符串为 varint 长度 + UTF-8 内容, 时间为 varint 毫秒时间戳,
+ * 只写入字段标记中存在的字段。
+ *
+ * @author pnoker
+ * @since 2022.1.0
+ */
+public class PointValueCodecUtil {
+
+    private static final byte VERSION = 1;
+
+    private static final int DEVICE_ID = 1;
+    private static final int POINT_ID = 1 << 1;
+    private static final int RAW_VALUE = 1 << 2;
+    private static final int VALUE = 1 << 3;
+    private static final int ORIGIN_TIME = 1 << 4;
+    private static final int CREATE_TIME = 1 << 5;
+
+    private PointValueCodecUtil() {
+        throw new IllegalStateException(ExceptionConstant.UTILITY_CLASS);
+    }
+
+    /**
+     * 编码 PointValue
+     *
+     * @param pointValue PointValue
+     * @param withIds    是否写入设备ID和位号ID, 存储位置已经包含 ID 时可以省略
+     * @return byte[]
+     */
+    public static byte[] encode(PointValue pointValue, boolean withIds) {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream(64);
+        encode(pointValue, withIds, outputStream);
+        return outputStream.toByteArray();
+    }
+
+    /**
+     * 编码 PointValue 并写入输出流
+     *
+     * @param pointValue   PointValue
+     * @param withIds      是否写入设备ID和位号ID
+     * @param outputStream ByteArrayOutputStream
+     */
+    public static void encode(PointValue pointValue, boolean withIds, ByteArrayOutputStream outputStream) {
+        String deviceId = withIds ? pointValue.getDeviceId() : null;
+        String pointId = withIds ? pointValue.getPointId() : null;
+
+        int flags = 0;
+        flags |= ObjectUtil.isNotNull(deviceId) ? DEVICE_ID : 0;
+        flags |= ObjectUtil.isNotNull(pointId) ? POINT_ID : 0;
+        flags |= ObjectUtil.isNotNull(pointValue.getRawValue()) ? RAW_VALUE : 0;
+        flags |= ObjectUtil.isNotNull(pointValue.getValue()) ? VALUE : 0;
+        flags |= ObjectUtil.isNotNull(pointValue.getOriginTime()) ? ORIGIN_TIME : 0;
+        flags |= ObjectUtil.isNotNull(pointValue.getCreateTime()) ? CREATE_TIME : 0;
+
+        outputStream.write(VERSION);
+        outputStream.write(flags);
+        writeString(outputStream, deviceId);
+        writeString(outputStream, pointId);
+        writeString(outputStream, pointValue.getRawValue());
+        writeString(outputStream, pointValue.getValue());
+        writeTime(outputStream, pointValue.getOriginTime());
+        writeTime(outputStream, pointValue.getCreateTime());
+    }
+
+    /**
+     * 解码 PointValue
+     *
+     * @param bytes byte[]
+     * @return PointValue
+     */
+    public static PointValue decode(byte[] bytes) {
+        return decode(ByteBuffer.wrap(bytes));
+    }
+
+    /**
+     * 从当前位置解码一个 PointValue, 解码后 buffer 位于该 PointValue 之后
+     *
+     * @param buffer ByteBuffer
+     * @return PointValue
+     */
+    public static PointValue decode(ByteBuffer buffer) {
+        byte version = buffer.get();
+        if (version != VERSION) {
+            throw new IllegalArgumentException("Unsupported point value codec version: " + version);
+        }
+
+        int flags = buffer.get();
+        PointValue pointValue = new PointValue();
+        if ((flags & DEVICE_ID) != 0) {
+            pointValue.setDeviceId(readString(buffer));
+        }
+        if ((flags & POINT_ID) != 0) {
+            pointValue.setPointId(readString(buffer));
+        }
+        if ((flags & RAW_VALUE) != 0) {
+            pointValue.setRawValue(readString(buffer));
+        }
+        if ((flags & VALUE) != 0) {
+            pointValue.setValue(readString(buffer));
+        }
+        if ((flags & ORIGIN_TIME) != 0) {
+            pointValue.setOriginTime(new Date(readVarLong(buffer)));
+        }
+        if ((flags & CREATE_TIME) != 0) {
+            pointValue.setCreateTime(new Date(readVarLong(buffer)));
+        }
+        return pointValue;
+    }
+
+    private static void writeString(ByteArrayOutputStream outputStream, String value) {
+        if (ObjectUtil.isNull(value)) {
+            return;
+        }
+
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarLong(outputStream, bytes.length);
+        outputStream.write(bytes, 0, bytes.length);
+    }
+
+    private static void writeTime(ByteArrayOutputStream outputStream, Date value) {
+        if (ObjectUtil.isNull(value)) {
+            return;
+        }
+
+        writeVarLong(outputStream, value.getTime());
+    }
+
+    private static void writeVarLong(ByteArrayOutputStream outputStream, long value) {
+        while ((value & ~0x7FL) != 0) {
+            outputStream.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        outputStream.write((int) value);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = (int) readVarLong(buffer);
+        String value = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + length);
+        return value;
+    }
+
+    private static long readVarLong(ByteBuffer buffer) {
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+}
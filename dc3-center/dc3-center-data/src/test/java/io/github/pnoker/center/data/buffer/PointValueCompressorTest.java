@@ -0,0 +1,152 @@
+/*
+ * Copyright 2016-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.github.pnoker.center.data.buffer;
+
+import io.github.pnoker.common.entity.point.PointValue;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * PointValueCompressor 测试
+ *
+ * @author pnoker
+ * @since 2022.1.0
+ */
+class PointValueCompressorTest {
+
+    private static PointValueCompressor compressor(String mode, double deviation, double percent) {
+        PointValueCompressor compressor = new PointValueCompressor();
+        ReflectionTestUtils.setField(compressor, "compressMode", mode);
+        ReflectionTestUtils.setField(compressor, "deviation", deviation);
+        ReflectionTestUtils.setField(compressor, "percent", percent);
+        ReflectionTestUtils.setField(compressor, "maxInterval", 600000L);
+        ReflectionTestUtils.setField(compressor, "pointIdRegistry", new PointIdRegistry());
+        compressor.afterPropertiesSet();
+        return compressor;
+    }
+
+    private static PointValue pointValue(long time, String value) {
+        PointValue pointValue = new PointValue("device", "point", value, value);
+        pointValue.setOriginTime(new Date(time));
+        return pointValue;
+    }
+
+    private static List<String> values(PointValueCompressor.Batch batch) {
+        return batch.getHistory().stream().map(PointValue::getValue).collect(Collectors.toList());
+    }
+
+    private static List<String> commit(PointValueCompressor compressor, PointValue... pointValues) {
+        PointValueCompressor.Batch batch = compressor.compress(Arrays.asList(pointValues));
+        compressor.commit(batch);
+        return values(batch);
+    }
+
+    @Test
+    void deadbandReplayOfFailedBatchIsArchivedAgain() {
+        PointValueCompressor compressor = compressor("deadband", 1, 0);
+        commit(compressor, pointValue(0, "10"));
+
+        List<PointValue> failed = Collections.singletonList(pointValue(2000, "12"));
+        assertEquals(Collections.singletonList("12"), values(compressor.compress(failed)));
+
+        // The failed batch was never committed, the redelivered values are compressed against the same state
+        assertEquals(Collections.singletonList("12"), values(compressor.compress(failed)));
+        assertEquals(1, compressor.getReceived());
+    }
+
+    @Test
+    void deadbandCommittedBatchIsNotArchivedAgain() {
+        PointValueCompressor compressor = compressor("deadband", 1, 0);
+        commit(compressor, pointValue(0, "10"));
+        assertEquals(Collections.singletonList("12"), commit(compressor, pointValue(2000, "12")));
+        assertEquals(Collections.emptyList(), commit(compressor, pointValue(2000, "12")));
+    }
+
+    @Test
+    void swingingDoorReplayOfFailedBatchIsArchivedAgain() {
+        PointValueCompressor compressor = compressor("swinging-door", 1, 0);
+        commit(compressor, pointValue(0, "0"));
+
+        List<PointValue> failed = Arrays.asList(pointValue(1000, "0.1"), pointValue(2000, "5"));
+        assertEquals(Collections.singletonList("0.1"), values(compressor.compress(failed)));
+        assertEquals(Collections.singletonList("0.1"), values(compressor.compress(failed)));
+    }
+
+    @Test
+    void deadbandDeltaEqualToDeviationIsNotArchived() {
+        PointValueCompressor compressor = compressor("deadband", 1, 0);
+        commit(compressor, pointValue(0, "10"));
+        assertEquals(Collections.emptyList(), commit(compressor, pointValue(1000, "11"), pointValue(2000, "9")));
+        assertEquals(Collections.singletonList("11.5"), commit(compressor, pointValue(3000, "11.5")));
+    }
+
+    @Test
+    void deadbandPercentIsRelativeToArchivedValue() {
+        PointValueCompressor compressor = compressor("deadband", 0, 10);
+        commit(compressor, pointValue(0, "100"));
+        assertEquals(Collections.emptyList(), commit(compressor, pointValue(1000, "110"), pointValue(2000, "90")));
+        assertEquals(Collections.singletonList("110.5"), commit(compressor, pointValue(3000, "110.5")));
+
+        // The band follows the archived value 110.5, 11.05 wide
+        assertEquals(Collections.emptyList(), commit(compressor, pointValue(4000, "121")));
+    }
+
+    @Test
+    void deadbandWithoutDeviationArchivesEveryChange() {
+        PointValueCompressor compressor = compressor("deadband", 0, 0);
+        assertEquals(Arrays.asList("10", "10.001"), commit(compressor, pointValue(0, "10"), pointValue(1000, "10"), pointValue(2000, "10.001")));
+    }
+
+    @Test
+    void deadbandArchivesKeepaliveOutOfOrderAndNonNumericValues() {
+        PointValueCompressor compressor = compressor("deadband", 1, 0);
+        commit(compressor, pointValue(0, "10"));
+        assertEquals(Collections.emptyList(), commit(compressor, pointValue(599999, "10")));
+        assertEquals(Collections.singletonList("10"), commit(compressor, pointValue(600000, "10")));
+        assertEquals(Collections.singletonList("10.5"), commit(compressor, pointValue(500000, "10.5")));
+        assertEquals(Collections.singletonList("on"), commit(compressor, pointValue(700000, "on")));
+    }
+
+    @Test
+    void swingingDoorConcurrentBatchKeepsHeldValueOfOther() {
+        PointValueCompressor compressor = compressor("swinging-door", 1, 0);
+        commit(compressor, pointValue(0, "0"));
+
+        // Both batches compress against the same committed state
+        PointValueCompressor.Batch first = compressor.compress(Collections.singletonList(pointValue(1000, "0.1")));
+        PointValueCompressor.Batch second = compressor.compress(Collections.singletonList(pointValue(2000, "5")));
+        assertEquals(Collections.emptyList(), values(first));
+        assertEquals(Collections.emptyList(), values(second));
+
+        assertEquals(Collections.emptyList(), compressor.commit(first));
+        List<PointValue> extra = compressor.commit(second);
+        assertEquals(Collections.singletonList("0.1"), extra.stream().map(PointValue::getValue).collect(Collectors.toList()));
+        assertEquals(1, compressor.getConflicts());
+
+        // The replayed state holds the value of the second batch
+        assertEquals(Collections.singletonList("5"), commit(compressor, pointValue(3000, "-20")));
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright 2016-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.github.pnoker.center.data.buffer;
+
+import cn.hutool.core.util.ObjectUtil;
+import io.github.pnoker.center.data.service.RepositoryService;
+import io.github.pnoker.common.constant.driver.StrategyConstant;
+import io.github.pnoker.common.entity.point.PointValue;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * SpoolReader 测试
+ *
+ * @author pnoker
+ * @since 2022.1.0
+ */
+class SpoolReaderTest {
+
+    @TempDir
+    Path directory;
+
+    private WriteAheadSpool spool;
+    private RecordingRepositoryService mongo;
+    private SpoolReader reader;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        spool = new WriteAheadSpool(directory, 4096, 10);
+        mongo = new RecordingRepositoryService(StrategyConstant.Storage.MONGO);
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (ObjectUtil.isNotNull(reader)) {
+            reader.close(1000);
+        }
+        spool.close();
+    }
+
+    private static byte[] record(String value, byte target) {
+        PointValue pointValue = new PointValue("device", "point", value, value);
+        pointValue.setOriginTime(new Date());
+        return SpoolReader.encode(pointValue, target);
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean() && System.currentTimeMillis() < deadline) {
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+        assertTrue(condition.getAsBoolean());
+    }
+
+    private SpoolReader reader(WriteAheadSpool.Cursor cursor, boolean realtime) {
+        return new SpoolReader(mongo, cursor, realtime, 100, 50, new SinkMetrics(new SimpleMeterRegistry(), mongo.getRepositoryName()));
+    }
+
+    @Test
+    void cursorIsCommittedOnlyAfterWriteSucceeds() throws Exception {
+        spool.sync(spool.append(Arrays.asList(record("1", SpoolReader.HISTORY), record("2", SpoolReader.HISTORY))));
+
+        mongo.fail = true;
+        WriteAheadSpool.Cursor cursor = spool.cursor(mongo.getRepositoryName());
+        reader = reader(cursor, false);
+        await(() -> reader.getFailed() >= 4);
+        assertEquals(0, cursor.getPosition());
+        assertEquals(spool.getDurable(), cursor.getPending());
+
+        // The failed batch is read again from the committed position once the repository recovers
+        mongo.fail = false;
+        await(() -> cursor.getPending() == 0);
+        assertEquals(Arrays.asList("1", "2"), mongo.values());
+        assertEquals(2, reader.getWritten());
+    }
+
+    @Test
+    void readerOnlyWritesRecordsOfItsTarget() throws Exception {
+        byte both = SpoolReader.REALTIME | SpoolReader.HISTORY;
+        spool.sync(spool.append(Arrays.asList(record("1", SpoolReader.REALTIME), record("2", SpoolReader.HISTORY), record("3", both))));
+
+        WriteAheadSpool.Cursor cursor = spool.cursor(mongo.getRepositoryName());
+        reader = reader(cursor, false);
+        await(() -> cursor.getPending() == 0);
+        assertEquals(Arrays.asList("2", "3"), mongo.values());
+    }
+
+    /**
+     * 记录写入的 PointValue, fail 为 true 时写入失败
+     */
+    private static class RecordingRepositoryService implements RepositoryService {
+        private final String name;
+        private final List<PointValue> saved = new CopyOnWriteArrayList<>();
+        private volatile boolean fail;
+
+        private RecordingRepositoryService(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public String getRepositoryName() {
+            return name;
+        }
+
+        @Override
+        public void savePointValue(PointValue pointValue) throws IOException {
+            savePointValues(pointValue.getDeviceId(), Collections.singletonList(pointValue));
+        }
+
+        @Override
+        public void savePointValues(String deviceId, List<PointValue> pointValues) throws IOException {
+            if (fail) {
+                throw new IOException("Mongo unavailable");
+            }
+            saved.addAll(pointValues);
+        }
+
+        private List<String> values() {
+            return saved.stream().map(PointValue::getValue).collect(Collectors.toList());
+        }
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright 2016-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.github.pnoker.center.data.buffer;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * WriteAheadSpool 测试
+ *
+ * @author pnoker
+ * @since 2022.1.0
+ */
+class WriteAheadSpoolTest {
+
+    /**
+     * 每个分段放两条 20 字节的记录, 第三条写入时切换分段
+     */
+    private static final int SEGMENT_SIZE = 64;
+
+    @TempDir
+    Path directory;
+
+    private static List<byte[]> records(String... values) {
+        return Arrays.stream(values).map(value -> value.getBytes(StandardCharsets.UTF_8)).collect(Collectors.toList());
+    }
+
+    private static List<String> values(List<byte[]> records) {
+        return records.stream().map(record -> new String(record, StandardCharsets.UTF_8)).collect(Collectors.toList());
+    }
+
+    private static String record(char c) {
+        char[] chars = new char[20];
+        Arrays.fill(chars, c);
+        return new String(chars);
+    }
+
+    private long segmentCount() throws IOException {
+        try (Stream<Path> paths = Files.list(directory)) {
+            return paths.filter(path -> path.toString().endsWith(".wal")).count();
+        }
+    }
+
+    private WriteAheadSpool open() throws IOException {
+        return new WriteAheadSpool(directory, SEGMENT_SIZE, 10);
+    }
+
+    @Test
+    void recordsAreReadInOrderAcrossSegmentRolls() throws IOException {
+        List<String> values = Arrays.asList(record('a'), record('b'), record('c'), record('d'), record('e'));
+        try (WriteAheadSpool spool = open()) {
+            spool.sync(spool.append(records(values.toArray(new String[0]))));
+            assertEquals(3, segmentCount());
+
+            WriteAheadSpool.Cursor cursor = spool.cursor("mongo");
+            assertEquals(values, values(cursor.read(10)));
+
+            // Segments read by every cursor are deleted on commit
+            cursor.commit();
+            assertEquals(1, segmentCount());
+            assertEquals(Collections.emptyList(), cursor.read(10));
+        }
+    }
+
+    @Test
+    void tornRecordIsTruncatedOnRecovery() throws IOException {
+        try (WriteAheadSpool spool = open()) {
+            spool.sync(spool.append(records(record('a'), record('b'))));
+        }
+
+        // Corrupt the content of the second record, as a crash in the middle of a write would leave it
+        try (RandomAccessFile file = new RandomAccessFile(directory.resolve(String.format("%020d.wal", 0)).toFile(), "rw")) {
+            file.seek(28 + 8);
+            file.write('x');
+        }
+
+        try (WriteAheadSpool spool = open()) {
+            WriteAheadSpool.Cursor cursor = spool.cursor("mongo");
+            assertEquals(Collections.singletonList(record('a')), values(cursor.read(10)));
+
+            // The next record overwrites the torn one
+            spool.sync(spool.append(records(record('c'))));
+            assertEquals(Collections.singletonList(record('c')), values(cursor.read(10)));
+        }
+    }
+
+    @Test
+    void recordOverSegmentSizeIsRejected() throws IOException {
+        try (WriteAheadSpool spool = open()) {
+            char[] chars = new char[SEGMENT_SIZE];
+            Arrays.fill(chars, 'a');
+            assertThrows(IOException.class, () -> spool.append(records(new String(chars))));
+        }
+    }
+
+    @Test
+    void rewindReplaysUncommittedRecords() throws IOException {
+        try (WriteAheadSpool spool = open()) {
+            spool.sync(spool.append(records("a", "b", "c")));
+
+            WriteAheadSpool.Cursor cursor = spool.cursor("mongo");
+            assertEquals(Arrays.asList("a", "b"), values(cursor.read(2)));
+            cursor.rewind();
+            assertEquals(Arrays.asList("a", "b"), values(cursor.read(2)));
+            cursor.commit();
+        }
+
+        // The committed position survives a restart, only the uncommitted record is read again
+        try (WriteAheadSpool spool = open()) {
+            assertEquals(Collections.singletonList("c"), values(spool.cursor("mongo").read(10)));
+            assertEquals(Arrays.asList("a", "b", "c"), values(spool.cursor("influxdb").read(10)));
+        }
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright 2016-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.github.pnoker.center.data.service.impl;
+
+import io.github.pnoker.center.data.buffer.PointIdRegistry;
+import io.github.pnoker.center.data.buffer.PointValueCompressor;
+import io.github.pnoker.center.data.buffer.RealtimeValueCache;
+import io.github.pnoker.center.data.service.RepositoryService;
+import io.github.pnoker.common.constant.driver.StrategyConstant;
+import io.github.pnoker.common.entity.point.PointValue;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * RepositoryHandleServiceImpl 测试
+ *
+ * @author pnoker
+ * @since 2022.1.0
+ */
+class RepositoryHandleServiceImplTest {
+
+    private RecordingRepositoryService mongo;
+    private RepositoryHandleServiceImpl repositoryHandleService;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        PointIdRegistry pointIdRegistry = new PointIdRegistry();
+
+        PointValueCompressor pointValueCompressor = new PointValueCompressor();
+        ReflectionTestUtils.setField(pointValueCompressor, "compressMode", "deadband");
+        ReflectionTestUtils.setField(pointValueCompressor, "deviation", 1d);
+        ReflectionTestUtils.setField(pointValueCompressor, "percent", 0d);
+        ReflectionTestUtils.setField(pointValueCompressor, "maxInterval", 600000L);
+        ReflectionTestUtils.setField(pointValueCompressor, "pointIdRegistry", pointIdRegistry);
+        pointValueCompressor.afterPropertiesSet();
+
+        RealtimeValueCache realtimeValueCache = new RealtimeValueCache();
+        ReflectionTestUtils.setField(realtimeValueCache, "enable", false);
+
+        mongo = new RecordingRepositoryService(StrategyConstant.Storage.MONGO);
+
+        repositoryHandleService = new RepositoryHandleServiceImpl();
+        ReflectionTestUtils.setField(repositoryHandleService, "enableInfluxdb", false);
+        ReflectionTestUtils.setField(repositoryHandleService, "enableOpentsdb", false);
+        ReflectionTestUtils.setField(repositoryHandleService, "enableElasticsearch", false);
+        ReflectionTestUtils.setField(repositoryHandleService, "enableRollup", false);
+        ReflectionTestUtils.setField(repositoryHandleService, "enableLastValue", false);
+        ReflectionTestUtils.setField(repositoryHandleService, "capacity", 1000);
+        ReflectionTestUtils.setField(repositoryHandleService, "workerSize", 1);
+        ReflectionTestUtils.setField(repositoryHandleService, "batchSize", 100);
+        ReflectionTestUtils.setField(repositoryHandleService, "overflow", "block");
+        ReflectionTestUtils.setField(repositoryHandleService, "enableWal", false);
+        ReflectionTestUtils.setField(repositoryHandleService, "redisRepositoryService", new RecordingRepositoryService(StrategyConstant.Storage.REDIS));
+        ReflectionTestUtils.setField(repositoryHandleService, "mongoRepositoryService", mongo);
+        ReflectionTestUtils.setField(repositoryHandleService, "pointValueCompressor", pointValueCompressor);
+        ReflectionTestUtils.setField(repositoryHandleService, "realtimeValueCache", realtimeValueCache);
+        ReflectionTestUtils.setField(repositoryHandleService, "environment", new MockEnvironment());
+        ReflectionTestUtils.setField(repositoryHandleService, "meterRegistry", new SimpleMeterRegistry());
+        repositoryHandleService.afterPropertiesSet();
+    }
+
+    @AfterEach
+    void tearDown() {
+        repositoryHandleService.destroy();
+    }
+
+    private static PointValue pointValue(long time, String value) {
+        PointValue pointValue = new PointValue("device", "point", value, value);
+        pointValue.setOriginTime(new Date(time));
+        return pointValue;
+    }
+
+    @Test
+    void persistReplayOfFailedBatchIsArchived() throws IOException {
+        repositoryHandleService.persist(Collections.singletonList(pointValue(0, "10")));
+        assertEquals(Collections.singletonList("10"), mongo.values());
+
+        // The batch fails and is redelivered unchanged, as PointValueBatchReceiver does after a nack
+        List<PointValue> batch = Collections.singletonList(pointValue(2000, "12"));
+        mongo.fail = true;
+        assertThrows(IOException.class, () -> repositoryHandleService.persist(batch));
+
+        mongo.fail = false;
+        repositoryHandleService.persist(batch);
+        assertEquals(Arrays.asList("10", "12"), mongo.values());
+    }
+
+    /**
+     * 记录写入的 PointValue, fail 为 true 时写入失败
+     */
+    private static class RecordingRepositoryService implements RepositoryService {
+        private final String name;
+        private final List<PointValue> saved = new CopyOnWriteArrayList<>();
+        private volatile boolean fail;
+
+        private RecordingRepositoryService(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public String getRepositoryName() {
+            return name;
+        }
+
+        @Override
+        public void savePointValue(PointValue pointValue) throws IOException {
+            savePointValues(pointValue.getDeviceId(), Collections.singletonList(pointValue));
+        }
+
+        @Override
+        public void savePointValues(String deviceId, List<PointValue> pointValues) throws IOException {
+            if (fail) {
+                throw new IOException("Mongo unavailable");
+            }
+            saved.addAll(pointValues);
+        }
+
+        private List<String> values() {
+            return saved.stream().map(PointValue::getValue).collect(Collectors.toList());
+        }
+    }
+}
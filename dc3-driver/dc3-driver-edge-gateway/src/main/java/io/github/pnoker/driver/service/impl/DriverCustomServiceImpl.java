@@ -25,6 +25,7 @@ import io.github.pnoker.common.mqtt.service.MqttSendService;
 import io.github.pnoker.driver.sdk.DriverContext;
 import io.github.pnoker.driver.sdk.service.DriverCustomService;
 import io.github.pnoker.driver.sdk.service.DriverSenderService;
+import io.github.pnoker.driver.status.DeviceStatusFrameSender;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
 
@@ -46,6 +47,8 @@ public class DriverCustomServiceImpl implements DriverCustomService {
     @Resource
     private DriverSenderService driverSenderService;
     @Resource
+    private DeviceStatusFrameSender deviceStatusFrameSender;
+    @Resource
     private MqttSendService mqttSendService;
 
     @Override
@@ -73,7 +76,7 @@ public class DriverCustomServiceImpl implements DriverCustomService {
         - MAINTAIN:维护
         - FAULT:故障
          */
-        driverContext.getDriverMetadata().getDeviceMap().keySet().forEach(id -> driverSenderService.deviceStatusSender(id, DeviceStatusEnum.ONLINE));
+        deviceStatusFrameSender.sendAll(DeviceStatusEnum.ONLINE);
     }
 
     @Override
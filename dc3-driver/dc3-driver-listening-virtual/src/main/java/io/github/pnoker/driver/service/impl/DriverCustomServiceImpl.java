@@ -28,6 +28,7 @@ import io.github.pnoker.driver.sdk.service.DriverCustomService;
 import io.github.pnoker.driver.sdk.service.DriverSenderService;
 import io.github.pnoker.driver.service.netty.tcp.NettyTcpServer;
 import io.github.pnoker.driver.service.netty.udp.NettyUdpServer;
+import io.github.pnoker.driver.status.DeviceStatusFrameSender;
 import io.netty.channel.Channel;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
@@ -55,6 +56,8 @@ public class DriverCustomServiceImpl implements DriverCustomService {
     @Resource
     private DriverSenderService driverSenderService;
     @Resource
+    private DeviceStatusFrameSender deviceStatusFrameSender;
+    @Resource
     private NettyTcpServer nettyTcpServer;
     @Resource
     private NettyUdpServer nettyUdpServer;
@@ -94,7 +97,7 @@ public class DriverCustomServiceImpl implements DriverCustomService {
         - MAINTAIN:维护
         - FAULT:故障
          */
-        driverContext.getDriverMetadata().getDeviceMap().keySet().forEach(id -> driverSenderService.deviceStatusSender(id, DeviceStatusEnum.ONLINE));
+        deviceStatusFrameSender.sendAll(DeviceStatusEnum.ONLINE);
     }
 
     @Override
@@ -24,6 +24,7 @@ import io.github.pnoker.common.model.Point;
 import io.github.pnoker.driver.sdk.DriverContext;
 import io.github.pnoker.driver.sdk.service.DriverCustomService;
 import io.github.pnoker.driver.sdk.service.DriverSenderService;
+import io.github.pnoker.driver.status.DeviceStatusFrameSender;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
 
@@ -44,6 +45,8 @@ public class DriverCustomServiceImpl implements DriverCustomService {
     private DriverContext driverContext;
     @Resource
     private DriverSenderService driverSenderService;
+    @Resource
+    private DeviceStatusFrameSender deviceStatusFrameSender;
 
     /*@Resource
     private MqttSendService mqttSendService;*/
@@ -73,7 +76,7 @@ public class DriverCustomServiceImpl implements DriverCustomService {
         - MAINTAIN:维护
         - FAULT:故障
          */
-        driverContext.getDriverMetadata().getDeviceMap().keySet().forEach(id -> driverSenderService.deviceStatusSender(id, DeviceStatusEnum.ONLINE));
+        deviceStatusFrameSender.sendAll(DeviceStatusEnum.ONLINE);
     }
 
     @Override
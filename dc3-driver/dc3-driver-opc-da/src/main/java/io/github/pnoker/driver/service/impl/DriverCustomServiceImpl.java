@@ -30,6 +30,7 @@ import io.github.pnoker.driver.sdk.DriverContext;
 import io.github.pnoker.driver.sdk.service.DriverCustomService;
 import io.github.pnoker.driver.sdk.service.DriverSenderService;
 import io.github.pnoker.driver.sdk.utils.DriverUtil;
+import io.github.pnoker.driver.status.DeviceStatusFrameSender;
 import lombok.extern.slf4j.Slf4j;
 import org.jinterop.dcom.common.JIException;
 import org.jinterop.dcom.core.JIVariant;
@@ -59,6 +60,8 @@ public class DriverCustomServiceImpl implements DriverCustomService {
     private DriverContext driverContext;
     @Resource
     private DriverSenderService driverSenderService;
+    @Resource
+    private DeviceStatusFrameSender deviceStatusFrameSender;
 
     /**
      * Opc Da Server Map
@@ -91,7 +94,7 @@ public class DriverCustomServiceImpl implements DriverCustomService {
         - MAINTAIN:维护
         - FAULT:故障
          */
-        driverContext.getDriverMetadata().getDeviceMap().keySet().forEach(id -> driverSenderService.deviceStatusSender(id, DeviceStatusEnum.ONLINE));
+        deviceStatusFrameSender.sendAll(DeviceStatusEnum.ONLINE);
     }
 
     @Override
@@ -29,6 +29,7 @@ import io.github.pnoker.common.utils.JsonUtil;
 import io.github.pnoker.driver.sdk.DriverContext;
 import io.github.pnoker.driver.sdk.service.DriverCustomService;
 import io.github.pnoker.driver.sdk.service.DriverSenderService;
+import io.github.pnoker.driver.status.DeviceStatusFrameSender;
 import lombok.extern.slf4j.Slf4j;
 import org.eclipse.milo.opcua.sdk.client.OpcUaClient;
 import org.eclipse.milo.opcua.sdk.client.api.identity.AnonymousProvider;
@@ -60,6 +61,8 @@ public class DriverCustomServiceImpl implements DriverCustomService {
     private DriverContext driverContext;
     @Resource
     private DriverSenderService driverSenderService;
+    @Resource
+    private DeviceStatusFrameSender deviceStatusFrameSender;
 
     private Map<String, OpcUaClient> connectMap;
 
@@ -89,7 +92,7 @@ public class DriverCustomServiceImpl implements DriverCustomService {
         - MAINTAIN:维护
         - FAULT:故障
          */
-        driverContext.getDriverMetadata().getDeviceMap().keySet().forEach(id -> driverSenderService.deviceStatusSender(id, DeviceStatusEnum.ONLINE));
+        deviceStatusFrameSender.sendAll(DeviceStatusEnum.ONLINE);
     }
 
     @Override
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2016-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.pnoker.driver.status;
+
+import io.github.pnoker.common.entity.DeviceEvent;
+import io.github.pnoker.common.enums.DeviceStatusEnum;
+import io.github.pnoker.common.utils.JsonUtil;
+import io.github.pnoker.driver.sdk.DriverContext;
+import io.github.pnoker.driver.sdk.service.DriverSenderService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.support.CronExpression;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 设备状态心跳帧发送
+ * <p>
+ * 每个周期以一个设备事件上报驱动下全部设备的状态, 事件类型为 {@link #TYPE}, 设备ID为空,
+ * 内容为 状态码 -> 设备ID集合 的 JSON, 数据中心通过一次 Pipeline 更新全部设备状态。
+ * 状态有效期为自定义调度周期 (driver.schedule.custom.corn) 的 {@link #TTL_PERIODS} 倍,
+ * 错过个别周期不会让设备离线。
+ * <p>
+ * 升级顺序: 先升级数据中心, 再升级驱动。旧版本数据中心会丢弃设备ID为空的事件,
+ * 先升级的驱动上报的状态在数据中心升级前不会生效。
+ *
+ * @author pnoker
+ * @since 2022.1.0
+ */
+@Slf4j
+@Component
+public class DeviceStatusFrameSender implements InitializingBean {
+
+    /**
+     * 心跳帧事件类型, 与数据中心 DeviceStatusFrame.TYPE 一致
+     */
+    public static final String TYPE = "STATUS_FRAME";
+
+    /**
+     * 状态有效期包含的调度周期数
+     */
+    public static final int TTL_PERIODS = 5;
+
+    @Value("${driver.schedule.custom.corn}")
+    private String cron;
+
+    @Resource
+    private DriverContext driverContext;
+    @Resource
+    private DriverSenderService driverSenderService;
+
+    private int ttl;
+
+    /**
+     * 上报驱动下全部设备为同一状态
+     *
+     * @param status DeviceStatusEnum
+     */
+    public void sendAll(DeviceStatusEnum status) {
+        send(Collections.singletonMap(status.getCode(), driverContext.getDriverMetadata().getDeviceMap().keySet()));
+    }
+
+    /**
+     * 上报心跳帧
+     *
+     * @param frame 状态码 -> 设备ID集合
+     */
+    public void send(Map<String, ? extends Collection<String>> frame) {
+        driverSenderService.deviceEventSender(new DeviceEvent(null, TYPE, JsonUtil.toJsonString(frame), ttl, TimeUnit.SECONDS));
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        // Period between two fire times of the status schedule
+        CronExpression expression = CronExpression.parse(cron);
+        LocalDateTime first = expression.next(LocalDateTime.now());
+        LocalDateTime second = expression.next(first);
+        ttl = (int) Math.max(1, Duration.between(first, second).getSeconds() * TTL_PERIODS);
+        log.info("Device status frame ttl: {} s, schedule: {}", ttl, cron);
+    }
+}